@@ -15,7 +15,7 @@ import Toast from 'react-native-root-toast';
 import { getDisplayTxInfo } from '../Lib/Format';
 import I18n from '../I18n';
 import Config from 'react-native-config';
-import { layer1, getDocumentTitle } from '../Resources/inject';
+import { layer1, getDocumentTitle, DAPP_RPC_URL } from '../Resources/inject';
 import HeaderLeftComponent from '../Components/HeaderLeftComponent';
 import { StackActions, SafeAreaView } from 'react-navigation';
 import { formateUrl } from '../Lib/Format'
@@ -284,13 +284,13 @@ class Layer2WebScreen extends Component {
 
   render() {
     const { isShowPassphrase, isShowSignTx, isShowSignMsg } = this.state;
-    const { loading, web3Provider, address } = this.props;
+    const { loading, web3Provider, dappRpcUrl, address } = this.props;
 
     const { url } = this.props.navigation.state.params;
 
     const sprintf = require('sprintf-js').sprintf;
     // 登陆后才可以获取 address  Config.CONTACT_IP
-    const signer = sprintf(layer1, address.toLocaleLowerCase(), 'http://39.96.8.192:8545', Config.CHAIN_ID);
+    const signer = sprintf(layer1, address.toLocaleLowerCase(), dappRpcUrl || DAPP_RPC_URL, Config.CHAIN_ID);
 
     const injectScript = web3Provider + '' + signer + '' +  getDocumentTitle;
 
@@ -353,10 +353,10 @@ class Layer2WebScreen extends Component {
 
 const mapStateToProps = (state) => {
   const {
-    user: { web3Provider, isLoginInfo, address },
+    user: { web3Provider, dappRpcUrl, isLoginInfo, address },
     wallet: { loading }
   } = state;
-  return { loading, web3Provider, isLoginInfo, address };
+  return { loading, web3Provider, dappRpcUrl, isLoginInfo, address };
 };
 
 const mapDispatchToProps = (dispatch) => ({
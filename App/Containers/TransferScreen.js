@@ -15,6 +15,7 @@ import Spinner from 'react-native-loading-spinner-overlay';
 import Toast from 'react-native-root-toast';
 import { formateAddress, isValidTransferAmount } from '../Lib/Utils';
 import { getDisplayFiat } from '../Lib/Format';
+import GethModule from '../Lib/NativeBridge/WalletUtils';
 
 
 class TransferScreen extends Component {
@@ -35,6 +36,7 @@ class TransferScreen extends Component {
       inputBalance: '0',
       inputAddress: '',
       inputFiat: '',
+      ticketId: '',
 
       isShowSignTx: false,
       isShowPswdInput: false
@@ -43,6 +45,23 @@ class TransferScreen extends Component {
 
   componentDidMount = () => {
     this.props.setLoading({ loading: false });
+    this._loadGasPrices();
+  }
+
+  // 使用原生预言机的建议 gas 价格作为默认值
+  _loadGasPrices = async () => {
+    try {
+      const { normal = '0', fast = '0' } = await GethModule.getGasPrices() || {};
+      const toGwei = (wei) => Math.ceil(parseFloat(wei) / 1e9);
+      const inputGas = Math.max(this.state.minGas, toGwei(normal));
+      if (!inputGas) return;
+      this.setState({
+        inputGas,
+        maxGas: Math.max(this.state.maxGas, toGwei(fast) * 2)
+      });
+    } catch (error) {
+      // 保留默认 gas
+    }
   }
 
   _onPressBtn = async () => {
@@ -69,6 +88,30 @@ class TransferScreen extends Component {
       inputAddress: address,
       isShowSignTx: true
     });
+    this._prepareTransfer(address);
+  }
+
+  // 表单有效后提前获取 nonce 和 gas, 确认时只需签名广播
+  _prepareTransfer = async (toAddress) => {
+    const { address = '', selectedToken } = this.props;
+    const { Tokenaddress: tokenAddress, Symbol: symbol, Decimal: decimal } = selectedToken;
+    const { inputBalance } = this.state;
+    try {
+      const { ticketId = '' } = await GethModule.prepareTransfer({
+        symbol,
+        fromAddress: address,
+        toAddress,
+        value: inputBalance,
+        decimal,
+        tokenAddress
+      }) || {};
+      // 等待期间表单被修改则丢弃该 ticket
+      if (this.state.inputBalance === inputBalance && this.state.inputAddress === toAddress) {
+        this.setState({ ticketId });
+      }
+    } catch (error) {
+      this.setState({ ticketId: '' });
+    }
   }
 
   _onChangeBalance = (text) => {
@@ -77,13 +120,15 @@ class TransferScreen extends Component {
     const inputFiat = rate * text;
     this.setState({
       inputBalance: text,
-      inputFiat
+      inputFiat,
+      ticketId: ''
     });
   }
 
   _onChangeAddress = (text) => {
     this.setState({
-      inputAddress: text
+      inputAddress: text,
+      ticketId: ''
     });
   }
 
@@ -93,7 +138,8 @@ class TransferScreen extends Component {
         const { data = '' } = params;
 
         this.setState({
-          inputAddress: data
+          inputAddress: data,
+          ticketId: ''
         });
       }
     });
@@ -134,7 +180,8 @@ class TransferScreen extends Component {
   _transfer = (passphrase) => {
     const { address = '', selectedToken } = this.props;
     const { Tokenaddress: tokenAddress, Symbol: symbol, Decimal: decimal } = selectedToken;
-    const { inputBalance, inputAddress, inputGas } = this.state;
+    const { inputBalance, inputAddress, inputGas, ticketId } = this.state;
+    this.setState({ ticketId: '' });
 
     this.props.gethTransfer({
       symbol,
@@ -144,7 +191,8 @@ class TransferScreen extends Component {
       value: inputBalance,
       gasPrice: inputGas.toString(),
       decimal,
-      tokenAddress
+      tokenAddress,
+      ticketId
     }
     );
   }
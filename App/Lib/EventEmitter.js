@@ -3,9 +3,26 @@ export  const EventKeys = {
     WALLET_UNLOCKED:'WALLET_UNLOCKED',
     IS_NEW_WALLET_SUCCESS:'IS_NEW_WALLET_SUCCESS',
     NO_MORE_RECORD:'NO_MORE_RECORD',
+    // emitted by GethModule for every new block while the app is in the foreground
+    NEW_BLOCK:'NEW_BLOCK',
+    // emitted by GethModule with the balances that changed since the last read
+    PORTFOLIO_UPDATED:'PORTFOLIO_UPDATED',
+    // emitted by GethModule once a sent transaction settles
+    TX_CONFIRMED:'TX_CONFIRMED',
+    TX_FAILED:'TX_FAILED',
+    TX_DROPPED:'TX_DROPPED',
 
 
 
 };
 
-export { DeviceEventEmitter as EventEmitter } from 'react-native';
+import { DeviceEventEmitter } from 'react-native';
+import { eventChannel } from 'redux-saga';
+
+export { DeviceEventEmitter as EventEmitter };
+
+// 把一个原生事件包装成 saga 可以 take 的 channel, channel 关闭时移除监听
+export const createEventChannel = key => eventChannel((emit) => {
+    const subscription = DeviceEventEmitter.addListener(key, payload => emit(payload || {}));
+    return () => subscription.remove();
+});
@@ -12,7 +12,16 @@ async function readWeb3Provider(){
     return data;
 }
 
+// 在本地启动 dapp 浏览器使用的 JSON-RPC 代理, 返回 { rpcUrl }
+async function startRpcProxy({upstreamUrl, chainId}){
+    if (Platform.OS !== 'android') {
+        return { rpcUrl: upstreamUrl };
+    }
+    return await bundleModule.startRpcProxy(upstreamUrl, String(chainId));
+}
+
 
 export default {
     readWeb3Provider,
+    startRpcProxy,
 };
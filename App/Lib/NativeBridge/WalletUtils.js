@@ -9,7 +9,11 @@ const gethModule = NativeModules.GethModule;
 async function init(){
     try {
         const isLogin = await DeviceStorage.getItem(Keys.IS_USER_LOGINED) || false;
-        return gethModule.init(isLogin, Config.CONTACT_IP, Config.CHAIN_ID);
+        // Android 可配置多个节点 (CONTACT_IP_FALLBACKS, 逗号分隔), 按延迟和错误率自动选择
+        const contactIp = Platform.OS === 'android' && Config.CONTACT_IP_FALLBACKS
+            ? [Config.CONTACT_IP, Config.CONTACT_IP_FALLBACKS].join(',')
+            : Config.CONTACT_IP;
+        return gethModule.init(isLogin, contactIp, Config.CHAIN_ID);
     } catch (error) {
         console.log('==========error==========================');
         console.log(error);
@@ -29,6 +33,34 @@ async function unlockAccount({passphrase}){
     return await gethModule.unlockAccount(passphrase);
 }
 
+async function getAccounts(){
+    return await gethModule.getAccounts();
+}
+
+async function selectAccount({address}){
+    return await gethModule.selectAccount(address);
+}
+
+function setUnlockTimeout({seconds}){
+    return gethModule.setUnlockTimeout(seconds);
+}
+
+function setNonceIdleTimeout({seconds}){
+    return gethModule.setNonceIdleTimeout(seconds);
+}
+
+function setReadReuseWindow({millis}){
+    return gethModule.setReadReuseWindow(millis);
+}
+
+async function getReadStats(){
+    return await gethModule.getReadStats();
+}
+
+async function getScryptParams(){
+    return await gethModule.getScryptParams();
+}
+
 async function  randomMnemonic(){
     return await gethModule.randomMnemonic();
 }
@@ -37,6 +69,14 @@ async function importMnemonic({mnemonic, passphrase}){
     return await gethModule.importMnemonic(mnemonic, passphrase);
 }
 
+async function scanMnemonicAccounts({mnemonic, gapLimit = 20}){
+    return await gethModule.scanMnemonicAccounts(mnemonic, gapLimit);
+}
+
+async function importMnemonicAccounts({mnemonic, passphrase, indices}){
+    return await gethModule.importMnemonicAccounts(mnemonic, passphrase, indices);
+}
+
 async function importPrivateKey({privateKey, passphrase}){
     return await gethModule.importPrivateKey(privateKey, passphrase);
 }
@@ -45,15 +85,94 @@ async function exportPrivateKey({passphrase}){
     return await gethModule.exportPrivateKey(passphrase);
 }
 
-async function transfer({symbol='ETH', passphrase='', fromAddress='', toAddress='', value='0', gasPrice='0', decimal, tokenAddress}){
+// 表单有效时提前获取 nonce / gasPrice / gasLimit / chainId, 返回 { ticketId, gasPrice, gasLimit, expiresInMillis }
+async function prepareTransfer({symbol='ETH', fromAddress='', toAddress='', value='0', decimal, tokenAddress=''}){
+    if (Platform.OS !== 'android') {
+        return {};
+    }
+    const amount = getWei(value, decimal);
+    return await gethModule.prepareTransfer(fromAddress, toAddress, symbol === 'ETH' ? '' : tokenAddress, amount);
+}
+
+async function transfer({symbol='ETH', passphrase='', fromAddress='', toAddress='', value='0', gasPrice='0', decimal, tokenAddress, ticketId=''}){
     const amount = getWei(value, decimal);
     const price =  getWei(gasPrice, 9);
+    if (ticketId) {
+        try {
+            return await gethModule.commitTransfer(ticketId, passphrase, price);
+        } catch (error) {
+            // ticket 过期或已使用时按普通转账处理
+            if (error.code !== 'E_TICKET_EXPIRED') {
+                throw error;
+            }
+        }
+    }
     if (symbol === 'ETH') {
         return await gethModule.transferEth(passphrase, fromAddress, toAddress, amount, price);
     }
     return await gethModule.transferTokens(passphrase, fromAddress, toAddress, tokenAddress, amount, price);
 }
 
+// 加速待打包交易: 相同 nonce, 提高 gas 价格重新签名广播; gasPrice 为 0 时使用预言机 fast 价格, 至少比原交易高 10%
+// 返回 { txHash, replaces, gasPrice, queued }, 打包结果通过 TX_CONFIRMED / TX_DROPPED (replacedBy) 事件通知
+async function speedUpTransaction({passphrase='', txHash='', gasPrice='0'}){
+    return await gethModule.speedUp(passphrase, txHash, getWei(gasPrice, 9));
+}
+
+// 取消待打包交易: 相同 nonce 向自己转账 0 ETH, 价格规则同加速
+async function cancelTransaction({passphrase='', txHash='', gasPrice='0'}){
+    return await gethModule.cancel(passphrase, txHash, getWei(gasPrice, 9));
+}
+
+async function transferBatch({passphrase='', items=[]}){
+    const batchItems = items.map(({toAddress='', value='0', gasPrice='0', decimal, tokenAddress=''}) => ({
+        toAddress,
+        tokenAddress,
+        value: getWei(value, decimal),
+        gas: getWei(gasPrice, 9)
+    }));
+    return await gethModule.transferBatch(passphrase, batchItems);
+}
+
+// 原生 gas 价格预言机, 返回 { slow, normal, fast } (wei), 每个区块采样一次
+async function getGasPrices(){
+    return await gethModule.getGasPrices();
+}
+
+async function getOutbox(){
+    return await gethModule.getOutbox();
+}
+
+async function rpcBatch(calls=[]){
+    const result = await gethModule.rpcBatch(JSON.stringify(calls));
+    const {results} = getResolveMap(result);
+    return JSON.parse(results);
+}
+
+async function getBalances({addresses=[], block='latest'}){
+    return await rpcBatch(addresses.map((address) => ({method:'eth_getBalance', params:[address, block]})));
+}
+
+async function getNonces({addresses=[], block='pending'}){
+    return await rpcBatch(addresses.map((address) => ({method:'eth_getTransactionCount', params:[address, block]})));
+}
+
+async function getReceipts({txHashes=[]}){
+    return await rpcBatch(txHashes.map((txHash) => ({method:'eth_getTransactionReceipt', params:[txHash]})));
+}
+
+async function ethCalls({calls=[], block='latest'}){
+    return await rpcBatch(calls.map(({to, data}) => ({method:'eth_call', params:[{to, data}, block]})));
+}
+
+async function getTokenBalances({holders=[], tokens=[]}){
+    return await gethModule.getTokenBalances(holders, tokens);
+}
+
+async function getPortfolio({holders=[], tokens=[]}){
+    return await gethModule.getPortfolio(holders, tokens);
+}
+
 function getResolveMap(params){
   if (Platform.OS === 'ios') {
       const result = Ramda.head(params);
@@ -96,11 +215,33 @@ export default {
     unInit,
     isUnlockAccount,
     unlockAccount,
+    getAccounts,
+    selectAccount,
+    setUnlockTimeout,
+    setNonceIdleTimeout,
+    setReadReuseWindow,
+    getReadStats,
+    getScryptParams,
     randomMnemonic,
     importMnemonic,
+    scanMnemonicAccounts,
+    importMnemonicAccounts,
     importPrivateKey,
     exportPrivateKey,
+    prepareTransfer,
     transfer,
+    speedUpTransaction,
+    cancelTransaction,
+    transferBatch,
+    getOutbox,
+    getGasPrices,
+    rpcBatch,
+    getBalances,
+    getNonces,
+    getReceipts,
+    ethCalls,
+    getTokenBalances,
+    getPortfolio,
     getDisplayedPrivateKey,
     getGethPrivateKey,
     getResolveMap,
@@ -24,7 +24,9 @@ const { Types, Creators } = createActions({
     getTxlistSuccess: ['data'],
     getTxlistFailure: null,
 
-    updateBalance: null
+    updateBalance: null,
+    // 原生 TX_CONFIRMED / TX_FAILED / TX_DROPPED 事件
+    txSettled: ['data']
 });
 
 export const AssetTypes = Types;
@@ -50,13 +52,16 @@ export const INITIAL_STATE = Immutable({
     balances:[],
     txlist:[],
     ethBanance:'',
-    ethRate: ''
+    ethRate: '',
+    // 原生 NEW_BLOCK 事件带来的最新区块号
+    blockNumber: ''
 });
 
 /* ------------- Selectors ------------- */
 export const AssetSelectors = {
     getBalances: state => state.assets.balances,
     getTxlist: state => state.assets.txlist,
+    getBlockNumber: state => state.assets.blockNumber,
     tokens: state => state.assets.tokenList
 };
 
@@ -106,6 +111,28 @@ export const getTokenBalanceSuccess = (state, { data }) =>{
     return state.merge({tokenList:list});
 };
 
+// 已结算的交易写回交易记录, 字段与 etherscan 返回的一致
+export const txSettled = (state, { data }) =>{
+    const {txlist} = state;
+    const {txHash, status, blockNumber} = data;
+    const list = txlist.map((tx)=>{
+        const {hash = ''} = tx;
+        if (hash.toLowerCase() !== txHash.toLowerCase()) {
+            return tx;
+        }
+        if (status === 'dropped') {
+            return tx.merge({dropped: true});
+        }
+        const failed = status === 'failed';
+        return tx.merge({
+            blockNumber: blockNumber ? String(parseInt(blockNumber, 16)) : tx.blockNumber,
+            txreceipt_status: failed ? '0' : '1',
+            isError: failed ? '1' : '0'
+        });
+    });
+    return state.merge({txlist:list});
+};
+
 export const success = (state, { data }) => state.merge({ refreshing: false, loading: false, ...data });
 
 export const failure = (state) => state.merge({ refreshing: false, loading: false });
@@ -127,5 +154,7 @@ export const reducer = createReducer(INITIAL_STATE, {
 
     [Types.GET_TXLIST_REQUEST]: request,
     [Types.GET_TXLIST_SUCCESS]: success,
-    [Types.GET_TXLIST_FAILURE]: failure
+    [Types.GET_TXLIST_FAILURE]: failure,
+
+    [Types.TX_SETTLED]: txSettled
 });
@@ -38,6 +38,7 @@ export const INITIAL_STATE = Immutable({
     isAgreeInfo:false,
 
     web3Provider:'',
+    dappRpcUrl:'',
     defaultRate:'',
 
     language:{
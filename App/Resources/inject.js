@@ -1,4 +1,6 @@
 
+export const DAPP_RPC_URL = 'http://39.96.8.192:8545';
+
 export const layer1 = `
 const addressHex = '%1$s';
 const rpcURL = '%2$s';
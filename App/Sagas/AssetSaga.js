@@ -1,4 +1,4 @@
-import { call, put, select, all } from 'redux-saga/effects';
+import { call, put, select, all, take, fork } from 'redux-saga/effects';
 import Config from 'react-native-config';
 import AssetActions from '../Redux/AssetRedux';
 import { UserSelectors } from '../Redux/UserRedux';
@@ -7,8 +7,10 @@ import Toast from 'react-native-root-toast';
 import { DeviceStorage, Keys } from '../Lib/DeviceStorage';
 import { CurrencyConfig } from '../Config/MineConfig';
 import I18n from '../I18n';
-import { EventEmitter, EventKeys } from '../Lib/EventEmitter';
+import { EventEmitter, EventKeys, createEventChannel } from '../Lib/EventEmitter';
 import Ramda from 'ramda';
+import { Platform } from 'react-native';
+import WalletUtils from '../Lib/NativeBridge/WalletUtils';
 
 
 import Moment from 'moment';
@@ -18,30 +20,69 @@ const apiKey = Config.ETHERSCAN_API_KEY;
 const environment = 'rinkeby';
 const timeout = 10000;
 
+// 逐个 token 通过 etherscan 查询余额 (iOS, 以及原生读取失败时的兜底)
+function* updateBalanceFromEtherscan(tokens, address) {
+  for (const token of tokens) {
+    const { Symbol: symbol, Tokenaddress: tokenAddress } = token;
+    if (symbol === 'ETH') {
+      yield put(AssetActions.getBalanceRequest({ address }));
+    } else {
+      // address, tokenname, contractaddress
+      const api = require('etherscan-api').init(apiKey, environment, timeout);
+      const response = yield call(api.account.tokenbalance, address, '', tokenAddress);
+      const { status, result } = response;
+      if (status) {
+        yield put(AssetActions.getTokenBalanceSuccess({
+          symbol,
+          banance: result
+        }));
+      } else {
+        yield put(AssetActions.getTokenBalanceFailure());
+      }
+    }
+  }
+}
+
+// 通过原生余额缓存读取全部余额，每个区块最多请求一次节点
+// 原生读取失败 (如链上没有 Multicall 合约或节点不可达) 或单个余额为 null 时, 回退到 etherscan
+function* updateBalanceFromNode(tokens, address) {
+  const tokenAddresses = tokens.map(({ Symbol: symbol, Tokenaddress: tokenAddress }) => (symbol === 'ETH' ? '' : tokenAddress));
+  let balances;
+  try {
+    ({ balances } = yield call(WalletUtils.getPortfolio, { holders: [address], tokens: tokenAddresses }));
+  } catch (error) {
+    console.log('getPortfolio==>'+error);
+    yield call(updateBalanceFromEtherscan, tokens, address);
+    return;
+  }
+
+  const missing = [];
+  for (let i = 0; i < tokens.length; i++) {
+    const { Symbol: symbol } = tokens[i];
+    const { balance = null } = balances[i] || {};
+    if (balance === null) {
+      missing.push(tokens[i]);
+    } else if (symbol === 'ETH') {
+      yield put(AssetActions.getBalanceSuccess({ symbol, banance: balance }));
+    } else {
+      yield put(AssetActions.getTokenBalanceSuccess({ symbol, banance: balance }));
+    }
+  }
+  if (missing.length) {
+    yield call(updateBalanceFromEtherscan, missing, address);
+  }
+}
+
 export function* updateBalance() {
   try {
     const tokens = yield select(AssetSelectors.tokens);
+    const address = yield select(UserSelectors.getAddress);
 
-    for (const token of tokens) {
-      const { Symbol: symbol, Tokenaddress: tokenAddress } = token;
-      const address = yield select(UserSelectors.getAddress);
-      if (symbol === 'ETH') {
-        yield put(AssetActions.getBalanceRequest({ address }));
-      } else {
-        // address, tokenname, contractaddress
-        const api = require('etherscan-api').init(apiKey, environment, timeout);
-        const response = yield call(api.account.tokenbalance, address, '', tokenAddress);
-        const { status, result } = response;
-        if (status) {
-          yield put(AssetActions.getTokenBalanceSuccess({
-            symbol,
-            banance: result
-          }));
-        } else {
-          yield put(AssetActions.getTokenBalanceFailure());
-        }
-      }
+    if (Platform.OS === 'android') {
+      yield call(updateBalanceFromNode, tokens, address);
+      return;
     }
+    yield call(updateBalanceFromEtherscan, tokens, address);
   } catch (error) {
     console.log('updateBalance==>'+error);
   }
@@ -266,5 +307,67 @@ export function* getTokenBalance(action) {
   }
 }
 
+// PORTFOLIO_UPDATED: 只带变化了的余额 {holder, token, balance, blockNumber}, token 为空表示 ETH
+export function* applyPortfolio({ balances = [] }) {
+  const tokens = yield select(AssetSelectors.tokens);
+  const address = yield select(UserSelectors.getAddress);
+  if (!address) {
+    return;
+  }
+  for (const { holder = '', token = '', balance = null } of balances) {
+    if (balance === null || holder.toLowerCase() !== address.toLowerCase()) {
+      continue;
+    }
+    const match = tokens.find(({ Symbol: symbol, Tokenaddress: tokenAddress = '' }) => (
+      token ? tokenAddress.toLowerCase() === token.toLowerCase() : symbol === 'ETH'
+    ));
+    if (!match) {
+      continue;
+    }
+    const { Symbol: symbol } = match;
+    if (symbol === 'ETH') {
+      yield put(AssetActions.getBalanceSuccess({ symbol, banance: balance }));
+    } else {
+      yield put(AssetActions.getTokenBalanceSuccess({ symbol, banance: balance }));
+    }
+  }
+}
+
+// TX_CONFIRMED / TX_FAILED / TX_DROPPED: 更新交易记录, 上链的交易 (成功或失败都扣了 gas) 再刷新余额
+export function* applyTransaction(status, payload) {
+  yield put(AssetActions.txSettled({ ...payload, status }));
+  if (status !== 'dropped') {
+    yield put(AssetActions.updateBalance());
+  }
+}
+
+function* listen(key, worker, ...args) {
+  const channel = yield call(createEventChannel, key);
+  try {
+    while (true) {
+      const payload = yield take(channel);
+      try {
+        yield call(worker, ...args, payload);
+      } catch (error) {
+        console.log(key + '==>' + error);
+      }
+    }
+  } finally {
+    channel.close();
+  }
+}
 
+function* applyNewBlock({ blockNumber = '' }) {
+  yield put(AssetActions.update({ blockNumber }));
+}
 
+// 订阅 GethModule 推送的原生事件并写入 store
+export function* watchNativeEvents() {
+  yield all([
+    fork(listen, EventKeys.NEW_BLOCK, applyNewBlock),
+    fork(listen, EventKeys.PORTFOLIO_UPDATED, applyPortfolio),
+    fork(listen, EventKeys.TX_CONFIRMED, applyTransaction, 'confirmed'),
+    fork(listen, EventKeys.TX_FAILED, applyTransaction, 'failed'),
+    fork(listen, EventKeys.TX_DROPPED, applyTransaction, 'dropped')
+  ]);
+}
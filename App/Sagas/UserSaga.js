@@ -9,6 +9,8 @@ import BundleModule from '../Lib/NativeBridge/BundleModule';
 import { EventEmitter, EventKeys } from '../Lib/EventEmitter';
 import I18n from '../I18n';
 import Ramda from 'ramda';
+import Config from 'react-native-config';
+import { DAPP_RPC_URL } from '../Resources/inject';
 
 
 export function * register (api, action) {
@@ -93,6 +95,13 @@ export function * getInjectScript () {
   const web3 = yield call(BundleModule.readWeb3Provider);
   const {web3Provider} = web3;
   yield put(UserActions.saveUserInfo({web3Provider}));
+  try {
+    const {rpcUrl} = yield call(BundleModule.startRpcProxy, {upstreamUrl:DAPP_RPC_URL, chainId:Config.CHAIN_ID});
+    yield put(UserActions.saveUserInfo({dappRpcUrl:rpcUrl}));
+  } catch (error) {
+    // 代理启动失败时 dapp 直接访问节点
+    yield put(UserActions.saveUserInfo({dappRpcUrl:''}));
+  }
 }
 
 export function * logout () {
@@ -204,8 +204,8 @@ export function *gethTransfer (action) {
     try {
         yield put(WalletActions.setLoading({loading:true}));
         const {data:params} = action;
-        const {symbol, passphrase, fromAddress, toAddress, value, gasPrice, decimal, tokenAddress} = params;
-        const result =  yield GethModule.transfer({symbol, passphrase, fromAddress, toAddress, value, gasPrice, decimal, tokenAddress});
+        const {symbol, passphrase, fromAddress, toAddress, value, gasPrice, decimal, tokenAddress, ticketId} = params;
+        const result =  yield GethModule.transfer({symbol, passphrase, fromAddress, toAddress, value, gasPrice, decimal, tokenAddress, ticketId});
         const map = GethModule.getResolveMap(result);
         const {txHash} = map;
         yield put(WalletActions.setLoading({loading:false}));
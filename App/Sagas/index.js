@@ -1,4 +1,4 @@
-import { takeLatest, all } from 'redux-saga/effects';
+import { takeLatest, all, fork } from 'redux-saga/effects';
 import API from '../Services/Api';
 import FixtureAPI from '../Services/FixtureApi';
 import DebugConfig from '../Config/DebugConfig';
@@ -18,7 +18,7 @@ import { GithubTypes } from '../Redux/GithubRedux';
 import { getBanner, getApps}  from './FoundSaga';
 import { register, getUserInfo, logout, getInjectScript} from './UserSaga';
 import { getConfig } from './ConfigSaga';
-import { getTokenList, getTxlist, getBalance, getTokenBalance, updateBalance} from './AssetSaga';
+import { getTokenList, getTxlist, getBalance, getTokenBalance, updateBalance, watchNativeEvents} from './AssetSaga';
 import {
     gethInit,
     gethUnInit,
@@ -58,6 +58,7 @@ export default function * root () {
         takeLatest(AssetTypes.GET_TXLIST_REQUEST, getTxlist),
         takeLatest(AssetTypes.GET_TOKEN_LIST_REQUEST, getTokenList, api),
         takeLatest(AssetTypes.UPDATE_BALANCE, updateBalance),
+        fork(watchNativeEvents),
         takeLatest(WalletTypes.GETH_INIT, gethInit),
         takeLatest(WalletTypes.GETH_IMPORT_MNEMONIC, gethImportMnemonic),
         takeLatest(WalletTypes.GETH_IMPORT_PRIVATE_KEY, gethImportPrivateKey),
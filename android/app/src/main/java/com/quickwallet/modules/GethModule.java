@@ -1,20 +1,69 @@
 package com.quickwallet.modules;
 
-import android.net.Uri;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.quickwallet.utils.ByteUtil;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.quickwallet.modules.geth.AccountDiscovery;
+import com.quickwallet.modules.geth.AccountStore;
+import com.quickwallet.modules.geth.BalanceReader;
+import com.quickwallet.modules.geth.BatchBroadcaster;
+import com.quickwallet.modules.geth.FeeOracle;
+import com.quickwallet.modules.geth.GasEstimateCache;
+import com.quickwallet.modules.geth.GethExecutors;
+import com.quickwallet.modules.geth.HdKeyDeriver;
+import com.quickwallet.modules.geth.HeadWatcher;
+import com.quickwallet.modules.geth.NonceManager;
+import com.quickwallet.modules.geth.PortfolioStore;
+import com.quickwallet.modules.geth.ReceiptTracker;
+import com.quickwallet.modules.geth.ScryptCalibrator;
+import com.quickwallet.modules.geth.SessionState;
+import com.quickwallet.modules.geth.TransferTickets;
+import com.quickwallet.modules.geth.TxOutbox;
+import com.quickwallet.modules.geth.UnlockSession;
+import com.quickwallet.modules.geth.rpc.CachingRpcClient;
+import com.quickwallet.modules.geth.rpc.CoalescingRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+import com.quickwallet.modules.geth.rpc.RpcCache;
+import com.quickwallet.modules.geth.rpc.RpcRouter;
 import com.quickwallet.utils.FileUtil;
+import com.quickwallet.utils.Hash;
+import com.quickwallet.utils.HexUtil;
 import com.quickwallet.utils.SharedPreferencesHelper;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import geth.Account;
 import geth.Address;
@@ -25,20 +74,30 @@ import geth.Geth;
 import geth.KeyStore;
 import geth.Transaction;
 
-public class GethModule extends ReactContextBaseJavaModule {
-    private Account account;
-    private KeyStore keyStore;
-    private EthereumClient ethClient;
+public class GethModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+    private final SessionState sessionState = new SessionState();
+    private volatile RpcRouter rpcRouter;
+    private volatile CoalescingRpcClient rpcClient;
+    private volatile long readReuseWindow = CoalescingRpcClient.DEFAULT_REUSE_WINDOW;
 
     private final String GETH_INFO  = "geth_info";
     private final String CONTACT_IP_KEY = "contact_ip_key";
     private final String CHAIN_ID_KEY = "chain_id_key";
     private final String KEY_DIR = "key_dir";
+    private final String KEYSTORE_MIGRATED_KEY = "keystore_migrated_key";
+    private final String ACCOUNT_INDEX_MIGRATED_KEY = "account_index_migrated_key";
+    private final String CURRENT_ACCOUNT_KEY = "current_account_key";
+    private final String UNLOCK_TIMEOUT_KEY = "unlock_timeout_key";
+
+    private static final int BATCH_CONCURRENCY = 3;
+    private static final String BATCH_GAP_ERROR = "not sent: an earlier transaction of the batch was rejected";
 
-    private final long SCRYPT_N = Geth.StandardScryptN / 16;
-    private final long SCRYPT_P = Geth.StandardScryptP;
+    public static final String NEW_BLOCK_EVENT = "NEW_BLOCK";
+    public static final String PORTFOLIO_UPDATED_EVENT = "PORTFOLIO_UPDATED";
+    public static final String TX_CONFIRMED_EVENT = "TX_CONFIRMED";
+    public static final String TX_FAILED_EVENT = "TX_FAILED";
+    public static final String TX_DROPPED_EVENT = "TX_DROPPED";
 
-    private static final String PERSONAL_MESSAGE_PREFIX = "\u0019Ethereum Signed Message:\n";
 
 
     private static final String UNLOCK_ERROR = "1001";
@@ -54,13 +113,76 @@ public class GethModule extends ReactContextBaseJavaModule {
     private static final String E_WALLET_UNLOCK_ERROR = "E_WALLET_UNLOCK_ERROR";
     private static final String E_SIGN_HASH_ERROR = "E_SIGN_HASH_ERROR";
     private static final String E_SIGN_TRANSCTION_ERROR = "E_SIGN_TRANSCTION_ERROR";
+    private static final String E_EXECUTOR_BUSY_ERROR = "E_EXECUTOR_BUSY_ERROR";
+    private static final String E_RPC_BATCH_ERROR = "E_RPC_BATCH_ERROR";
+    private static final String E_BALANCE_ERROR = "E_BALANCE_ERROR";
+    private static final String E_ACCOUNT_NOT_FOUND_ERROR = "E_ACCOUNT_NOT_FOUND_ERROR";
+    private static final String E_DISCOVER_ACCOUNTS_ERROR = "E_DISCOVER_ACCOUNTS_ERROR";
+    private static final String E_OUTBOX_ERROR = "E_OUTBOX_ERROR";
+    private static final String E_PREPARE_TRANSFER_ERROR = "E_PREPARE_TRANSFER_ERROR";
+    private static final String E_TICKET_EXPIRED = "E_TICKET_EXPIRED";
+    private static final String E_GAS_PRICE_ERROR = "E_GAS_PRICE_ERROR";
+    private static final String E_REPLACE_TRANSACTION_ERROR = "E_REPLACE_TRANSACTION_ERROR";
 
 
     private SharedPreferencesHelper sharedPreferencesHelper = new SharedPreferencesHelper(getReactApplicationContext(),GETH_INFO);
 
+    private final UnlockSession unlockSession = new UnlockSession();
+    private final GethExecutors executors = new GethExecutors();
+    private final NonceManager nonceManager = new NonceManager();
+    private final GasEstimateCache gasEstimateCache = new GasEstimateCache();
+    private final TransferTickets transferTickets = new TransferTickets();
+    private final FeeOracle feeOracle = new FeeOracle();
+    private final ScryptCalibrator scryptCalibrator = new ScryptCalibrator(sharedPreferencesHelper,
+            new File(getReactApplicationContext().getCacheDir(), "scryptCalibration"));
+    private final AtomicBoolean reencrypting = new AtomicBoolean();
+    private final AccountStore accountStore = new AccountStore(sharedPreferencesHelper,
+            new File(getKeyStoreDir()), scryptCalibrator);
+    private final TxOutbox txOutbox = new TxOutbox(new File(getReactApplicationContext().getFilesDir(), "txOutbox"));
+    private final Object outboxFlushLock = new Object();
+    private ScheduledFuture<?> outboxFlush;
+    private long outboxFlushAt;
+    private boolean outboxFlushForced;
+    private final ReceiptTracker receiptTracker = new ReceiptTracker();
+    private final HeadWatcher headWatcher = new HeadWatcher(executors.scheduler(), executors.rpc());
+    private final PortfolioStore portfolioStore = new PortfolioStore();
+    private final RpcCache rpcCache = RpcCache.open(new File(getReactApplicationContext().getCacheDir(), "rpcCache"));
+
+    private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo network = manager == null ? null : manager.getActiveNetworkInfo();
+            if (network != null && network.isConnected()) {
+                scheduleOutboxFlush(0, true);
+            }
+        }
+    };
+
 
     public GethModule(ReactApplicationContext reactContext) {
         super(reactContext);
+        long timeout = (Long) sharedPreferencesHelper.getSharedPreference(UNLOCK_TIMEOUT_KEY, UnlockSession.DEFAULT_TIMEOUT);
+        unlockSession.setTimeout(timeout);
+        reactContext.addLifecycleEventListener(this);
+        if (!scryptCalibrator.isCalibrated()) {
+            calibrateScrypt();
+        }
+        nonceManager.setOutbox(txOutbox);
+        headWatcher.addListener(new HeadWatcher.Listener() {
+            @Override
+            public void onNewBlock(long blockNumber) {
+                gasEstimateCache.onNewBlock(blockNumber);
+                portfolioStore.onNewBlock(blockNumber);
+                sampleFees(blockNumber);
+                CoalescingRpcClient client = rpcClient;
+                if (client != null) ((CachingRpcClient) client.getDelegate()).setHeadBlock(blockNumber);
+                checkReceipts(blockNumber);
+                refreshPortfolio();
+                emitNewBlock(blockNumber);
+            }
+        });
+        reactContext.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
     }
 
     @Override
@@ -75,25 +197,155 @@ public class GethModule extends ReactContextBaseJavaModule {
 
         if (!isLogin) return;
         if (TextUtils.isEmpty(contactIp) || contactIp.length() == 0) return;
-        if (account == null || keyStore == null) return;
-        ethClient = getGethEthClient();
+        if (!sessionState.get().hasAccount()) return;
+        getGethEthClient();
+        for (TxOutbox.Entry entry : txOutbox.getEntries(getChainId())) {
+            receiptTracker.track(new ReceiptTracker.Pending(entry.hash, entry.from, entry.chainId, entry.nonce, entry.replaces));
+        }
+        headWatcher.setEndpoint(getRpcRouter().getUrl(), getRpcClient());
+        scheduleOutboxFlush(0, false);
+    }
+
+    @Override
+    public void onHostResume() {
+        headWatcher.resume();
+        scheduleOutboxFlush(0, false);
+    }
+
+    @Override
+    public void onHostPause() {
+        headWatcher.pause();
+        unlockSession.lock(sessionState.get().keyStore);
+    }
+
+    @Override
+    public void onHostDestroy() {
+        unlockSession.lock(sessionState.get().keyStore);
+    }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
+        unlockSession.lock(sessionState.get().keyStore);
+        getReactApplicationContext().unregisterReceiver(connectivityReceiver);
+        headWatcher.pause();
+        executors.shutdown();
+    }
+
+    /**
+     * Sets how long an unlocked key stays usable for signing without the passphrase being
+     * decrypted again. Values below {@link UnlockSession#MIN_TIMEOUT} are raised to it.
+     */
+    @ReactMethod
+    public void setUnlockTimeout(int seconds) {
+        unlockSession.setTimeout(seconds * 1000L);
+        sharedPreferencesHelper.put(UNLOCK_TIMEOUT_KEY, unlockSession.getTimeout());
+    }
+
+    /**
+     * Sets how long an address may sit idle before its next nonce is read from the node again.
+     */
+    @ReactMethod
+    public void setNonceIdleTimeout(int seconds) {
+        nonceManager.setIdleTimeout(seconds * 1000L);
     }
 
+    /**
+     * Sets how long, in milliseconds, a node read is reused for identical reads that follow it.
+     * Zero only joins reads that are in flight at the same time.
+     */
     @ReactMethod
-    public void unInit() {
-        if (account != null) account = null;
-        if (keyStore != null) keyStore = null;
-        if (ethClient != null) ethClient = null;
+    public void setReadReuseWindow(int millis) {
+        readReuseWindow = Math.max(0, millis);
+        CoalescingRpcClient client = rpcClient;
+        if (client != null) client.setReuseWindow(readReuseWindow);
+    }
+
+    /**
+     * Reports how many node reads were shared with an identical read ({@code hits}) and how many
+     * went to the node ({@code misses}) since the endpoints were last configured.
+     */
+    @ReactMethod
+    public void getReadStats(Promise promise) {
+        CoalescingRpcClient client = rpcClient;
+        WritableMap map = Arguments.createMap();
+        map.putDouble("hits", client == null ? 0 : client.getHits());
+        map.putDouble("misses", client == null ? 0 : client.getMisses());
+        map.putDouble("reuseWindowMillis", readReuseWindow);
+        promise.resolve(map);
+    }
+
+    /**
+     * Reports the scrypt parameters new and re-encrypted keyfiles use on this device, together
+     * with the calibration measurement and the duration of the last unlock.
+     */
+    @ReactMethod
+    public void getScryptParams(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        map.putBoolean("calibrated", scryptCalibrator.isCalibrated());
+        map.putDouble("n", scryptCalibrator.getN());
+        map.putDouble("p", scryptCalibrator.getP());
+        map.putDouble("targetMillis", scryptCalibrator.getTargetMillis());
+        map.putDouble("probeMillis", scryptCalibrator.getProbeMillis());
+        map.putDouble("estimatedUnlockMillis", scryptCalibrator.getEstimatedMillis());
+        map.putDouble("lastUnlockMillis", scryptCalibrator.getLastUnlockMillis());
+        promise.resolve(map);
+    }
+
+    @ReactMethod
+    public synchronized void unInit() {
+        lockKey(sessionState.clear());
+        nonceManager.reset();
+        receiptTracker.clear();
+        portfolioStore.clear();
+        transferTickets.clear();
+        feeOracle.clear();
+        headWatcher.setEndpoint(null, null);
+        if (rpcClient != null) rpcClient = null;
+        if (rpcRouter != null) {
+            rpcRouter.close();
+            rpcRouter = null;
+        }
 
         String keyTemp = getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStoreTemp";
         FileUtil.deleteDirectory(keyTemp);
-        String keydir = getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStore";
-        FileUtil.deleteDirectory(keydir);
+        accountStore.clear();
+        sharedPreferencesHelper.remove(CURRENT_ACCOUNT_KEY);
+    }
+
+    /**
+     * Lists the stored accounts from the address index, without reading any keyfile.
+     */
+    @ReactMethod
+    public void getAccounts(Promise promise) {
+        WritableArray accounts = Arguments.createArray();
+        for (String address : accountStore.getAddresses()) {
+            accounts.pushString(address);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putArray("accounts", accounts);
+        map.putString("current", String.valueOf(sharedPreferencesHelper.getSharedPreference(CURRENT_ACCOUNT_KEY, "")));
+        promise.resolve(map);
+    }
+
+    /**
+     * Makes {@code address} the account used for transfers and exports. The previous account is
+     * locked; the new one is only opened and decrypted when it is next used.
+     */
+    @ReactMethod
+    public void selectAccount(String address, Promise promise) {
+        if (!selectCurrentAccount(address)){
+            promise.reject(E_ACCOUNT_NOT_FOUND_ERROR, new Exception(address));
+            return;
+        }
+        WritableMap map = Arguments.createMap();
+        map.putString("address", address);
+        promise.resolve(map);
     }
 
     @ReactMethod
     public void isUnlockAccount(Promise promise) {
-        if (account == null || keyStore == null || ethClient == null){
+        SessionState.Snapshot session = sessionState.get();
+        if (!session.hasAccount() || session.ethClient == null || !unlockSession.isUnlocked(session.account)){
             WritableMap map = Arguments.createMap();
             map.putBoolean("isUnlock",false);
             promise.resolve(map);
@@ -105,514 +357,1774 @@ public class GethModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void unlockAccount( String passphrase, Promise promise ) {
-        try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
-            }
-            if (account == null){
-                account = getGethAccount(passphrase);
-            }
-            if (keyStore == null){
-                keyStore = getGethKeyStore(passphrase);
-            }
-            if (account == null ||keyStore == null ){
-                Exception err = new Exception();
-                promise.reject(E_UNLOCK_ACCOUNT_ERROR, err);
-                return;
+    public void unlockAccount( final String passphrase, final Promise promise ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionState.Snapshot session = loadAccount();
+                    if (session == null){
+                        Exception err = new Exception();
+                        promise.reject(E_UNLOCK_ACCOUNT_ERROR, err);
+                        return;
+                    }
+
+                    try {
+                        unlock(session, passphrase);
+                    } catch (Exception e){
+                        promise.reject("1001",new Exception("1001"));
+                        return;
+                    }
+
+                    String address = session.account.getAddress().getHex();
+
+                    WritableMap map = Arguments.createMap();
+                    map.putString("address",address);
+                    promise.resolve(map);
+
+                } catch (Exception e) {
+                    promise.reject(E_UNLOCK_WALLET_ERROR,e);
+                }
             }
+        });
+    }
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1001",new Exception("1001"));
-                return;
+    @ReactMethod
+    public void randomMnemonic(final Promise promise) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String mnemonic = Geth.createRandomMnemonic();
+                    WritableMap map = Arguments.createMap();
+                    map.putString("mnemonic",mnemonic);
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_RANDOM_MNEMONIC_ERROR,e);
+                }
             }
+        });
+    }
 
-            String address = account.getAddress().getHex();
 
-            WritableMap map = Arguments.createMap();
-            map.putString("address",address);
-            promise.resolve(map);
 
-        } catch (Exception e) {
-            promise.reject(E_UNLOCK_WALLET_ERROR,e);
-        }
+    @ReactMethod
+    public void importPrivateKey( final String privateKey, final String passphrase, final Promise promise ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data = HexUtil.decode(privateKey);
+                    importKey(data, passphrase, promise);
+                } catch (Exception e) {
+                    promise.reject(E_IMPORT_ECDSAKEY_ERROR,e);
+                }
+            }
+        });
     }
 
     @ReactMethod
-    public void randomMnemonic(Promise promise) {
-        try {
-            String mnemonic = Geth.createRandomMnemonic();
-            WritableMap map = Arguments.createMap();
-            map.putString("mnemonic",mnemonic);
-            promise.resolve(map);
-        } catch (Exception e) {
-            promise.reject(E_RANDOM_MNEMONIC_ERROR,e);
-        }
+    public void importMnemonic( final String mnemonic, final String passphrase, final Promise promise ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] privateKeyFromMnemonic = Geth.getPrivateKeyFromMnemonic(mnemonic);
+                    importKey(privateKeyFromMnemonic, passphrase, promise);
+                } catch (Exception e) {
+                    promise.reject(E_IMPORT_MNEMONIC_ERROR, e);
+                }
+            }
+        });
     }
 
+    /**
+     * Derives the BIP-44 accounts of {@code mnemonic} and reports the ones that have a balance or
+     * a nonce, stopping after {@code gapLimit} unused addresses in a row. Nothing is imported.
+     */
+    @ReactMethod
+    public void scanMnemonicAccounts( final String mnemonic, final int gapLimit, final Promise promise ) {
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                HdKeyDeriver deriver = null;
+                try {
+                    deriver = HdKeyDeriver.fromMnemonic(mnemonic, "");
+                    int limit = gapLimit > 0 ? gapLimit : AccountDiscovery.DEFAULT_GAP_LIMIT;
+                    List<AccountDiscovery.Found> found = AccountDiscovery.scan(deriver, getRpcClient(), limit,
+                            executors.crypto(), Runtime.getRuntime().availableProcessors());
+
+                    WritableArray accounts = Arguments.createArray();
+                    for (AccountDiscovery.Found item : found) {
+                        WritableMap account = Arguments.createMap();
+                        account.putInt("index", item.index);
+                        account.putString("address", item.address);
+                        account.putString("balance", item.balance.toString());
+                        account.putDouble("nonce", item.nonce);
+                        account.putBoolean("imported", accountStore.contains(item.address));
+                        accounts.pushMap(account);
+                    }
+                    WritableMap map = Arguments.createMap();
+                    map.putArray("accounts", accounts);
+                    promise.resolve(map);
+                } catch (JsonRpcException e) {
+                    promise.reject(E_DISCOVER_ACCOUNTS_ERROR, "Node error " + e.getCode() + ": " + e.getMessage(), e);
+                } catch (Exception e) {
+                    promise.reject(E_DISCOVER_ACCOUNTS_ERROR, e);
+                } finally {
+                    if (deriver != null) deriver.destroy();
+                }
+            }
+        });
+    }
 
-
+    /**
+     * Adds the accounts {@code m/44'/60'/0'/0/index} of {@code mnemonic} to the keystore.
+     * Addresses that are already stored are left as they are. The current account is unchanged.
+     */
     @ReactMethod
-    public void importPrivateKey( String privateKey, String passphrase, Promise promise ) {
-        try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
+    public void importMnemonicAccounts( final String mnemonic, final String passphrase, final ReadableArray indices, final Promise promise ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                HdKeyDeriver deriver = null;
+                try {
+                    deriver = HdKeyDeriver.fromMnemonic(mnemonic, "");
+                    WritableArray accounts = Arguments.createArray();
+                    for (int i = 0; i < indices.size(); i++) {
+                        byte[] privateKey = deriver.privateKey(indices.getInt(i));
+                        try {
+                            accounts.pushString(importDerivedKey(privateKey, passphrase));
+                        } finally {
+                            Arrays.fill(privateKey, (byte) 0);
+                        }
+                    }
+                    WritableMap map = Arguments.createMap();
+                    map.putArray("accounts", accounts);
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_IMPORT_MNEMONIC_ERROR, e);
+                } finally {
+                    if (deriver != null) deriver.destroy();
+                }
             }
+        });
+    }
+
+    private synchronized String importDerivedKey(byte[] privateKey, String passphrase) throws Exception {
+        migrateKeyStore();
+        String address = HdKeyDeriver.address(privateKey);
+        if (!accountStore.contains(address)) {
+            accountStore.importKey(privateKey, passphrase);
+        }
+        return address;
+    }
 
-            String filesDir = getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStore";
-            FileUtil.deleteDirectory(filesDir);
-            FileUtil.createDir(filesDir);
+    private synchronized void importKey(byte[] privateKey, String passphrase, Promise promise) throws Exception {
+        if (sessionState.get().ethClient == null){
+            getGethEthClient();
+        }
 
-            keyStore = new KeyStore(filesDir, SCRYPT_N,  SCRYPT_P);
-            byte[] data = hexStringToByteArray(privateKey);
-            account = keyStore.importECDSAKey(data, passphrase);
+        lockKey(sessionState.clearAccount());
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
-            }
+        migrateKeyStore();
+        AccountStore.Loaded imported = accountStore.importKey(privateKey, passphrase);
+        String address = imported.account.getAddress().getHex();
+        SessionState.Snapshot session = sessionState.setAccount(address, imported.account, imported.keyStore);
+        sharedPreferencesHelper.put(CURRENT_ACCOUNT_KEY, address.toLowerCase());
 
-            saveKeystorePath(account);
-            String address = account.getAddress().getHex();
-            WritableMap map = Arguments.createMap();
-            map.putString("address",address);
-            promise.resolve(map);
-        } catch (Exception e) {
-            promise.reject(E_IMPORT_ECDSAKEY_ERROR,e);
+        ReentrantLock keyLock = sessionState.lockFor(session.address);
+        keyLock.lock();
+        try {
+            unlockSession.unlock(session.keyStore, session.account, passphrase);
+        } catch (Exception e){
+            promise.reject("1003",new Exception("1003"));
+            return;
+        } finally {
+            keyLock.unlock();
         }
+
+        WritableMap map = Arguments.createMap();
+        map.putString("address",address);
+        promise.resolve(map);
     }
 
     @ReactMethod
-    public void importMnemonic( String mnemonic, String passphrase, Promise promise ) {
-        try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
+    public void exportPrivateKey( final String passphrase, final Promise promise ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                    if (session == null) return;
+
+                    String privateKey = session.keyStore.exportECSDAKeyHex(session.account, passphrase);
+
+                    WritableMap map = Arguments.createMap();
+                    map.putString("privateKey",privateKey);
+                    promise.resolve(map);
+
+                } catch (Exception e) {
+                    promise.reject(E_EXPORT_ECDSAKEY_ERROR, e);
+                }
             }
+        });
+    }
 
-            String filesDir = getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStore";
-            FileUtil.deleteDirectory(filesDir);
-            FileUtil.createDir(filesDir);
+    @ReactMethod
+    public void transferEth(
+            final String passphrase,
+            final String fromAddress,
+            final String toAddress,
+            final String value,
+            final String gas,
+            final Promise promise
+    ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                final SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                if (session == null) return;
+                sendEth(session, passphrase, fromAddress, toAddress, value, gas, promise);
+            }
+        });
+    }
 
-            keyStore = new KeyStore(filesDir, SCRYPT_N,  SCRYPT_P);
-            byte[] privateKeyFromMnemonic = Geth.getPrivateKeyFromMnemonic(mnemonic);
+    private void sendEth(final SessionState.Snapshot session, String passphrase, final String fromAddress, final String toAddress,
+                         final String value, final String gas, final Promise promise) {
+        new Outgoing(session, passphrase, getChainId(), promise, E_SEND_TRANSCTION_ERROR) {
+            @Override
+            List<Transaction> build() throws Exception {
+                long nonce = nonceManager.allocate(session.ethClient, chainId, fromAddress);
+
+                Address to = new Address(toAddress);
+                BigInt amount = new BigInt(Long.parseLong(value));
+                long gasLimit = 21000;
+                BigInt gasPrice = gasPrice(gas);
+                byte[] data = null;
+                return Collections.singletonList(new Transaction(nonce, to, amount, gasLimit, gasPrice, data));
+            }
 
-            account = keyStore.importECDSAKey(privateKeyFromMnemonic, passphrase);
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                Transaction signedTx = signedTxs.get(0);
+                boolean queued = broadcast(session, chainId, fromAddress, signedTx);
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
+                String txHash = signedTx.getHash().getHex();
+                WritableMap map = Arguments.createMap();
+                map.putString("txHash",txHash);
+                map.putBoolean("queued", queued);
+                promise.resolve(map);
             }
 
-            saveKeystorePath(account);
-            String address = account.getAddress().getHex();
-            WritableMap map = Arguments.createMap();
-            map.putString("address",address);
-            promise.resolve(map);
-
-        } catch (Exception e) {
-            promise.reject(E_IMPORT_MNEMONIC_ERROR, e);
-        }
+            @Override
+            void release() {
+                nonceManager.invalidate(chainId, fromAddress);
+            }
+        }.start();
     }
 
     @ReactMethod
-    public void exportPrivateKey( String passphrase, Promise promise ) {
-        try {
-            if (account == null){
-                account = getGethAccount(passphrase);
-            }
-            if (keyStore == null){
-                keyStore = getGethKeyStore(passphrase);
+    public void transferTokens(
+            final String passphrase,
+            final String fromAddress,
+            final String toAddress,
+            final String tokenAddress,
+            final String value,
+            final String gas,
+            final Promise promise
+    ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                final SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                if (session == null) return;
+                sendTokens(session, passphrase, fromAddress, toAddress, tokenAddress, value, gas, promise);
             }
-            if (account == null ||keyStore == null ){
-                Exception err = new Exception();
-                promise.reject(E_UNLOCK_ACCOUNT_ERROR, err);
-                return;
+        });
+    }
+
+    private void sendTokens(final SessionState.Snapshot session, String passphrase, final String fromAddress, final String toAddress,
+                            final String tokenAddress, final String value, final String gas, final Promise promise) {
+        new Outgoing(session, passphrase, getChainId(), promise, E_SEND_TRANSCTION_ERROR) {
+            Address from;
+            Address to;
+            BigInt amount;
+            BigInt gasPrice;
+            byte[] tokenData;
+            String gasKey;
+            boolean isCachedGas;
+            long nonce;
+
+            @Override
+            List<Transaction> build() throws Exception {
+                from = new Address(fromAddress);
+
+                to = new Address(tokenAddress);
+                amount = new BigInt(0);
+                gasPrice = gasPrice(gas);
+
+                // 构建 tokendata
+                BigInt datAmount = new BigInt(Long.parseLong(value));
+                Address dataAddress = new Address(toAddress);
+                tokenData = Geth.generateERC20TransferData(dataAddress, datAmount);
+
+                gasKey = GasEstimateCache.key(chainId, tokenAddress, tokenData);
+                long gasLimit = gasEstimateCache.get(gasKey);
+                isCachedGas = gasLimit > 0;
+                if (!isCachedGas) {
+                    gasLimit = estimateTokenGas(session.ethClient, gasKey, from, to, tokenData);
+                }
+
+                nonce = nonceManager.allocate(session.ethClient, chainId, fromAddress);
+                return Collections.singletonList(new Transaction(nonce, to, amount, gasLimit, gasPrice, tokenData));
             }
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                Transaction signedTx = signedTxs.get(0);
+                boolean queued;
+                try {
+                    queued = broadcast(session, chainId, fromAddress, signedTx);
+                } catch (Exception e) {
+                    if (!isCachedGas) throw e;
+                    // the cached limit may no longer fit, retry once with a live estimate and the same nonce
+                    isCachedGas = false;
+                    gasEstimateCache.invalidate(gasKey);
+                    long gasLimit = estimateTokenGas(session.ethClient, gasKey, from, to, tokenData);
+                    sign(Collections.singletonList(new Transaction(nonce, to, amount, gasLimit, gasPrice, tokenData)));
+                    return;
+                }
+
+                String txHash = signedTx.getHash().getHex();
+                WritableMap map = Arguments.createMap();
+                map.putString("txHash",txHash);
+                map.putBoolean("queued", queued);
+                promise.resolve(map);
             }
 
-            String privateKey = keyStore.exportECSDAKeyHex(account, passphrase);
+            @Override
+            void release() {
+                nonceManager.invalidate(chainId, fromAddress);
+            }
 
-            WritableMap map = Arguments.createMap();
-            map.putString("privateKey",privateKey);
-            promise.resolve(map);
+            @Override
+            void reject(Exception e) {
+                promise.reject(E_SEND_TRANSCTION_ERROR, e.getMessage());
+            }
+        }.start();
+    }
 
-        } catch (Exception e) {
-            promise.reject(E_EXPORT_ECDSAKEY_ERROR, e);
+    /**
+     * Estimates the token call against its contract and records the result in the gas cache.
+     * Over HTTP endpoints it goes through the JSON-RPC client, so simultaneous estimates of the
+     * same call share one request; other endpoints keep the gomobile {@code EthereumClient}.
+     *
+     * @return the gas limit to sign with, the estimate plus the cache's safety margin
+     */
+    private long estimateTokenGas(EthereumClient ethClient, String gasKey, Address from, Address token, byte[] tokenData) throws Exception {
+        JsonRpcClient rpc = getRpcClient();
+        long estimate;
+        if (rpc.isHttp()) {
+            JSONObject callMsg = tokenCall(from.getHex(), token.getHex(), tokenData);
+            Object result = rpc.call("eth_estimateGas", new JSONArray().put(callMsg));
+            estimate = JsonRpcClient.longQuantity(result);
+        } else {
+            CallMsg callMsg = new CallMsg();
+            callMsg.setFrom(from);
+            callMsg.setTo(token);
+            callMsg.setValue(new BigInt(0));
+            callMsg.setData(tokenData);
+            estimate = ethClient.estimateGas(RpcRouter.newContext(), callMsg);
         }
+        return gasEstimateCache.put(gasKey, estimate);
     }
 
+    private static JSONObject tokenCall(String from, String token, byte[] tokenData) throws Exception {
+        JSONObject callMsg = new JSONObject();
+        callMsg.put("from", from.toLowerCase(Locale.US));
+        callMsg.put("to", token.toLowerCase(Locale.US));
+        callMsg.put("value", "0x0");
+        callMsg.put("data", HexUtil.encode(tokenData));
+        return callMsg;
+    }
+
+    /**
+     * Prepares an ETH transfer, or a token transfer when {@code tokenAddress} is not empty, while
+     * the user is still looking at the form. The nonce, gas price, chain id and the token's gas
+     * estimate are read in one round trip and the transfer is kept as a ticket, so
+     * {@link #commitTransfer} only has to sign and broadcast.
+     *
+     * <p>Resolves with {@code ticketId}, the node's suggested {@code gasPrice} in wei, the
+     * {@code gasLimit} and {@code expiresInMillis}.
+     */
     @ReactMethod
-    public void transferEth(
-            String passphrase,
-            String fromAddress,
-            String toAddress,
-            String value,
-            String gas,
-            Promise promise
+    public void prepareTransfer(
+            final String fromAddress,
+            final String toAddress,
+            final String tokenAddress,
+            final String value,
+            final Promise promise
     ) {
-        try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                long chainId = getChainId();
+                try {
+                    JsonRpcClient rpc = getRpcClient();
+                    boolean isToken = !TextUtils.isEmpty(tokenAddress);
+                    long amount = 0;
+                    byte[] data = null;
+                    String gasKey = null;
+                    long gasLimit = 21000;
+                    JSONObject estimateCall = null;
+                    if (isToken) {
+                        data = Geth.generateERC20TransferData(new Address(toAddress), new BigInt(Long.parseLong(value)));
+                        gasKey = GasEstimateCache.key(chainId, tokenAddress, data);
+                        gasLimit = gasEstimateCache.get(gasKey);
+                        if (gasLimit <= 0 && rpc.isHttp()) {
+                            estimateCall = tokenCall(fromAddress, tokenAddress, data);
+                        } else if (gasLimit <= 0) {
+                            EthereumClient ethClient = sessionState.get().ethClient;
+                            if (ethClient == null) ethClient = getGethEthClient();
+                            gasLimit = estimateTokenGas(ethClient, gasKey, new Address(fromAddress), new Address(tokenAddress), data);
+                        }
+                    } else {
+                        amount = Long.parseLong(value);
+                    }
+
+                    TransferTickets.Prefetch prefetch = TransferTickets.prefetch(rpc, fromAddress, estimateCall);
+                    if (prefetch.chainId >= 0 && prefetch.chainId != chainId) {
+                        throw new Exception("Node is on chain " + prefetch.chainId + ", expected " + chainId);
+                    }
+                    if (estimateCall != null) {
+                        gasLimit = gasEstimateCache.put(gasKey, prefetch.gasEstimate);
+                    }
+                    nonceManager.prime(chainId, fromAddress, prefetch.nonce);
+
+                    FeeOracle.Fees fees = feeOracle.get();
+                    long gasPrice = fees == null ? prefetch.gasPrice : Math.max(prefetch.gasPrice, fees.normal.longValue());
+                    TransferTickets.Ticket ticket = transferTickets.add(chainId, fromAddress,
+                            isToken ? tokenAddress : toAddress, amount, data, gasLimit, gasPrice);
+                    WritableMap map = Arguments.createMap();
+                    map.putString("ticketId", ticket.id);
+                    map.putString("gasPrice", String.valueOf(ticket.gasPrice));
+                    map.putString("gasLimit", String.valueOf(ticket.gasLimit));
+                    map.putDouble("expiresInMillis", transferTickets.getTtl());
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_PREPARE_TRANSFER_ERROR, e);
+                }
             }
-            if (account == null){
-                account = getGethAccount(passphrase);
+        });
+    }
+
+    /**
+     * Signs and broadcasts a transfer prepared by {@link #prepareTransfer}, at {@code gas} wei
+     * per gas, or at the prefetched price when {@code gas} is empty. Rejects with
+     * {@code E_TICKET_EXPIRED} when the ticket was already used or is too old, in which case the
+     * caller falls back to a plain transfer.
+     */
+    @ReactMethod
+    public void commitTransfer(final String ticketId, final String passphrase, final String gas, final Promise promise) {
+        if (!transferTickets.isValid(ticketId)) {
+            promise.reject(E_TICKET_EXPIRED, new Exception(ticketId));
+            return;
+        }
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                final SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                if (session == null) return;
+                final TransferTickets.Ticket ticket = transferTickets.take(ticketId);
+                if (ticket == null) {
+                    promise.reject(E_TICKET_EXPIRED, new Exception(ticketId));
+                    return;
+                }
+                sendTicket(session, passphrase, ticket, gas, promise);
             }
-            if (keyStore == null){
-                keyStore = getGethKeyStore(passphrase);
+        });
+    }
+
+    private void sendTicket(final SessionState.Snapshot session, String passphrase, final TransferTickets.Ticket ticket, final String gas, final Promise promise) {
+        new Outgoing(session, passphrase, ticket.chainId, promise, E_SEND_TRANSCTION_ERROR) {
+            @Override
+            List<Transaction> build() throws Exception {
+                if (!isSigner(session, ticket.from, promise)) return null;
+                long nonce = nonceManager.allocate(session.ethClient, chainId, ticket.from);
+                BigInt gasPrice = isSuggestedGas(gas) ? new BigInt(ticket.gasPrice) : gasPrice(gas);
+                return Collections.singletonList(new Transaction(nonce, new Address(ticket.to), new BigInt(ticket.value),
+                        ticket.gasLimit, gasPrice, ticket.data));
             }
-            if (account == null ||keyStore == null ){
-                Exception err = new Exception();
-                promise.reject(E_UNLOCK_ACCOUNT_ERROR, err);
-                return;
+
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                Transaction signedTx = signedTxs.get(0);
+                boolean queued = broadcast(session, chainId, ticket.from, signedTx);
+
+                WritableMap map = Arguments.createMap();
+                map.putString("txHash", signedTx.getHash().getHex());
+                map.putBoolean("queued", queued);
+                promise.resolve(map);
             }
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
+            @Override
+            void release() {
+                nonceManager.invalidate(chainId, ticket.from);
             }
+        }.start();
+    }
 
-            Address from = new Address(fromAddress);
-            long number = -1;
-            long nonce = 0;
-            nonce = ethClient.getNonceAt(Geth.newContext(), from, number);
+    /**
+     * Re-sends the pending transaction {@code txHash} with the same nonce at a higher gas price,
+     * so it is mined sooner. {@code gas} is the new price in wei; left empty it is the oracle's
+     * fast price. Either way it is at least {@link TxOutbox#REPLACEMENT_BUMP_PERCENT}% above the
+     * old price, or the node would refuse the replacement.
+     *
+     * <p>Resolves with the new {@code txHash}, {@code replaces}, the hash of the original, and
+     * {@code queued}. Whichever of them is mined emits TX_CONFIRMED; the others emit TX_DROPPED
+     * with {@code replacedBy} set to the mined hash.
+     */
+    @ReactMethod
+    public void speedUp(String passphrase, String txHash, String gas, Promise promise) {
+        replaceTransaction(passphrase, txHash, gas, false, promise);
+    }
 
-            Address to = new Address(toAddress);
-            BigInt amount = new BigInt(Long.parseLong(value));
-            long gasLimit = 21000;
-            BigInt gasPrice = new BigInt(Long.parseLong(gas));
-            byte[] data = null;
-            Transaction transaction = new Transaction(nonce, to, amount, gasLimit, gasPrice, data);
+    /**
+     * Cancels the pending transaction {@code txHash} by sending a zero-value transfer to the
+     * sender itself with the same nonce, priced like {@link #speedUp}. Resolves like it, too.
+     */
+    @ReactMethod
+    public void cancel(String passphrase, String txHash, String gas, Promise promise) {
+        replaceTransaction(passphrase, txHash, gas, true, promise);
+    }
 
+    private void replaceTransaction(final String passphrase, final String txHash, final String gas,
+                                    final boolean cancel, final Promise promise) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                final SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                if (session == null) return;
+                sendReplacement(session, passphrase, txHash, gas, cancel, promise);
+            }
+        });
+    }
 
-            long chainId = Long.parseLong(String.valueOf(sharedPreferencesHelper.getSharedPreference(CHAIN_ID_KEY, "4")));
-            BigInt chainID = new BigInt(chainId);
-            Transaction signedTx = keyStore.signTxPassphrase(account, passphrase,  transaction, chainID);
+    private void sendReplacement(final SessionState.Snapshot session, String passphrase, final String txHash, final String gas,
+                                 final boolean cancel, final Promise promise) {
+        final TxOutbox.Entry original = txOutbox.get(txHash);
+        if (original == null) {
+            promise.reject(E_REPLACE_TRANSACTION_ERROR, new Exception("Transaction is not pending: " + txHash));
+            return;
+        }
+        if (!original.from.equalsIgnoreCase(session.address)) {
+            promise.reject(E_REPLACE_TRANSACTION_ERROR, new Exception("Transaction was sent from another account: " + txHash));
+            return;
+        }
+        new Outgoing(session, passphrase, original.chainId, promise, E_REPLACE_TRANSACTION_ERROR) {
+            BigInt gasPrice;
+
+            @Override
+            List<Transaction> build() throws Exception {
+                Transaction tx = Geth.newTransactionFromRLP(HexUtil.decode(original.raw));
+                gasPrice = replacementGasPrice(tx, gas);
+                return Collections.singletonList(cancel
+                        ? new Transaction(original.nonce, new Address(original.from), new BigInt(0), 21000, gasPrice, null)
+                        : new Transaction(original.nonce, tx.getTo(), tx.getValue(), tx.getGas(), gasPrice, tx.getData()));
+            }
 
-            ethClient.sendTransaction(Geth.newContext(), signedTx);
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                Transaction signedTx = signedTxs.get(0);
+                // chained replacements all point at the first transaction of the nonce
+                String replaces = original.replaces != null ? original.replaces : original.hash;
+                boolean queued = broadcast(session, chainId, original.from, signedTx, replaces);
+
+                WritableMap map = Arguments.createMap();
+                map.putString("txHash", signedTx.getHash().getHex());
+                map.putString("replaces", replaces);
+                map.putString("gasPrice", gasPrice.getString(10));
+                map.putBoolean("queued", queued);
+                promise.resolve(map);
+            }
+        }.start();
+    }
 
-            String txHash = signedTx.getHash().getHex();
-            WritableMap map = Arguments.createMap();
-            map.putString("txHash",txHash);
-            promise.resolve(map);
-        } catch (Exception e) {
-            promise.reject(E_SEND_TRANSCTION_ERROR, e);
+    /** {@code gas}, or the oracle's fast price, raised to the minimum a replacement of {@code original} must pay. */
+    private BigInt replacementGasPrice(Transaction original, String gas) throws Exception {
+        BigInteger minimum = TxOutbox.minReplacementPrice(new BigInteger(original.getGasPrice().getString(10)));
+        BigInteger price;
+        if (isSuggestedGas(gas)) {
+            FeeOracle.Fees fees = feeOracle.get();
+            if (fees == null) fees = feeOracle.sample(getRpcClient(), headWatcher.getLastBlock());
+            price = fees.fast;
+        } else {
+            price = new BigInteger(gas);
         }
+        return new BigInt(price.max(minimum).longValue());
     }
 
+    /**
+     * Signs and broadcasts many ETH or token transfers in one bridge call. The key is unlocked
+     * once, nonces come from one contiguous block and each token contract is estimated at most
+     * once through the gas cache. Each item is a map of {@code toAddress}, {@code value} and
+     * {@code gas}, plus {@code tokenAddress} for token transfers.
+     *
+     * <p>Resolves with {@code results}, one {@code txHash} or {@code error} per item in order.
+     * Once the node rejects one transaction, every later one fails too, since its nonce can no
+     * longer be mined.
+     */
     @ReactMethod
-    public void transferTokens(
-            String passphrase,
-            String fromAddress,
-            String toAddress,
-            String tokenAddress,
-            String value,
-            String gas,
-            Promise promise
+    public void transferBatch(
+            final String passphrase,
+            final ReadableArray items,
+            final Promise promise
     ) {
-        try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                final SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                if (session == null) return;
+                sendBatch(session, passphrase, items, promise);
             }
-            if (account == null){
-                account = getGethAccount(passphrase);
+        });
+    }
+
+    private void sendBatch(final SessionState.Snapshot session, String passphrase, final ReadableArray items, final Promise promise) {
+        final String fromAddress = session.account.getAddress().getHex();
+        final int size = items.size();
+        final String[] errors = new String[size];
+        final List<Integer> indexes = new ArrayList<>();
+        new Outgoing(session, passphrase, getChainId(), promise, E_SEND_TRANSCTION_ERROR) {
+            final List<Transaction> added = new ArrayList<>();
+
+            @Override
+            List<Transaction> build() throws Exception {
+                Address from = new Address(fromAddress);
+                List<BatchItem> prepared = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    try {
+                        prepared.add(prepareBatchItem(session, i, items.getMap(i), from, chainId));
+                    } catch (Exception e) {
+                        errors[i] = String.valueOf(e.getMessage());
+                    }
+                }
+
+                List<Transaction> transactions = new ArrayList<>();
+                if (!prepared.isEmpty()) {
+                    long nonce = nonceManager.allocate(session.ethClient, chainId, fromAddress, prepared.size());
+                    for (BatchItem item : prepared) {
+                        transactions.add(new Transaction(nonce++, item.to, item.amount, item.gasLimit, item.gasPrice, item.data));
+                        indexes.add(item.index);
+                    }
+                }
+                return transactions;
             }
-            if (keyStore == null){
-                keyStore = getGethKeyStore(passphrase);
+
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                for (Transaction signedTx : signedTxs) {
+                    txOutbox.add(outboxEntry(chainId, fromAddress, signedTx));
+                    added.add(signedTx);
+                }
+                broadcastBatch(session, chainId, fromAddress, signedTxs, indexes, errors, promise);
             }
-            if (account == null ||keyStore == null ){
-                Exception err = new Exception();
-                promise.reject(E_UNLOCK_ACCOUNT_ERROR,err);
-                return;
+
+            @Override
+            void release() {
+                for (Transaction signedTx : added) {
+                    txOutbox.remove(signedTx.getHash().getHex());
+                }
+                nonceManager.invalidate(chainId, fromAddress);
             }
+        }.start();
+    }
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
+    private void broadcastBatch(SessionState.Snapshot session, final long chainId, final String fromAddress,
+                                final List<Transaction> signedTxs, final List<Integer> indexes, final String[] errors,
+                                final Promise promise) {
+        final int size = errors.length;
+        BatchBroadcaster.broadcast(session.ethClient, signedTxs, executors.rpc(), BATCH_CONCURRENCY, new BatchBroadcaster.Callback() {
+            @Override
+            public void onComplete(String[] txHashes, String[] sendErrors) {
+                WritableArray results = Arguments.createArray();
+                String[] hashes = new String[size];
+                boolean[] queued = new boolean[size];
+                boolean retry = false;
+                // the nonces are contiguous, so nothing after a rejected transaction can be mined
+                int rejected = txHashes.length;
+                for (int i = 0; i < txHashes.length; i++) {
+                    String error = sendErrors[i];
+                    if (error != null && !TxOutbox.isKnown(error) && !TxOutbox.isTransient(error)) {
+                        rejected = i;
+                        break;
+                    }
+                }
+                for (int i = 0; i < txHashes.length; i++) {
+                    String txHash = signedTxs.get(i).getHash().getHex();
+                    String error = sendErrors[i];
+                    if (i > rejected) {
+                        txOutbox.remove(txHash);
+                        errors[indexes.get(i)] = BATCH_GAP_ERROR;
+                    } else if (error == null || TxOutbox.isKnown(error)) {
+                        txOutbox.markBroadcast(txHash);
+                        hashes[indexes.get(i)] = txHash;
+                        trackReceipt(chainId, fromAddress, signedTxs.get(i));
+                    } else if (TxOutbox.isTransient(error)) {
+                        txOutbox.scheduleRetry(txHash, error, false);
+                        hashes[indexes.get(i)] = txHash;
+                        queued[indexes.get(i)] = true;
+                        retry = true;
+                        trackReceipt(chainId, fromAddress, signedTxs.get(i));
+                    } else {
+                        txOutbox.remove(txHash);
+                        errors[indexes.get(i)] = error;
+                        nonceManager.invalidate(chainId, fromAddress);
+                    }
+                }
+                scheduleOutboxFlush(retry ? TxOutbox.BASE_BACKOFF : TxOutbox.REBROADCAST_INTERVAL, false);
+                for (int i = 0; i < size; i++) {
+                    WritableMap result = Arguments.createMap();
+                    result.putString("txHash", hashes[i]);
+                    result.putString("error", errors[i]);
+                    result.putBoolean("queued", queued[i]);
+                    results.pushMap(result);
+                }
+                WritableMap map = Arguments.createMap();
+                map.putArray("results", results);
+                promise.resolve(map);
             }
+        });
+    }
 
-            Address from = new Address(fromAddress);
-            long number = -1;
-            long nonce = 0;
-            nonce = ethClient.getNonceAt(Geth.newContext(), from, number);
+    private BatchItem prepareBatchItem(SessionState.Snapshot session, int index, ReadableMap item, Address from, long chainId) throws Exception {
+        BatchItem batchItem = new BatchItem();
+        batchItem.index = index;
+        batchItem.gasPrice = gasPrice(item.getString("gas"));
+
+        String toAddress = item.getString("toAddress");
+        String value = item.getString("value");
+        if (!item.hasKey("tokenAddress") || TextUtils.isEmpty(item.getString("tokenAddress"))) {
+            batchItem.to = new Address(toAddress);
+            batchItem.amount = new BigInt(Long.parseLong(value));
+            batchItem.gasLimit = 21000;
+            return batchItem;
+        }
 
-            Address to = new Address(tokenAddress);
-            BigInt amount = new BigInt(0);
-            BigInt gasPrice = new BigInt( Long.parseLong(gas));
+        String tokenAddress = item.getString("tokenAddress");
+        BigInt datAmount = new BigInt(Long.parseLong(value));
+        Address dataAddress = new Address(toAddress);
+        batchItem.to = new Address(tokenAddress);
+        batchItem.amount = new BigInt(0);
+        batchItem.data = Geth.generateERC20TransferData(dataAddress, datAmount);
+
+        String gasKey = GasEstimateCache.key(chainId, tokenAddress, batchItem.data);
+        long gasLimit = gasEstimateCache.get(gasKey);
+        if (gasLimit <= 0) {
+            gasLimit = estimateTokenGas(session.ethClient, gasKey, from, batchItem.to, batchItem.data);
+        }
+        batchItem.gasLimit = gasLimit;
+        return batchItem;
+    }
 
-            // 构建 tokendata
-            CallMsg callMsg = new CallMsg();
-            BigInt datAmount = new BigInt(Long.parseLong(value));
-            Address dataAddress = new Address(toAddress);
+    private static class BatchItem {
+        int index;
+        Address to;
+        BigInt amount;
+        long gasLimit;
+        BigInt gasPrice;
+        byte[] data;
+    }
 
-            callMsg.setFrom(from);
-            callMsg.setGas(Long.parseLong(gas));
-            callMsg.setTo(dataAddress);
-            callMsg.setValue(datAmount);
+    /**
+     * Stores {@code signedTx} in the outbox, then sends it. A node that already has it counts as
+     * sent; a send that fails on the connection stays queued and the outbox retries it.
+     *
+     * @return whether the transaction was queued rather than accepted by the node
+     */
+    private boolean broadcast(SessionState.Snapshot session, long chainId, String fromAddress, Transaction signedTx) throws Exception {
+        return broadcast(session, chainId, fromAddress, signedTx, null);
+    }
 
-            byte[] tokenData = Geth.generateERC20TransferData(dataAddress, datAmount);
-            callMsg.setData(tokenData);
+    /** Like {@link #broadcast(SessionState.Snapshot, long, String, Transaction)} for a replacement of {@code replaces}. */
+    private boolean broadcast(SessionState.Snapshot session, long chainId, String fromAddress, Transaction signedTx, String replaces) throws Exception {
+        String txHash = signedTx.getHash().getHex();
+        txOutbox.add(outboxEntry(chainId, fromAddress, signedTx, replaces));
+        try {
+            session.ethClient.sendTransaction(RpcRouter.newContext(), signedTx);
+        } catch (Exception e) {
+            if (TxOutbox.isTransient(e)) {
+                long delay = txOutbox.scheduleRetry(txHash, String.valueOf(e.getMessage()), false);
+                scheduleOutboxFlush(delay, false);
+                trackReceipt(chainId, fromAddress, signedTx, replaces);
+                return true;
+            }
+            if (!TxOutbox.isKnown(e.getMessage())) {
+                txOutbox.remove(txHash);
+                throw e;
+            }
+        }
+        txOutbox.markBroadcast(txHash);
+        scheduleOutboxFlush(TxOutbox.REBROADCAST_INTERVAL, false);
+        trackReceipt(chainId, fromAddress, signedTx, replaces);
+        return false;
+    }
 
-            long gasLimit = 21000;
-            gasLimit = ethClient.estimateGas(Geth.newContext(), callMsg);
-            gasLimit *= 2;
+    private static TxOutbox.Entry outboxEntry(long chainId, String fromAddress, Transaction signedTx) throws Exception {
+        return outboxEntry(chainId, fromAddress, signedTx, null);
+    }
 
-            Transaction transaction = new Transaction(nonce, to, amount, gasLimit, gasPrice, tokenData);
+    private static TxOutbox.Entry outboxEntry(long chainId, String fromAddress, Transaction signedTx, String replaces) throws Exception {
+        return new TxOutbox.Entry(signedTx.getHash().getHex(), fromAddress, chainId, signedTx.getNonce(),
+                HexUtil.encode(signedTx.encodeRLP()), replaces);
+    }
 
-            long chainId = Long.parseLong(String.valueOf(sharedPreferencesHelper.getSharedPreference(CHAIN_ID_KEY, "4")));
-            BigInt chainID = new BigInt(chainId);
-            Transaction signedTx = keyStore.signTxPassphrase(account, passphrase, transaction, chainID);
+    /**
+     * Lists the signed transactions of the current chain that are waiting to be mined. Resolves
+     * with {@code entries}, each holding {@code hash}, {@code from}, {@code nonce},
+     * {@code attempts} and the {@code lastError} of the latest broadcast.
+     */
+    @ReactMethod
+    public void getOutbox(final Promise promise) {
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    WritableArray entries = Arguments.createArray();
+                    for (TxOutbox.Entry entry : txOutbox.getEntries(getChainId())) {
+                        WritableMap map = Arguments.createMap();
+                        map.putString("hash", entry.hash);
+                        map.putString("from", entry.from);
+                        map.putDouble("nonce", entry.nonce);
+                        map.putInt("attempts", entry.getAttempts());
+                        map.putString("lastError", entry.getLastError());
+                        entries.pushMap(map);
+                    }
+                    WritableMap map = Arguments.createMap();
+                    map.putArray("entries", entries);
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_OUTBOX_ERROR, e);
+                }
+            }
+        });
+    }
 
-            ethClient.sendTransaction(Geth.newContext(), signedTx);
+    /**
+     * Runs an outbox flush after {@code delay} ms unless one is already due sooner. A forced
+     * flush rebroadcasts every entry regardless of its backoff.
+     */
+    private void scheduleOutboxFlush(long delay, final boolean force) {
+        if (delay < 0) return;
+        synchronized (outboxFlushLock) {
+            final long at = SystemClock.elapsedRealtime() + delay;
+            if (outboxFlush != null && outboxFlushAt <= at && (outboxFlushForced || !force)) return;
+            if (outboxFlush != null) outboxFlush.cancel(false);
+            try {
+                outboxFlush = executors.scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (outboxFlushLock) {
+                            if (outboxFlushAt == at) outboxFlush = null;
+                        }
+                        flushOutbox(force);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                outboxFlushAt = at;
+                outboxFlushForced = force;
+            } catch (RejectedExecutionException e) {
+                outboxFlush = null;
+            }
+        }
+    }
 
-            String txHash = signedTx.getHash().getHex();
-            WritableMap map = Arguments.createMap();
-            map.putString("txHash",txHash);
-            promise.resolve(map);
+    private void trackReceipt(long chainId, String fromAddress, Transaction signedTx) {
+        trackReceipt(chainId, fromAddress, signedTx, null);
+    }
+
+    private void trackReceipt(long chainId, String fromAddress, Transaction signedTx, String replaces) {
+        receiptTracker.track(new ReceiptTracker.Pending(signedTx.getHash().getHex(), fromAddress, chainId,
+                signedTx.getNonce(), replaces));
+    }
+
+    /**
+     * Checks the receipts of pending transactions as of {@code blockNumber}, emitting
+     * {@link #TX_CONFIRMED_EVENT}, {@link #TX_FAILED_EVENT} or {@link #TX_DROPPED_EVENT} for each
+     * one that settles.
+     */
+    private void checkReceipts(long blockNumber) {
+        if (receiptTracker.isEmpty()) return;
+        try {
+            receiptTracker.check(getRpcClient(), getChainId(), blockNumber, receiptListener);
         } catch (Exception e) {
-            promise.reject(E_SEND_TRANSCTION_ERROR,e.getMessage());
+            // checked again on the next block
         }
     }
 
-    @ReactMethod
-    public void signMessage(
-            String from,
-            String message,
-            Promise promise
-    ) {
+    private void sampleFees(long blockNumber) {
         try {
-            if (account == null || keyStore == null){
-                Exception err = new Exception();
-                promise.reject(E_WALLET_UNLOCK_ERROR,err);
-                return;
+            feeOracle.sample(getRpcClient(), blockNumber);
+        } catch (Exception e) {
+            // sampled again on the next block
+        }
+    }
+
+    /**
+     * Resolves with the {@code slow}, {@code normal} and {@code fast} gas prices in wei from the
+     * {@link FeeOracle}, the {@code blockNumber} they were sampled at and whether they come
+     * {@code fromFeeHistory}. Answers from memory once the first block has been sampled.
+     */
+    @ReactMethod
+    public void getGasPrices(final Promise promise) {
+        FeeOracle.Fees fees = feeOracle.get();
+        if (fees != null) {
+            promise.resolve(toWritableFees(fees));
+            return;
+        }
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promise.resolve(toWritableFees(feeOracle.sample(getRpcClient(), headWatcher.getLastBlock())));
+                } catch (Exception e) {
+                    promise.reject(E_GAS_PRICE_ERROR, e);
+                }
             }
-            // message ==> 0x(hash) -> hex ==>  Geth ->(byte)
-            byte[] hashByte = Geth.hexToBytes(message);
+        });
+    }
 
-            Address address = new Address(from);
-            byte[] signByte =  keyStore.signHash(address, hashByte);
+    private static WritableMap toWritableFees(FeeOracle.Fees fees) {
+        WritableMap map = Arguments.createMap();
+        map.putString("slow", fees.slow.toString());
+        map.putString("normal", fees.normal.toString());
+        map.putString("fast", fees.fast.toString());
+        map.putString("blockNumber", String.valueOf(fees.blockNumber));
+        map.putBoolean("fromFeeHistory", fees.fromFeeHistory);
+        return map;
+    }
 
-            String data = Geth.bytesToHex(signByte);
+    /** Whether the caller left the gas price to the oracle, by passing nothing or zero. */
+    private static boolean isSuggestedGas(String gas) {
+        return TextUtils.isEmpty(gas) || new BigInteger(gas).signum() == 0;
+    }
 
-            WritableMap map = Arguments.createMap();
-            map.putString("data",data);
-            promise.resolve(map);
+    /** {@code gas} in wei, or the oracle's normal price when the caller left it to the node. */
+    private BigInt gasPrice(String gas) throws Exception {
+        if (!isSuggestedGas(gas)) return new BigInt(Long.parseLong(gas));
+        FeeOracle.Fees fees = feeOracle.get();
+        if (fees == null) fees = feeOracle.sample(getRpcClient(), headWatcher.getLastBlock());
+        return new BigInt(fees.normal.longValue());
+    }
 
+    private void emitNewBlock(long blockNumber) {
+        ReactApplicationContext context = getReactApplicationContext();
+        if (!context.hasActiveCatalystInstance()) return;
+        WritableMap map = Arguments.createMap();
+        map.putString("blockNumber", String.valueOf(blockNumber));
+        context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(NEW_BLOCK_EVENT, map);
+    }
+
+    private final ReceiptTracker.Listener receiptListener = new ReceiptTracker.Listener() {
+        @Override
+        public void onConfirmed(ReceiptTracker.Pending tx, JSONObject receipt) {
+            emitTransactionEvent(TX_CONFIRMED_EVENT, tx, receipt);
+        }
+
+        @Override
+        public void onFailed(ReceiptTracker.Pending tx, JSONObject receipt) {
+            emitTransactionEvent(TX_FAILED_EVENT, tx, receipt);
+        }
+
+        @Override
+        public void onDropped(ReceiptTracker.Pending tx) {
+            emitTransactionEvent(TX_DROPPED_EVENT, tx, null);
+        }
+    };
+
+    private void emitTransactionEvent(String event, ReceiptTracker.Pending tx, JSONObject receipt) {
+        ReactApplicationContext context = getReactApplicationContext();
+        if (!context.hasActiveCatalystInstance()) return;
+        WritableMap map = Arguments.createMap();
+        map.putString("txHash", tx.hash);
+        map.putString("from", tx.from);
+        map.putDouble("nonce", tx.nonce);
+        map.putString("replaces", tx.replaces);
+        map.putString("replacedBy", tx.getReplacedBy());
+        if (receipt != null) {
+            map.putString("blockHash", receipt.optString("blockHash"));
+            map.putString("blockNumber", receipt.optString("blockNumber"));
+            map.putString("gasUsed", receipt.optString("gasUsed"));
+            map.putString("contractAddress", receipt.isNull("contractAddress") ? null : receipt.optString("contractAddress"));
+        }
+        context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(event, map);
+    }
+
+    private void flushOutbox(boolean force) {
+        String contactIp = String.valueOf(sharedPreferencesHelper.getSharedPreference(CONTACT_IP_KEY, ""));
+        if (contactIp.length() == 0) return;
+        long delay;
+        try {
+            delay = txOutbox.flush(getRpcClient(), getChainId(), force).nextDelay;
         } catch (Exception e) {
-            promise.reject(E_SIGN_HASH_ERROR,e);
+            delay = TxOutbox.BASE_BACKOFF;
         }
+        scheduleOutboxFlush(delay, false);
+    }
+
+    @ReactMethod
+    public void signMessage(
+            final String from,
+            final String message,
+            final Promise promise
+    ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AccountStore.Loaded signer = accountStore.get(from);
+                    if (signer == null || !unlockSession.isUnlocked(signer.account)){
+                        Exception err = new Exception();
+                        promise.reject(E_WALLET_UNLOCK_ERROR,err);
+                        return;
+                    }
+                    // message ==> 0x(hash) -> hex ==>  Geth ->(byte)
+                    byte[] hashByte = HexUtil.decode(message);
+
+                    byte[] signByte = signHash(from, signer, hashByte);
+
+                    String data = HexUtil.encode(signByte);
+
+                    WritableMap map = Arguments.createMap();
+                    map.putString("data",data);
+                    promise.resolve(map);
+
+                } catch (Exception e) {
+                    promise.reject(E_SIGN_HASH_ERROR,e);
+                }
+            }
+        });
     }
 
     @ReactMethod
     public void signPersonalMessage(
-            String from,
-            String message,
-            Promise promise
+            final String from,
+            final String message,
+            final Promise promise
     ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AccountStore.Loaded signer = accountStore.get(from);
+                    if (signer == null || !unlockSession.isUnlocked(signer.account)){
+                        Exception err = new Exception();
+                        promise.reject(E_WALLET_UNLOCK_ERROR,err);
+                        return;
+                    }
+
+                    byte[] info = HexUtil.decode(message);
+
+                    byte[] hash256 = Hash.personalMessageHash(info);
+
+                    byte[] signData = signHash(from, signer, hash256);
+
+                    byte subv = (byte)(signData[64]);
+                    if (subv < 27) {
+                        subv += 27;
+                    }
+                    String data = HexUtil.encode(signData);
+
+                    WritableMap map = Arguments.createMap();
+                    map.putString("data",data);
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_SIGN_HASH_ERROR,e);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void signTransaction(
+            final String passphrase,
+            final ReadableMap signInfo,
+            final Promise promise
+    ) {
+        execute(executors.crypto(), promise, new Runnable() {
+            @Override
+            public void run() {
+                String from = signInfo.getString("from");
+                if (from != null && from.equalsIgnoreCase(sessionState.get().address)) {
+                    SessionState.Snapshot session = unlockForSigning(passphrase, promise);
+                    if (session == null) return;
+                    sendSignInfo(session, passphrase, true, signInfo, promise);
+                    return;
+                }
+                // another stored account signs with its passphrase and stays in the background
+                AccountStore.Loaded signer = from == null ? null : accountStore.get(from);
+                if (signer == null) {
+                    promise.reject(E_ACCOUNT_NOT_FOUND_ERROR, new Exception(from));
+                    return;
+                }
+                if (sessionState.get().ethClient == null) getGethEthClient();
+                sendSignInfo(sessionState.forAccount(from, signer.account, signer.keyStore), passphrase, false, signInfo, promise);
+            }
+        });
+    }
+
+    /**
+     * Whether {@code session} signs for {@code fromAddress}. The user may have switched accounts
+     * since the request was made; signing anyway would use the wrong key and spend a nonce of
+     * {@code fromAddress}.
+     */
+    private boolean isSigner(SessionState.Snapshot session, String fromAddress, Promise promise) {
+        if (fromAddress != null && fromAddress.equalsIgnoreCase(session.address)) return true;
+        promise.reject(E_ACCOUNT_NOT_FOUND_ERROR, new Exception(fromAddress));
+        return false;
+    }
+
+    /** Like {@link #signTx}, for the dapp signatures of any stored account. */
+    private byte[] signHash(String address, AccountStore.Loaded signer, byte[] hash) throws Exception {
+        ReentrantLock keyLock = sessionState.lockFor(address);
+        keyLock.lock();
         try {
-            if (account == null || keyStore == null){
-                Exception err = new Exception();
-                promise.reject(E_WALLET_UNLOCK_ERROR,err);
-                return;
+            return signer.keyStore.signHash(signer.account.getAddress(), hash);
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * @param current whether {@code session} is the unlocked current account; any other stored
+     *                account signs with {@code passphrase} without being unlocked
+     */
+    private void sendSignInfo(final SessionState.Snapshot session, final String passphrase, final boolean current,
+                              final ReadableMap signInfo, final Promise promise) {
+        final String fromAddress = signInfo.getString("from");
+        new Outgoing(session, passphrase, getChainId(), promise, E_SIGN_TRANSCTION_ERROR) {
+            boolean wrongPassphrase;
+
+            @Override
+            List<Transaction> build() throws Exception {
+                if (!isSigner(session, fromAddress, promise)) return null;
+
+                String toAddress = signInfo.getString("to");
+                Address to = new Address(toAddress);
+
+                long value  = Long.parseLong(signInfo.getString("value"));
+                BigInt amount = new BigInt(value);
+
+                long gas  = Long.parseLong(signInfo.getString("gasPrice"));
+                BigInt gasPrice = new BigInt(gas);
+
+                long gasLimit  = Long.parseLong(signInfo.getString("gasLimit"));
+
+                long nonce = nonceManager.allocate(session.ethClient, chainId, fromAddress);
+
+                byte[] data = HexUtil.decode(signInfo.getString("data"));
+
+                return Collections.singletonList(new Transaction(nonce, to, amount, gasLimit, gasPrice, data));
             }
 
-            String msg = message.replace("0x", "");
-            byte[] info = hexStringToByteArray(msg);
+            @Override
+            Transaction signOne(Transaction transaction, BigInt chainID) throws Exception {
+                if (current) return super.signOne(transaction, chainID);
+                ReentrantLock keyLock = sessionState.lockFor(session.address);
+                keyLock.lock();
+                try {
+                    return session.keyStore.signTxPassphrase(session.account, passphrase, transaction, chainID);
+                } catch (Exception e) {
+                    wrongPassphrase = true;
+                    throw e;
+                } finally {
+                    keyLock.unlock();
+                }
+            }
 
-            String prefix = PERSONAL_MESSAGE_PREFIX + info.length;
-            byte[] fixByte = prefix.getBytes();
+            @Override
+            void send(List<Transaction> signedTxs) throws Exception {
+                Transaction signedTx = signedTxs.get(0);
+                boolean queued = broadcast(session, chainId, fromAddress, signedTx);
 
-            byte[] msgByte = arraycat(fixByte, info);
+                String txHash = signedTx.getHash().getHex();
+                WritableMap map = Arguments.createMap();
+                map.putString("data",txHash);
+                map.putBoolean("queued", queued);
+                promise.resolve(map);
+            }
 
+            @Override
+            void release() {
+                nonceManager.invalidate(chainId, fromAddress);
+            }
 
-            byte[] hash256 = Geth.keccak256(msgByte);
+            @Override
+            void reject(Exception e) {
+                if (wrongPassphrase) {
+                    promise.reject("1003", new Exception("1003"));
+                } else {
+                    super.reject(e);
+                }
+            }
+        }.start();
+    }
 
-            Address address = new Address(from);
-            byte[] signData =  keyStore.signHash(address, hash256);
+    /**
+     * Sends many JSON-RPC calls to the configured node in a single HTTP request, e.g. the
+     * balances, nonces, receipts and {@code eth_call}s of a wallet refresh. Resolves with
+     * {@code results}, a JSON array holding a {@code result} or an {@code error} object per call,
+     * in request order. Final results, such as old receipts or token metadata, come from the
+     * {@link RpcCache} without a network trip, as they do for every read of {@link #getRpcClient}.
+     *
+     * @param requests JSON array of {@code {method, params}} objects
+     */
+    @ReactMethod
+    public void rpcBatch(final String requests, final Promise promise) {
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONArray calls = new JSONArray(requests);
+                    List<JsonRpcClient.Request> batch = new ArrayList<>(calls.length());
+                    for (int i = 0; i < calls.length(); i++) {
+                        JSONObject call = calls.getJSONObject(i);
+                        batch.add(new JsonRpcClient.Request(call.getString("method"), call.optJSONArray("params")));
+                    }
+
+                    List<JsonRpcClient.Response> responses = getRpcClient().batch(batch);
+
+                    JSONArray results = new JSONArray();
+                    for (JsonRpcClient.Response response : responses) {
+                        JSONObject item = new JSONObject();
+                        if (response.isError()) {
+                            JsonRpcException error = response.getError();
+                            JSONObject errorJson = new JSONObject();
+                            errorJson.put("code", error.getCode());
+                            errorJson.put("message", error.getMessage());
+                            item.put("error", errorJson);
+                        } else {
+                            Object result = response.getResult();
+                            item.put("result", result == null ? JSONObject.NULL : result);
+                        }
+                        results.put(item);
+                    }
+
+                    WritableMap map = Arguments.createMap();
+                    map.putString("results", results.toString());
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_RPC_BATCH_ERROR, e);
+                }
+            }
+        });
+    }
 
-            byte subv = (byte)(signData[64]);
-            if (subv < 27) {
-                subv += 27;
+    /**
+     * Reads the balance of every token for every holder through one Multicall batch against the
+     * configured node. An empty token address stands for ETH. Resolves with the
+     * {@code blockNumber} the balances were read at and {@code balances}, a list of
+     * {@code {holder, token, balance}} with {@code balance} in wei, or null if the call failed.
+     */
+    @ReactMethod
+    public void getTokenBalances(final ReadableArray holders, final ReadableArray tokens, final Promise promise) {
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<BalanceReader.Query> queries = new ArrayList<>();
+                    for (int i = 0; i < holders.size(); i++) {
+                        for (int j = 0; j < tokens.size(); j++) {
+                            String token = tokens.isNull(j) ? null : tokens.getString(j);
+                            queries.add(new BalanceReader.Query(holders.getString(i), TextUtils.isEmpty(token) ? null : token));
+                        }
+                    }
+
+                    BalanceReader.Snapshot snapshot = new BalanceReader(getRpcClient()).read(queries);
+                    gasEstimateCache.onNewBlock(snapshot.blockNumber);
+
+                    WritableArray balances = Arguments.createArray();
+                    for (BalanceReader.Balance balance : snapshot.balances) {
+                        WritableMap item = Arguments.createMap();
+                        item.putString("holder", balance.holder);
+                        item.putString("token", balance.token == null ? "" : balance.token);
+                        item.putString("balance", balance.balance == null ? null : balance.balance.toString());
+                        balances.pushMap(item);
+                    }
+                    WritableMap map = Arguments.createMap();
+                    map.putString("blockNumber", String.valueOf(snapshot.blockNumber));
+                    map.putArray("balances", balances);
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_BALANCE_ERROR, e);
+                }
             }
-            String data = Geth.bytesToHex(signData);
+        });
+    }
 
+    /**
+     * Answers balances from the native {@link PortfolioStore}. The first read of a holding waits
+     * for the node; afterwards reads resolve from memory at once and stale holdings are refreshed
+     * in the background, which emits {@link #PORTFOLIO_UPDATED_EVENT} with the ones that changed.
+     * Tracked holdings are also refreshed on every new block.
+     *
+     * <p>Resolves with {@code balances} in the order of {@code holders} x {@code tokens}, each a
+     * {@code {holder, token, balance, blockNumber}}, where an empty token address stands for ETH.
+     */
+    @ReactMethod
+    public void getPortfolio(final ReadableArray holders, final ReadableArray tokens, final Promise promise) {
+        execute(executors.rpc(), promise, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<BalanceReader.Query> queries = new ArrayList<>();
+                    for (int i = 0; i < holders.size(); i++) {
+                        for (int j = 0; j < tokens.size(); j++) {
+                            String token = tokens.isNull(j) ? null : tokens.getString(j);
+                            queries.add(new BalanceReader.Query(holders.getString(i), TextUtils.isEmpty(token) ? null : token));
+                        }
+                    }
+
+                    portfolioStore.track(queries);
+                    if (!portfolioStore.isLoaded(queries)) {
+                        portfolioStore.refresh(new BalanceReader(getRpcClient()));
+                    } else if (portfolioStore.isStale()) {
+                        try {
+                            executors.rpc().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    refreshPortfolio();
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            // the pool is saturated, the next block refreshes them
+                        }
+                    }
+
+                    WritableMap map = Arguments.createMap();
+                    map.putArray("balances", toWritableHoldings(portfolioStore.get(queries)));
+                    promise.resolve(map);
+                } catch (Exception e) {
+                    promise.reject(E_BALANCE_ERROR, e);
+                }
+            }
+        });
+    }
+
+    private void refreshPortfolio() {
+        try {
+            List<PortfolioStore.Holding> changed = portfolioStore.refresh(new BalanceReader(getRpcClient()));
+            if (changed.isEmpty()) return;
+            ReactApplicationContext context = getReactApplicationContext();
+            if (!context.hasActiveCatalystInstance()) return;
             WritableMap map = Arguments.createMap();
-            map.putString("data",data);
-            promise.resolve(map);
+            map.putArray("balances", toWritableHoldings(changed));
+            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(PORTFOLIO_UPDATED_EVENT, map);
         } catch (Exception e) {
-            promise.reject(E_SIGN_HASH_ERROR,e);
+            // the holdings stay stale and are read again on the next block
         }
     }
 
-    @ReactMethod
-    public void signTransaction(
-            String passphrase,
-            ReadableMap signInfo,
-            Promise promise
-    ) {
+    private static WritableArray toWritableHoldings(List<PortfolioStore.Holding> holdings) {
+        WritableArray balances = Arguments.createArray();
+        for (PortfolioStore.Holding holding : holdings) {
+            WritableMap item = Arguments.createMap();
+            item.putString("holder", holding.holder);
+            item.putString("token", holding.token == null ? "" : holding.token);
+            item.putString("balance", holding.balance == null ? null : holding.balance.toString());
+            item.putString("blockNumber", String.valueOf(holding.blockNumber));
+            balances.pushMap(item);
+        }
+        return balances;
+    }
+
+    /**
+     * Runs {@code task} on one of the module's worker pools and rejects {@code promise} when that
+     * pool's queue is full.
+     */
+    private void execute(Executor executor, Promise promise, Runnable task) {
         try {
-            if (ethClient == null){
-                ethClient = getGethEthClient();
-            }
-            if (account == null){
-                account = getGethAccount(passphrase);
-            }
-            if (keyStore == null){
-                keyStore = getGethKeyStore(passphrase);
-            }
-            if (account == null ||keyStore == null ){
-                Exception err = new Exception();
-                promise.reject(E_UNLOCK_ACCOUNT_ERROR,err);
-                return;
-            }
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            promise.reject(E_EXECUTOR_BUSY_ERROR, e);
+        }
+    }
 
-            try {
-                keyStore.unlock(account, passphrase);
-            } catch (Exception e){
-                promise.reject("1003",new Exception("1003"));
-                return;
+    /**
+     * Opens the keystore and the saved account on first use. Once they are open this only reads
+     * the session, so concurrent requests do not queue up on the module.
+     *
+     * @return the session holding them, or {@code null} when there is no saved account
+     */
+    private SessionState.Snapshot loadAccount() {
+        SessionState.Snapshot session = sessionState.get();
+        if (session.hasAccount() && session.ethClient != null) return session;
+        synchronized (this) {
+            if (sessionState.get().ethClient == null){
+                getGethEthClient();
+            }
+            if (!sessionState.get().hasAccount()){
+                migrateKeyStore();
+                String current = String.valueOf(sharedPreferencesHelper.getSharedPreference(CURRENT_ACCOUNT_KEY, ""));
+                AccountStore.Loaded loaded = accountStore.get(current);
+                if (loaded == null) return null;
+                sessionState.setAccount(current, loaded.account, loaded.keyStore);
             }
+            return sessionState.get();
+        }
+    }
 
-            String fromAddress = signInfo.getString("from");
-            Address from = new Address(fromAddress);
+    /**
+     * Switches the current account to {@code address}, locking the previous one.
+     *
+     * @return false when {@code address} is not in the store
+     */
+    private synchronized boolean selectCurrentAccount(String address) {
+        migrateKeyStore();
+        if (!accountStore.contains(address)) return false;
+        if (address.equalsIgnoreCase(sessionState.get().address)) return true;
+
+        lockKey(sessionState.clearAccount());
+        sharedPreferencesHelper.put(CURRENT_ACCOUNT_KEY, address.toLowerCase());
+        return true;
+    }
 
-            String toAddress = signInfo.getString("to");
-            Address to = new Address(toAddress);
+    /**
+     * Loads the account and unlocks it for {@code passphrase}, rejecting {@code promise} with the
+     * usual codes when either step fails.
+     *
+     * @return the session to sign with, or {@code null} once {@code promise} is rejected
+     */
+    private SessionState.Snapshot unlockForSigning(String passphrase, Promise promise) {
+        SessionState.Snapshot session = loadAccount();
+        if (session == null){
+            Exception err = new Exception();
+            promise.reject(E_UNLOCK_ACCOUNT_ERROR, err);
+            return null;
+        }
 
-            long value  = Long.parseLong(signInfo.getString("value"));
-            BigInt amount = new BigInt(value);
+        try {
+            ensureUnlocked(session, passphrase);
+        } catch (Exception e){
+            promise.reject("1003",new Exception("1003"));
+            return null;
+        }
+        return session;
+    }
 
-            long gas  = Long.parseLong(signInfo.getString("gasPrice"));
-            BigInt gasPrice = new BigInt(gas);
+    /**
+     * Reuses the timed unlock when it is still valid for {@code passphrase}, otherwise decrypts
+     * the key once and starts a new session.
+     */
+    private void ensureUnlocked(SessionState.Snapshot session, String passphrase) throws Exception {
+        ReentrantLock keyLock = sessionState.lockFor(session.address);
+        keyLock.lock();
+        try {
+            if (unlockSession.matches(session.account, passphrase)) return;
+            unlock(session, passphrase);
+        } finally {
+            keyLock.unlock();
+        }
+    }
 
-            long gasLimit  = Long.parseLong(signInfo.getString("gasLimit"));
+    /**
+     * Decrypts the key and starts a new session, then re-encrypts the keyfile in the background
+     * when it still uses other scrypt parameters than the ones calibrated for this device.
+     */
+    private void unlock(SessionState.Snapshot session, String passphrase) throws Exception {
+        ReentrantLock keyLock = sessionState.lockFor(session.address);
+        keyLock.lock();
+        try {
+            long start = SystemClock.elapsedRealtime();
+            unlockSession.unlock(session.keyStore, session.account, passphrase);
+            scryptCalibrator.recordUnlock(SystemClock.elapsedRealtime() - start);
+        } finally {
+            keyLock.unlock();
+        }
+        scheduleReencryption(session.account, passphrase);
+    }
 
-            long number = -1;
-            long nonce = ethClient.getNonceAt(Geth.newContext(), from, number);
+    /**
+     * Signs with {@code session}'s key while holding its account lock, so the key cannot be
+     * locked or re-unlocked mid-signature. Other accounts sign in parallel. The unlock is checked
+     * again right here: the node round trips since the request was unlocked may have outlasted it.
+     */
+    private Transaction signTx(SessionState.Snapshot session, final String passphrase, final Transaction transaction,
+                               final BigInt chainId) throws Exception {
+        return sessionState.withKey(session, new SessionState.KeyWork<Transaction>() {
+            @Override
+            public Transaction run(SessionState.Snapshot session) throws Exception {
+                if (!unlockSession.matches(session.account, passphrase)) unlock(session, passphrase);
+                return session.keyStore.signTx(session.account, transaction, chainId);
+            }
+        });
+    }
 
-            String dataHex = signInfo.getString("data").replace("0x", "");
-            byte[] data = hexStringToByteArray(dataHex);
+    /**
+     * Transactions on their way out: built on the rpc pool, where the nonce lookup and gas
+     * estimates wait on the node, signed on the crypto pool, then broadcast on the rpc pool again.
+     * A slow node never holds one of the few crypto threads, and signatures never queue behind
+     * node round trips.
+     */
+    private abstract class Outgoing {
+        final SessionState.Snapshot session;
+        final String passphrase;
+        final long chainId;
+        final Promise promise;
+        final String errorCode;
+
+        Outgoing(SessionState.Snapshot session, String passphrase, long chainId, Promise promise, String errorCode) {
+            this.session = session;
+            this.passphrase = passphrase;
+            this.chainId = chainId;
+            this.promise = promise;
+            this.errorCode = errorCode;
+        }
 
-            Transaction transaction = new Transaction(nonce, to, amount, gasLimit, gasPrice, data);
+        /**
+         * Runs on the rpc pool.
+         *
+         * @return the transactions to sign, or {@code null} once {@code promise} is settled
+         */
+        abstract List<Transaction> build() throws Exception;
 
-            long chainId = Long.parseLong(String.valueOf(sharedPreferencesHelper.getSharedPreference(CHAIN_ID_KEY, "4")));
-            BigInt chainID = new BigInt(chainId);
-            Transaction signedTx = keyStore.signTxPassphrase(account, passphrase, transaction, chainID);
+        /** Broadcasts the signed transactions and settles {@code promise}, on the rpc pool. */
+        abstract void send(List<Transaction> signedTxs) throws Exception;
 
-            ethClient.sendTransaction(Geth.newContext(), signedTx);
+        /** Undoes {@link #build} after a later step failed, e.g. gives the nonce back. */
+        void release() {
+        }
 
-            String txHash = signedTx.getHash().getHex();
-            WritableMap map = Arguments.createMap();
-            map.putString("data",txHash);
-            promise.resolve(map);
+        void reject(Exception e) {
+            promise.reject(errorCode, e);
+        }
 
-        } catch (Exception e) {
-            promise.reject(E_SIGN_TRANSCTION_ERROR,e);
+        /** Signs one transaction on the crypto pool, with the unlocked key of {@code session}. */
+        Transaction signOne(Transaction transaction, BigInt chainID) throws Exception {
+            return signTx(session, passphrase, transaction, chainID);
         }
-    }
 
+        void start() {
+            hop(executors.rpc(), new Step() {
+                @Override
+                public void run() throws Exception {
+                    List<Transaction> transactions = build();
+                    if (transactions != null) sign(transactions);
+                }
+            });
+        }
 
-    public void saveKeystorePath(Account account){
-        String url = account.getURL();
-        String keydir = Uri.parse(url).getPath();
-        sharedPreferencesHelper.put(KEY_DIR, keydir);
-    }
+        void sign(final List<Transaction> transactions) {
+            hop(executors.crypto(), new Step() {
+                @Override
+                public void run() throws Exception {
+                    BigInt chainID = new BigInt(chainId);
+                    final List<Transaction> signedTxs = new ArrayList<>();
+                    for (Transaction transaction : transactions) {
+                        signedTxs.add(signOne(transaction, chainID));
+                    }
+                    hop(executors.rpc(), new Step() {
+                        @Override
+                        public void run() throws Exception {
+                            send(signedTxs);
+                        }
+                    });
+                }
+            });
+        }
 
-    public static byte[] hexStringToByteArray(String s) {
-        int len = s.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i+1), 16));
+        private void hop(Executor executor, final Step step) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            step.run();
+                        } catch (Exception e) {
+                            release();
+                            reject(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+                promise.reject(E_EXECUTOR_BUSY_ERROR, e);
+            }
         }
-        return data;
     }
 
-    public EthereumClient getGethEthClient(){
-        String contactIp = String.valueOf(sharedPreferencesHelper.getSharedPreference(CONTACT_IP_KEY, ""));
-        ethClient = new EthereumClient(contactIp);
-        return ethClient;
+    private interface Step {
+        void run() throws Exception;
     }
 
-    public KeyStore getGethKeyStore(String passphrase){
+    /** Locks the key of a session that was just swapped out, after its signatures in progress. */
+    private void lockKey(SessionState.Snapshot previous) {
+        if (!previous.hasAccount()) {
+            unlockSession.lock(previous.keyStore);
+            return;
+        }
+        ReentrantLock keyLock = sessionState.lockFor(previous.address);
+        keyLock.lock();
+        try {
+            unlockSession.lock(previous.keyStore);
+        } finally {
+            keyLock.unlock();
+        }
+    }
 
+    private void scheduleReencryption(final Account target, final String passphrase) {
+        if (!scryptCalibrator.needsReencryption(target)) return;
+        if (!reencrypting.compareAndSet(false, true)) return;
         try {
-            String tempDir = getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStoreTemp";
-            FileUtil.createDir(tempDir);
-            keyStore = new KeyStore(tempDir, SCRYPT_N,  SCRYPT_P);
+            executors.crypto().execute(new Runnable() {
+                @Override
+                public void run() {
+                    String address = target.getAddress().getHex();
+                    ReentrantLock keyLock = sessionState.lockFor(address);
+                    try {
+                        String keyFile;
+                        synchronized (GethModule.this) {
+                            if (!address.equalsIgnoreCase(sessionState.get().address)) return;
+                            keyFile = accountStore.getKeyFile(address);
+                        }
+                        if (keyFile == null) return;
+                        // only this account waits for the scrypt runs, the module stays available
+                        keyLock.lock();
+                        try {
+                            if (!new File(keyFile).exists()) return;
+                            KeyStore reencryptStore = new KeyStore(new File(keyFile).getParent(), scryptCalibrator.getN(), scryptCalibrator.getP());
+                            reencryptStore.updateAccount(target, passphrase, passphrase);
+                        } finally {
+                            keyLock.unlock();
+                        }
+                    } catch (Exception e) {
+                        // keep the old keyfile, the next unlock tries again
+                    } finally {
+                        reencrypting.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reencrypting.set(false);
+        }
+    }
 
+    private void calibrateScrypt() {
+        try {
+            executors.crypto().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scryptCalibrator.calibrate();
+                    } catch (Exception e) {
+                        // stay on the default parameters, calibration runs again on next launch
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // runs again on next launch
+        }
+    }
 
-            String keydir = String.valueOf(sharedPreferencesHelper.getSharedPreference(KEY_DIR, ""));
-            boolean isExists =  FileUtil.isFileExists(keydir);
-            if (!isExists){
-                return null;
-            }
+    private long getChainId(){
+        return Long.parseLong(String.valueOf(sharedPreferencesHelper.getSharedPreference(CHAIN_ID_KEY, "4")));
+    }
 
-            File keyFile = FileUtil.getFile(keydir);
-            byte[] data = ByteUtil.getFileToByte(keyFile);
+    public EthereumClient getGethEthClient(){
+        EthereumClient client = new EthereumClient(getRpcRouter().getBestUrl());
+        sessionState.setEthClient(client);
+        return client;
+    }
 
-            keyStore.importKey(data, passphrase, passphrase);
-            return keyStore;
+    /**
+     * Router over the endpoints in {@code CONTACT_IP_KEY}, which may list several node URLs
+     * separated by commas, the first one preferred. HTTP and WebSocket URLs both work.
+     */
+    private RpcRouter getRpcRouter(){
+        String contactIp = String.valueOf(sharedPreferencesHelper.getSharedPreference(CONTACT_IP_KEY, ""));
+        RpcRouter router = rpcRouter;
+        if (router == null || !router.getUrls().equals(RpcRouter.parseUrls(contactIp))){
+            RpcRouter previous = router;
+            router = RpcRouter.forUrls(contactIp);
+            rpcRouter = router;
+            if (previous != null) previous.close();
+        }
+        return router;
+    }
 
-        } catch (Exception e){
-            return null;
+    /** Client for all node reads and sends: routed, final results cached, duplicate reads coalesced. */
+    public JsonRpcClient getRpcClient(){
+        RpcRouter router = getRpcRouter();
+        long chainId = getChainId();
+        CoalescingRpcClient client = rpcClient;
+        CachingRpcClient cached = client == null ? null : (CachingRpcClient) client.getDelegate();
+        if (cached == null || cached.getDelegate() != router || cached.getChainId() != chainId){
+            cached = new CachingRpcClient(router, rpcCache, chainId);
+            cached.setHeadBlock(headWatcher.getLastBlock());
+            client = new CoalescingRpcClient(cached, readReuseWindow);
+            rpcClient = client;
         }
+        return client;
     }
 
-    public Account getGethAccount(String passphrase){
-        try {
-            KeyStore keyStore = getGethKeyStore(passphrase);
-            if (keyStore == null){
-                return null;
-            }
-            String keydir = String.valueOf(sharedPreferencesHelper.getSharedPreference(KEY_DIR, ""));
-            boolean isExists =  FileUtil.isFileExists(keydir);
-            if (!isExists){
-                return null;
-            }
+    private synchronized void migrateKeyStore(){
+        migrateKeyStoreTemp();
+        migrateAccountIndex();
+    }
 
-            File keyFile = FileUtil.getFile(keydir);
-            byte[] data = ByteUtil.getFileToByte(keyFile);
+    /**
+     * One-time move from the old layout, where every unlock re-imported the key file into
+     * {@code keyStoreTemp}, to a single keystore directory that is opened in place.
+     */
+    private void migrateKeyStoreTemp(){
+        boolean isMigrated = (Boolean) sharedPreferencesHelper.getSharedPreference(KEYSTORE_MIGRATED_KEY, false);
+        if (isMigrated) return;
 
-            account = keyStore.importKey(data, passphrase, passphrase);
-            return account;
+        String keyStoreDir = getKeyStoreDir();
+        FileUtil.createDir(keyStoreDir);
 
-        } catch (Exception e){
-            return null;
+        String keydir = String.valueOf(sharedPreferencesHelper.getSharedPreference(KEY_DIR, ""));
+        if (FileUtil.isFileExists(keydir)){
+            File keyFile = FileUtil.getFile(keydir);
+            File keyStoreFile = new File(keyStoreDir);
+            if (!keyStoreFile.getAbsolutePath().equals(keyFile.getParentFile().getAbsolutePath())){
+                File target = new File(keyStoreFile, keyFile.getName());
+                if (!FileUtil.copyFile(keyFile, target, true, false)){
+                    return;
+                }
+                sharedPreferencesHelper.put(KEY_DIR, target.getAbsolutePath());
+            }
         }
+
+        FileUtil.deleteDirectory(getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStoreTemp");
+        sharedPreferencesHelper.put(KEYSTORE_MIGRATED_KEY, true);
     }
 
+    /**
+     * One-time move of the single-account keystore into the {@link AccountStore} layout. The
+     * account {@code KEY_DIR} pointed at becomes the current account.
+     */
+    private void migrateAccountIndex(){
+        boolean isMigrated = (Boolean) sharedPreferencesHelper.getSharedPreference(ACCOUNT_INDEX_MIGRATED_KEY, false);
+        boolean isKeyStoreMigrated = (Boolean) sharedPreferencesHelper.getSharedPreference(KEYSTORE_MIGRATED_KEY, false);
+        if (isMigrated || !isKeyStoreMigrated) return;
+
+        accountStore.migrateFlatLayout();
+
+        String keydir = String.valueOf(sharedPreferencesHelper.getSharedPreference(KEY_DIR, ""));
+        String current = String.valueOf(sharedPreferencesHelper.getSharedPreference(CURRENT_ACCOUNT_KEY, ""));
+        if (current.length() == 0 && keydir.length() > 0){
+            String address = accountStore.findByFileName(new File(keydir).getName());
+            if (address != null){
+                sharedPreferencesHelper.put(CURRENT_ACCOUNT_KEY, address);
+            }
+        }
+        sharedPreferencesHelper.remove(KEY_DIR);
+        sharedPreferencesHelper.put(ACCOUNT_INDEX_MIGRATED_KEY, true);
+    }
 
-    public byte[] arraycat(byte[] buf1,byte[] buf2) {
-        byte[] bufret=null;
-        int len1=0;
-        int len2=0;
-        if(buf1!=null)
-            len1=buf1.length;
-        if(buf2!=null)
-            len2=buf2.length;
-        if(len1+len2>0)
-            bufret=new byte[len1+len2];
-        if(len1>0)
-            System.arraycopy(buf1,0,bufret,0,len1);
-        if(len2>0)
-            System.arraycopy(buf2,0,bufret,len1,len2);
-        return bufret;
+    private String getKeyStoreDir(){
+        return getReactApplicationContext().getFilesDir().getAbsolutePath() + "/keyStore";
     }
 }
 
@@ -12,14 +12,23 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.WritableMap;
 import com.quickwallet.R;
+import com.quickwallet.modules.geth.rpc.CachingRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.RpcCache;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 public class BundleModule extends ReactContextBaseJavaModule {
 
   private String jsLibrary="";
+  private final ScheduledExecutorService proxyScheduler = Executors.newSingleThreadScheduledExecutor();
+  private final RpcProxy rpcProxy = new RpcProxy(proxyScheduler);
+  private final LocalRpcServer rpcServer = new LocalRpcServer(rpcProxy);
 
   public BundleModule(ReactApplicationContext reactContext) {
     super(reactContext);
@@ -46,6 +55,32 @@ public class BundleModule extends ReactContextBaseJavaModule {
 
   }
 
+  /**
+   * Starts the local JSON-RPC endpoint for the dapp browser in front of {@code upstreamUrl} and
+   * resolves with its {@code rpcUrl}, to be handed to the injected web3 provider. Final results
+   * come from the same {@link RpcCache} the wallet reads through.
+   */
+  @ReactMethod
+  public void startRpcProxy(String upstreamUrl, String chainId, Promise promise) {
+    try {
+      long id = Long.parseLong(chainId);
+      RpcCache rpcCache = RpcCache.open(new File(getReactApplicationContext().getCacheDir(), "rpcCache"));
+      rpcProxy.configure(new CachingRpcClient(new JsonRpcClient(upstreamUrl), rpcCache, id), id);
+      rpcServer.start();
+      WritableMap map = Arguments.createMap();
+      map.putString("rpcUrl", rpcServer.getUrl());
+      promise.resolve(map);
+    } catch (Exception e){
+      promise.reject("-2002",e);
+    }
+  }
+
+  @Override
+  public void onCatalystInstanceDestroy() {
+    rpcServer.stop();
+    proxyScheduler.shutdownNow();
+  }
+
   private String loadFile(Context context, @RawRes int rawRes) {
     byte[] buffer = new byte[0];
     try {
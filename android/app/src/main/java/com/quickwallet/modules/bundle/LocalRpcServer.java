@@ -0,0 +1,213 @@
+package com.quickwallet.modules.bundle;
+
+import com.quickwallet.utils.HexUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that hands JSON-RPC POST bodies to a
+ * {@link RpcProxy}, so the web3 provider inside the WebView can use it as its RPC URL without
+ * going through the React Native bridge.
+ *
+ * <p>Other apps and any web page can reach loopback ports too, so the server listens on a random
+ * port and only answers requests whose path carries a secret drawn at each start; {@link #getUrl}
+ * includes it and is only handed to the injected provider. CORS headers name the calling page's
+ * origin on those requests alone, instead of allowing every origin.
+ */
+public class LocalRpcServer {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final int MAX_BODY = 4 * 1024 * 1024;
+  private static final int MAX_CONNECTIONS = 4;
+  private static final int SO_TIMEOUT = 30 * 1000;
+
+  private final RpcProxy proxy;
+  private final SecureRandom random = new SecureRandom();
+  private ServerSocket serverSocket;
+  private ExecutorService connections;
+  private volatile String path;
+
+  public LocalRpcServer(RpcProxy proxy) {
+    this.proxy = proxy;
+  }
+
+  /** Binds a free loopback port and draws a new secret. Does nothing if running. */
+  public synchronized void start() throws IOException {
+    if (serverSocket != null) return;
+    ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    byte[] secret = new byte[16];
+    random.nextBytes(secret);
+    char[] hex = new char[secret.length * 2];
+    HexUtil.encode(secret, 0, secret.length, hex, 0);
+    path = "/" + new String(hex);
+    serverSocket = socket;
+    connections = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(64));
+    ((ThreadPoolExecutor) connections).allowCoreThreadTimeOut(true);
+
+    final ServerSocket accepting = socket;
+    final ExecutorService handlers = connections;
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!accepting.isClosed()) {
+          final Socket client;
+          try {
+            client = accepting.accept();
+          } catch (IOException e) {
+            continue;
+          }
+          try {
+            handlers.execute(new Runnable() {
+              @Override
+              public void run() {
+                serve(client);
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            closeQuietly(client);
+          }
+        }
+      }
+    }, "rpc-proxy-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public synchronized int getPort() {
+    return serverSocket == null ? -1 : serverSocket.getLocalPort();
+  }
+
+  public synchronized String getUrl() {
+    return serverSocket == null ? null : "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+  }
+
+  public synchronized void stop() {
+    if (serverSocket == null) return;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // already closed
+    }
+    connections.shutdownNow();
+    serverSocket = null;
+    connections = null;
+  }
+
+  private void serve(Socket client) {
+    try {
+      client.setSoTimeout(SO_TIMEOUT);
+      InputStream in = new BufferedInputStream(client.getInputStream());
+      OutputStream out = client.getOutputStream();
+
+      String requestLine = readLine(in);
+      if (requestLine == null) return;
+      String[] request = requestLine.split(" ", 3);
+      String method = request[0].toUpperCase(Locale.US);
+      String target = request.length > 1 ? request[1] : "";
+      int contentLength = 0;
+      String origin = null;
+      String line;
+      while ((line = readLine(in)) != null && line.length() > 0) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) continue;
+        String name = line.substring(0, colon).trim();
+        if (name.equalsIgnoreCase("Content-Length")) {
+          contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+        } else if (name.equalsIgnoreCase("Origin")) {
+          origin = line.substring(colon + 1).trim();
+        }
+      }
+
+      if (!isAuthorized(target)) {
+        respond(out, "404 Not Found", null, null);
+        return;
+      }
+      if ("OPTIONS".equals(method)) {
+        respond(out, "204 No Content", origin, null);
+        return;
+      }
+      if (!"POST".equals(method) || contentLength <= 0 || contentLength > MAX_BODY) {
+        respond(out, "400 Bad Request", origin, null);
+        return;
+      }
+      byte[] body = new byte[contentLength];
+      int read = 0;
+      while (read < contentLength) {
+        int n = in.read(body, read, contentLength - read);
+        if (n < 0) return;
+        read += n;
+      }
+      respond(out, "200 OK", origin, proxy.handle(new String(body, UTF_8)).getBytes(UTF_8));
+    } catch (IOException | RuntimeException e) {
+      // the page gave up on the request
+    } finally {
+      closeQuietly(client);
+    }
+  }
+
+  /** Whether the request target is the secret path, compared in constant time. */
+  private boolean isAuthorized(String target) {
+    String expected = path;
+    int query = target.indexOf('?');
+    if (query >= 0) target = target.substring(0, query);
+    return expected != null && MessageDigest.isEqual(expected.getBytes(ASCII), target.getBytes(ASCII));
+  }
+
+  /** @param origin the calling page's origin, allowed by CORS; {@code null} sends no CORS headers */
+  private static void respond(OutputStream out, String status, String origin, byte[] body) throws IOException {
+    StringBuilder head = new StringBuilder()
+        .append("HTTP/1.1 ").append(status).append("\r\n");
+    if (origin != null) {
+      head.append("Access-Control-Allow-Origin: ").append(origin).append("\r\n")
+          .append("Access-Control-Allow-Methods: POST, OPTIONS\r\n")
+          .append("Access-Control-Allow-Headers: Content-Type\r\n")
+          .append("Vary: Origin\r\n");
+    }
+    head.append("Connection: close\r\n");
+    if (body != null) {
+      head.append("Content-Type: application/json; charset=utf-8\r\n");
+    }
+    head.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n\r\n");
+    out.write(head.toString().getBytes(ASCII));
+    if (body != null) out.write(body);
+    out.flush();
+  }
+
+  /** Reads one CRLF-terminated header line, or {@code null} at the end of the stream. */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n') break;
+      if (b != '\r') line.write(b);
+      if (line.size() > 8192) throw new IOException("Header line too long");
+    }
+    if (b == -1 && line.size() == 0) return null;
+    return new String(line.toByteArray(), ASCII);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to do
+    }
+  }
+}
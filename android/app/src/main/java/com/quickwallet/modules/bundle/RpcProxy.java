@@ -0,0 +1,321 @@
+package com.quickwallet.modules.bundle;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON-RPC endpoint for the dapp browser's web3 provider that keeps chatty dapps off the node.
+ *
+ * <ul>
+ *   <li>{@code eth_chainId} and {@code net_version} are answered locally.</li>
+ *   <li>{@code eth_blockNumber} and {@code eth_call}s against the latest block are answered
+ *   from a cache that is dropped whenever the head moves. The head is re-read at most once per
+ *   {@link #HEAD_TTL}, piggybacked on the next upstream batch.</li>
+ *   <li>Identical calls already on their way upstream are joined instead of sent again.</li>
+ *   <li>Everything else that arrives within {@link #BATCH_WINDOW} goes upstream as one
+ *   batch.</li>
+ * </ul>
+ */
+public class RpcProxy {
+  public static final long HEAD_TTL = 1000;
+  public static final long BATCH_WINDOW = 5;
+  public static final long CALL_TIMEOUT = 60 * 1000;
+
+  private static final int MAX_CACHED_CALLS = 512;
+  private static final int INTERNAL_ERROR = -32603;
+  private static final int INVALID_REQUEST = -32600;
+
+  private final ScheduledExecutorService scheduler;
+
+  private JsonRpcClient upstream;
+  private long chainId;
+
+  private long head = -1;
+  private long headCheckedAt;
+  private final Map<String, Object> calls = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+      return size() > MAX_CACHED_CALLS;
+    }
+  };
+
+  private final Map<String, Pending> inFlight = new HashMap<>();
+  private List<Pending> queue = new ArrayList<>();
+  private int upstreamBatches;
+
+  public RpcProxy(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  public synchronized void configure(JsonRpcClient upstream, long chainId) {
+    if (this.upstream != null && this.upstream.getUrl().equals(upstream.getUrl()) && this.chainId == chainId) return;
+    this.upstream = upstream;
+    this.chainId = chainId;
+    head = -1;
+    calls.clear();
+  }
+
+  public synchronized int getUpstreamBatches() {
+    return upstreamBatches;
+  }
+
+  /** Answers a JSON-RPC request body, a single call or a batch, with the response body. */
+  public String handle(String body) {
+    String trimmed = body.trim();
+    try {
+      if (trimmed.startsWith("[")) {
+        JSONArray batch = new JSONArray(trimmed);
+        List<JSONObject> requests = new ArrayList<>(batch.length());
+        for (int i = 0; i < batch.length(); i++) {
+          requests.add(batch.getJSONObject(i));
+        }
+        JSONArray out = new JSONArray();
+        for (JSONObject response : answer(requests)) {
+          out.put(response);
+        }
+        return out.toString();
+      }
+      List<JSONObject> requests = new ArrayList<>(1);
+      requests.add(new JSONObject(trimmed));
+      return answer(requests).get(0).toString();
+    } catch (JSONException e) {
+      return "{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":" + INVALID_REQUEST + ",\"message\":\"Invalid request\"}}";
+    }
+  }
+
+  private List<JSONObject> answer(List<JSONObject> requests) throws JSONException {
+    int size = requests.size();
+    Object[] results = new Object[size];
+    boolean[] answered = new boolean[size];
+    Pending[] pendings = new Pending[size];
+
+    synchronized (this) {
+      boolean headFresh = head >= 0 && System.currentTimeMillis() - headCheckedAt < HEAD_TTL;
+      for (int i = 0; i < size; i++) {
+        JSONObject request = requests.get(i);
+        String method = request.optString("method");
+        JSONArray params = request.optJSONArray("params");
+        if (params == null) params = new JSONArray();
+
+        if ("eth_chainId".equals(method)) {
+          results[i] = "0x" + Long.toHexString(chainId);
+          answered[i] = true;
+        } else if ("net_version".equals(method)) {
+          results[i] = String.valueOf(chainId);
+          answered[i] = true;
+        } else if ("eth_blockNumber".equals(method) && headFresh) {
+          results[i] = "0x" + Long.toHexString(head);
+          answered[i] = true;
+        } else {
+          String callKey = callKey(method, params);
+          if (callKey != null && headFresh && calls.containsKey(callKey)) {
+            results[i] = calls.get(callKey);
+            answered[i] = true;
+            continue;
+          }
+          pendings[i] = enqueue(method, params, callKey);
+        }
+      }
+    }
+
+    List<JSONObject> responses = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      JSONObject response = new JSONObject();
+      response.put("jsonrpc", "2.0");
+      response.put("id", requests.get(i).opt("id"));
+      if (answered[i]) {
+        response.put("result", results[i] == null ? JSONObject.NULL : results[i]);
+      } else {
+        Pending pending = pendings[i];
+        JSONObject error;
+        try {
+          if (!pending.latch.await(CALL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            error = error(INTERNAL_ERROR, "Upstream request timed out");
+          } else {
+            error = pending.error;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          error = error(INTERNAL_ERROR, "Interrupted");
+        }
+        if (error != null) {
+          response.put("error", error);
+        } else {
+          response.put("result", pending.result == null ? JSONObject.NULL : pending.result);
+        }
+      }
+      responses.add(response);
+    }
+    return responses;
+  }
+
+  /** Joins an identical call already queued or in flight, or queues a new one. */
+  private Pending enqueue(String method, JSONArray params, String callKey) {
+    String key = isCoalescable(method) ? method + params.toString() : null;
+    if (key != null) {
+      Pending pending = inFlight.get(key);
+      if (pending != null) return pending;
+    }
+    Pending pending = new Pending(method, params, key, callKey);
+    if (key != null) inFlight.put(key, pending);
+    queue.add(pending);
+    if (queue.size() == 1) {
+      try {
+        scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        }, BATCH_WINDOW, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        List<Pending> rejected = queue;
+        queue = new ArrayList<>();
+        complete(rejected, null, error(INTERNAL_ERROR, "Proxy is shutting down"));
+      }
+    }
+    return pending;
+  }
+
+  private void flush() {
+    List<Pending> batch;
+    JsonRpcClient client;
+    boolean readHead;
+    synchronized (this) {
+      batch = queue;
+      queue = new ArrayList<>();
+      client = upstream;
+      readHead = head < 0 || System.currentTimeMillis() - headCheckedAt >= HEAD_TTL;
+      if (batch.isEmpty()) return;
+      upstreamBatches++;
+    }
+
+    List<JsonRpcClient.Request> requests = new ArrayList<>(batch.size() + 1);
+    for (Pending pending : batch) {
+      requests.add(new JsonRpcClient.Request(pending.method, pending.params));
+    }
+    if (readHead) {
+      requests.add(new JsonRpcClient.Request("eth_blockNumber", new JSONArray()));
+    }
+
+    List<JsonRpcClient.Response> responses;
+    try {
+      if (client == null) throw new IOException("Proxy has no upstream node");
+      responses = client.batch(requests);
+    } catch (IOException e) {
+      synchronized (this) {
+        complete(batch, null, error(INTERNAL_ERROR, String.valueOf(e.getMessage())));
+      }
+      return;
+    }
+
+    synchronized (this) {
+      if (readHead) {
+        try {
+          Object latest = responses.get(batch.size()).getResult();
+          long number = JsonRpcClient.longQuantity(latest);
+          if (number != head) {
+            head = number;
+            calls.clear();
+          }
+          headCheckedAt = System.currentTimeMillis();
+        } catch (JsonRpcException | RuntimeException e) {
+          // the cache stays cold until a head is read
+        }
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        Pending pending = batch.get(i);
+        JsonRpcClient.Response response = responses.get(i);
+        try {
+          Object result = response.getResult();
+          if (pending.callKey != null && head >= 0) {
+            calls.put(pending.callKey, result);
+          }
+          if ("eth_blockNumber".equals(pending.method) && result instanceof String) {
+            long number = JsonRpcClient.longQuantity(result);
+            if (number > head) {
+              head = number;
+              calls.clear();
+              headCheckedAt = System.currentTimeMillis();
+            }
+          }
+          complete(pending, result, null);
+        } catch (JsonRpcException e) {
+          complete(pending, null, error(e.getCode(), e.getMessage()));
+        }
+      }
+    }
+  }
+
+  private void complete(List<Pending> batch, Object result, JSONObject error) {
+    for (Pending pending : batch) {
+      complete(pending, result, error);
+    }
+  }
+
+  private void complete(Pending pending, Object result, JSONObject error) {
+    if (pending.key != null && inFlight.get(pending.key) == pending) {
+      inFlight.remove(pending.key);
+    }
+    pending.result = result;
+    pending.error = error;
+    pending.latch.countDown();
+  }
+
+  /** Key of an {@code eth_call} against the latest block, the only calls cached per block. */
+  private static String callKey(String method, JSONArray params) {
+    if (!"eth_call".equals(method)) return null;
+    String tag = params.optString(1, "latest");
+    if (!"latest".equals(tag)) return null;
+    JSONObject call = params.optJSONObject(0);
+    return call == null ? null : call.toString();
+  }
+
+  /** Writes and stateful filter calls must reach the node once per request. */
+  private static boolean isCoalescable(String method) {
+    return !(method.startsWith("eth_send") || method.startsWith("eth_sign") || method.startsWith("personal_")
+        || method.contains("Filter") || method.endsWith("subscribe"));
+  }
+
+  private static JSONObject error(int code, String message) {
+    JSONObject error = new JSONObject();
+    try {
+      error.put("code", code);
+      error.put("message", message);
+    } catch (JSONException e) {
+      // cannot happen for a string and an int
+    }
+    return error;
+  }
+
+  private static class Pending {
+    final String method;
+    final JSONArray params;
+    final String key;
+    final String callKey;
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile Object result;
+    volatile JSONObject error;
+
+    Pending(String method, JSONArray params, String key, String callKey) {
+      this.method = method;
+      this.params = params;
+      this.key = key;
+      this.callKey = callKey;
+    }
+  }
+}
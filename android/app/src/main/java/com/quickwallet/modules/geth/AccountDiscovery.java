@@ -0,0 +1,82 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+
+import org.json.JSONArray;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Finds the accounts of a mnemonic that have been used elsewhere, BIP-44 style: addresses are
+ * derived in windows of {@code gapLimit}, each window's balances and nonces are read in one
+ * batch request, and the scan stops after {@code gapLimit} consecutive addresses with neither.
+ */
+public class AccountDiscovery {
+    public static final int DEFAULT_GAP_LIMIT = 20;
+    public static final int MAX_ACCOUNTS = 200;
+
+    private AccountDiscovery() { }
+
+    public static class Found {
+        public final int index;
+        public final String address;
+        public final BigInteger balance;
+        public final long nonce;
+
+        public Found(int index, String address, BigInteger balance, long nonce) {
+            this.index = index;
+            this.address = address;
+            this.balance = balance;
+            this.nonce = nonce;
+        }
+    }
+
+    /**
+     * @throws JsonRpcException the node's own error, code and message, when it fails a balance or
+     *         nonce lookup
+     */
+    public static List<Found> scan(
+            HdKeyDeriver deriver,
+            JsonRpcClient rpcClient,
+            int gapLimit,
+            Executor executor,
+            int parallelism
+    ) throws GeneralSecurityException, IOException, JsonRpcException {
+        if (gapLimit <= 0) {
+            throw new IllegalArgumentException("Gap limit must be positive");
+        }
+        List<Found> found = new ArrayList<>();
+        int empty = 0;
+        int next = 0;
+        while (empty < gapLimit && next < MAX_ACCOUNTS) {
+            int count = Math.min(gapLimit, MAX_ACCOUNTS - next);
+            String[] addresses = deriver.addresses(next, count, executor, parallelism);
+
+            List<JsonRpcClient.Request> requests = new ArrayList<>(2 * count);
+            for (String address : addresses) {
+                requests.add(new JsonRpcClient.Request("eth_getBalance", new JSONArray().put(address).put("latest")));
+                requests.add(new JsonRpcClient.Request("eth_getTransactionCount", new JSONArray().put(address).put("latest")));
+            }
+            List<JsonRpcClient.Response> responses = rpcClient.batch(requests);
+
+            for (int i = 0; i < count && empty < gapLimit; i++) {
+                BigInteger balance = JsonRpcClient.quantity(responses.get(2 * i).getResult());
+                long nonce = JsonRpcClient.longQuantity(responses.get(2 * i + 1).getResult());
+                if (balance.signum() == 0 && nonce == 0) {
+                    empty++;
+                } else {
+                    empty = 0;
+                    found.add(new Found(next + i, addresses[i], balance, nonce));
+                }
+            }
+            next += count;
+        }
+        return found;
+    }
+}
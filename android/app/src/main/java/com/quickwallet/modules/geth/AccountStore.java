@@ -0,0 +1,222 @@
+package com.quickwallet.modules.geth;
+
+import android.net.Uri;
+
+import com.quickwallet.utils.ByteUtil;
+import com.quickwallet.utils.FileUtil;
+import com.quickwallet.utils.SharedPreferencesHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import geth.Account;
+import geth.KeyStore;
+
+/**
+ * Holds any number of accounts, each in its own directory under the keystore root, with a
+ * persistent address to keyfile index.
+ *
+ * <p>A geth {@link KeyStore} reads every keyfile in its directory when it is opened. Giving each
+ * account a directory of its own means that listing accounts only reads the index, and using one
+ * opens a keystore over that single keyfile. The keystore is cached, and nothing is decrypted
+ * until the account is unlocked.
+ */
+public class AccountStore {
+    private static final String ACCOUNT_INDEX_KEY = "account_index_key";
+
+    private final SharedPreferencesHelper sharedPreferencesHelper;
+    private final File rootDir;
+    private final ScryptCalibrator scryptCalibrator;
+
+    /** Lower-case address to keyfile path, in import order. */
+    private LinkedHashMap<String, String> index;
+    private final Map<String, Loaded> loaded = new HashMap<>();
+
+    public AccountStore(SharedPreferencesHelper sharedPreferencesHelper, File rootDir, ScryptCalibrator scryptCalibrator) {
+        this.sharedPreferencesHelper = sharedPreferencesHelper;
+        this.rootDir = rootDir;
+        this.scryptCalibrator = scryptCalibrator;
+    }
+
+    /** An opened account together with the keystore over its directory. */
+    public static class Loaded {
+        public final KeyStore keyStore;
+        public final Account account;
+
+        Loaded(KeyStore keyStore, Account account) {
+            this.keyStore = keyStore;
+            this.account = account;
+        }
+    }
+
+    /** Lower-case addresses of all stored accounts, in import order. */
+    public synchronized List<String> getAddresses() {
+        return new ArrayList<>(getIndex().keySet());
+    }
+
+    public synchronized boolean contains(String address) {
+        return address != null && getIndex().containsKey(address.toLowerCase());
+    }
+
+    /** Keyfile path of {@code address}, or null when it is not in the store. */
+    public synchronized String getKeyFile(String address) {
+        return address == null ? null : getIndex().get(address.toLowerCase());
+    }
+
+    /** Address of the account stored in the keyfile named {@code fileName}, or null. */
+    public synchronized String findByFileName(String fileName) {
+        for (Map.Entry<String, String> entry : getIndex().entrySet()) {
+            if (new File(entry.getValue()).getName().equals(fileName)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens {@code address}, reading only its own keyfile on first use.
+     *
+     * @return null when the address is unknown or its keyfile is gone
+     */
+    public synchronized Loaded get(String address) {
+        if (address == null) return null;
+        String key = address.toLowerCase();
+        Loaded account = loaded.get(key);
+        if (account != null) return account;
+
+        String path = getIndex().get(key);
+        if (path == null) return null;
+        File keyFile = new File(path);
+        if (!keyFile.isFile()) {
+            getIndex().remove(key);
+            saveIndex();
+            return null;
+        }
+        account = open(keyFile.getParentFile());
+        if (account != null) loaded.put(key, account);
+        return account;
+    }
+
+    /**
+     * Encrypts {@code privateKey} into a new account directory. Importing an address that is
+     * already stored replaces its keyfile, so the new passphrase takes effect.
+     */
+    public synchronized Loaded importKey(byte[] privateKey, String passphrase) throws Exception {
+        File dir = new File(rootDir, UUID.randomUUID().toString());
+        FileUtil.createDir(dir.getAbsolutePath());
+        KeyStore keyStore = new KeyStore(dir.getAbsolutePath(), scryptCalibrator.getN(), scryptCalibrator.getP());
+        Account account;
+        try {
+            account = keyStore.importECDSAKey(privateKey, passphrase);
+        } catch (Exception e) {
+            FileUtil.deleteDirectory(dir.getAbsolutePath());
+            throw e;
+        }
+
+        String key = account.getAddress().getHex().toLowerCase();
+        String previous = getIndex().get(key);
+        if (previous != null) {
+            FileUtil.deleteDirectory(new File(previous).getParent());
+        }
+        Loaded imported = new Loaded(keyStore, account);
+        loaded.put(key, imported);
+        getIndex().put(key, Uri.parse(account.getURL()).getPath());
+        saveIndex();
+        return imported;
+    }
+
+    /**
+     * Moves keyfiles that sit directly in the keystore root, as written by earlier versions, into
+     * directories of their own and indexes them. Reads each such keyfile once.
+     */
+    public synchronized void migrateFlatLayout() {
+        File[] files = rootDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.isFile()) continue;
+            String address = readAddress(file);
+            if (address == null) continue;
+            File dir = new File(rootDir, UUID.randomUUID().toString());
+            File target = new File(dir, file.getName());
+            FileUtil.createDir(dir.getAbsolutePath());
+            if (!file.renameTo(target)) {
+                FileUtil.deleteDirectory(dir.getAbsolutePath());
+                continue;
+            }
+            getIndex().put(address, target.getAbsolutePath());
+        }
+        saveIndex();
+    }
+
+    /** Drops cached keystores, so the next {@link #get} reopens them from disk. */
+    public synchronized void close() {
+        loaded.clear();
+    }
+
+    /** Forgets every account and deletes all keyfiles. */
+    public synchronized void clear() {
+        loaded.clear();
+        getIndex().clear();
+        sharedPreferencesHelper.remove(ACCOUNT_INDEX_KEY);
+        FileUtil.deleteDirectory(rootDir.getAbsolutePath());
+    }
+
+    private Loaded open(File dir) {
+        try {
+            KeyStore keyStore = new KeyStore(dir.getAbsolutePath(), scryptCalibrator.getN(), scryptCalibrator.getP());
+            if (keyStore.getAccounts().size() == 0) return null;
+            return new Loaded(keyStore, keyStore.getAccounts().get(0));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private LinkedHashMap<String, String> getIndex() {
+        if (index != null) return index;
+        index = new LinkedHashMap<>();
+        String json = (String) sharedPreferencesHelper.getSharedPreference(ACCOUNT_INDEX_KEY, "");
+        if (json.length() == 0) return index;
+        try {
+            JSONArray entries = new JSONArray(json);
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                index.put(entry.getString("address"), entry.getString("keyFile"));
+            }
+        } catch (Exception e) {
+            // a corrupt index is rebuilt from the next imports
+        }
+        return index;
+    }
+
+    private void saveIndex() {
+        JSONArray entries = new JSONArray();
+        try {
+            for (Map.Entry<String, String> entry : getIndex().entrySet()) {
+                entries.put(new JSONObject().put("address", entry.getKey()).put("keyFile", entry.getValue()));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        sharedPreferencesHelper.put(ACCOUNT_INDEX_KEY, entries.toString());
+    }
+
+    private static String readAddress(File keyFile) {
+        try {
+            JSONObject json = new JSONObject(new String(ByteUtil.getFileToByte(keyFile), Charset.forName("UTF-8")));
+            String address = json.getString("address").toLowerCase();
+            return address.startsWith("0x") ? address : "0x" + address;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
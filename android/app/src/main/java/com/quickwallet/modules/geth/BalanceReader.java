@@ -0,0 +1,124 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.utils.HexUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the ETH and ERC-20 balances of many holders straight from the configured node.
+ *
+ * <p>Every (token, holder) pair becomes one {@code balanceOf} inside a Multicall
+ * {@code eth_call}. The pairs are chunked so that no single call exceeds the gas budget, and all
+ * chunks go out together as one JSON-RPC batch, so a whole asset list costs one HTTP request.
+ */
+public class BalanceReader {
+    public static final long DEFAULT_GAS_BUDGET = 10000000;
+
+    /** Upper bound for one {@code balanceOf} including Multicall overhead and cold accesses. */
+    private static final long GAS_PER_CALL = 30000;
+
+    private final JsonRpcClient rpcClient;
+    private final String multicallAddress;
+    private final long gasBudget;
+
+    public BalanceReader(JsonRpcClient rpcClient) {
+        this(rpcClient, Multicall.DEFAULT_ADDRESS, DEFAULT_GAS_BUDGET);
+    }
+
+    public BalanceReader(JsonRpcClient rpcClient, String multicallAddress, long gasBudget) {
+        this.rpcClient = rpcClient;
+        this.multicallAddress = multicallAddress;
+        this.gasBudget = gasBudget;
+    }
+
+    public static class Query {
+        public final String holder;
+        /** Token contract, or {@code null} for the holder's ETH balance. */
+        public final String token;
+
+        public Query(String holder, String token) {
+            this.holder = holder;
+            this.token = token;
+        }
+    }
+
+    public static class Balance {
+        public final String holder;
+        public final String token;
+        /** Balance in the token's smallest unit, or {@code null} if the token call failed. */
+        public final BigInteger balance;
+
+        Balance(Query query, BigInteger balance) {
+            this.holder = query.holder;
+            this.token = query.token;
+            this.balance = balance;
+        }
+    }
+
+    public static class Snapshot {
+        /** Oldest block any of the balances was read at. */
+        public final long blockNumber;
+        public final List<Balance> balances;
+
+        Snapshot(long blockNumber, List<Balance> balances) {
+            this.blockNumber = blockNumber;
+            this.balances = balances;
+        }
+    }
+
+    public Snapshot read(List<Query> queries) throws Exception {
+        int chunkSize = (int) Math.max(1, gasBudget / GAS_PER_CALL);
+
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        for (int from = 0; from < queries.size(); from += chunkSize) {
+            int to = Math.min(queries.size(), from + chunkSize);
+            List<Multicall.Call> calls = new ArrayList<>(to - from);
+            for (Query query : queries.subList(from, to)) {
+                calls.add(toCall(query));
+            }
+            requests.add(ethCall(Multicall.encodeTryBlockAndAggregate(calls)));
+        }
+
+        List<JsonRpcClient.Response> responses = rpcClient.batch(requests);
+
+        long blockNumber = Long.MAX_VALUE;
+        List<Balance> balances = new ArrayList<>(queries.size());
+        for (int chunk = 0; chunk < responses.size(); chunk++) {
+            String hex = (String) responses.get(chunk).getResult();
+            Multicall.Aggregate aggregate = Multicall.decodeTryBlockAndAggregate(HexUtil.decode(hex));
+            blockNumber = Math.min(blockNumber, aggregate.blockNumber);
+
+            int from = chunk * chunkSize;
+            if (aggregate.results.size() != Math.min(chunkSize, queries.size() - from)) {
+                throw new IOException("Multicall returned " + aggregate.results.size() + " results");
+            }
+            for (int i = 0; i < aggregate.results.size(); i++) {
+                balances.add(new Balance(queries.get(from + i), aggregate.results.get(i).getUint256()));
+            }
+        }
+        return new Snapshot(blockNumber == Long.MAX_VALUE ? 0 : blockNumber, balances);
+    }
+
+    private Multicall.Call toCall(Query query) {
+        if (query.token == null) {
+            return new Multicall.Call(multicallAddress, Multicall.getEthBalance(query.holder));
+        }
+        return new Multicall.Call(query.token, Multicall.balanceOf(query.holder));
+    }
+
+    private JsonRpcClient.Request ethCall(byte[] data) throws JSONException {
+        JSONObject call = new JSONObject();
+        call.put("to", multicallAddress);
+        call.put("data", HexUtil.encode(data));
+        call.put("gas", "0x" + Long.toHexString(gasBudget));
+        return new JsonRpcClient.Request("eth_call", new JSONArray().put(call).put("latest"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.RpcRouter;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import geth.EthereumClient;
+import geth.Transaction;
+
+/**
+ * Broadcasts a list of signed transactions with at most {@code concurrency} sends in flight.
+ *
+ * <p>A fixed number of workers pull the next transaction off a shared index, so a batch of
+ * hundreds of transfers neither floods the executor's queue nor goes out one request at a time.
+ * Transactions are picked up in list order, which keeps nonces roughly ordered on the wire.
+ */
+public class BatchBroadcaster {
+
+    public interface Callback {
+        /**
+         * Called once every transaction has been sent or has failed. For each index either
+         * {@code txHashes[i]} or {@code errors[i]} is set.
+         */
+        void onComplete(String[] txHashes, String[] errors);
+    }
+
+    private BatchBroadcaster() { }
+
+    public static void broadcast(
+            final EthereumClient ethClient,
+            final List<Transaction> transactions,
+            Executor executor,
+            int concurrency,
+            final Callback callback
+    ) {
+        final int size = transactions.size();
+        final String[] txHashes = new String[size];
+        final String[] errors = new String[size];
+        if (size == 0) {
+            callback.onComplete(txHashes, errors);
+            return;
+        }
+
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(size);
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = nextIndex.getAndIncrement()) < size) {
+                    Transaction signedTx = transactions.get(index);
+                    try {
+                        ethClient.sendTransaction(RpcRouter.newContext(), signedTx);
+                        txHashes[index] = signedTx.getHash().getHex();
+                    } catch (Exception e) {
+                        errors[index] = String.valueOf(e.getMessage());
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete(txHashes, errors);
+                    }
+                }
+            }
+        };
+
+        int workers = Math.max(1, Math.min(concurrency, size));
+        for (int i = 1; i < workers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // the pool is saturated, the remaining workers will pick up the slack
+                break;
+            }
+        }
+        worker.run();
+    }
+}
@@ -0,0 +1,163 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Slow, normal and fast gas price suggestions, sampled from the node once per block and served
+ * from memory.
+ *
+ * <p>Each sample is one batch of {@code eth_gasPrice} and {@code eth_feeHistory} over the last
+ * {@link #HISTORY_BLOCKS} blocks. With fee history, a suggestion is the next base fee, with
+ * headroom for it to rise, plus the median over those blocks of the 10th, 50th and 90th
+ * percentile priority fee. Nodes or chains without fee history fall back to percentiles of the
+ * last {@link #HISTORY_BLOCKS} {@code eth_gasPrice} samples. Normal never goes below the node's
+ * own {@code eth_gasPrice}, so a transaction sent at it does not sit in the pool underpriced.
+ */
+public class FeeOracle {
+    public static final int HISTORY_BLOCKS = 20;
+
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final BigInteger EIGHT = BigInteger.valueOf(8);
+
+    private final LinkedList<BigInteger> gasPrices = new LinkedList<>();
+    private final Object sampling = new Object();
+    private Fees fees;
+    private long sampledBlock = -1;
+    private boolean feeHistorySupported = true;
+
+    public static class Fees {
+        public final BigInteger slow;
+        public final BigInteger normal;
+        public final BigInteger fast;
+        public final long blockNumber;
+        public final boolean fromFeeHistory;
+
+        Fees(BigInteger slow, BigInteger normal, BigInteger fast, long blockNumber, boolean fromFeeHistory) {
+            this.slow = slow;
+            this.normal = normal;
+            this.fast = fast;
+            this.blockNumber = blockNumber;
+            this.fromFeeHistory = fromFeeHistory;
+        }
+    }
+
+    /** The latest suggestions, or {@code null} before the first sample. */
+    public synchronized Fees get() {
+        return fees;
+    }
+
+    /**
+     * Samples the node for {@code blockNumber}, or returns the suggestions already sampled at
+     * that block. Pass -1 when the head is unknown to always sample.
+     */
+    public Fees sample(JsonRpcClient rpcClient, long blockNumber) throws IOException, JsonRpcException {
+        synchronized (sampling) {
+            boolean askHistory;
+            synchronized (this) {
+                if (fees != null && blockNumber >= 0 && blockNumber <= sampledBlock) return fees;
+                askHistory = feeHistorySupported;
+            }
+
+            List<JsonRpcClient.Request> requests = new ArrayList<>(2);
+            requests.add(new JsonRpcClient.Request("eth_gasPrice", new JSONArray()));
+            if (askHistory) {
+                requests.add(new JsonRpcClient.Request("eth_feeHistory", new JSONArray()
+                        .put("0x" + Integer.toHexString(HISTORY_BLOCKS))
+                        .put("latest")
+                        .put(new JSONArray().put(10).put(50).put(90))));
+            }
+            List<JsonRpcClient.Response> responses = rpcClient.batch(requests);
+            BigInteger gasPrice = JsonRpcClient.quantity(responses.get(0).getResult());
+
+            Fees next = null;
+            if (askHistory) {
+                JsonRpcClient.Response history = responses.get(1);
+                if (history.isError()) {
+                    if (history.getError().getCode() == METHOD_NOT_FOUND) {
+                        synchronized (this) {
+                            feeHistorySupported = false;
+                        }
+                    }
+                } else {
+                    next = fromFeeHistory(history.getResult(), gasPrice, blockNumber);
+                }
+            }
+
+            synchronized (this) {
+                gasPrices.addLast(gasPrice);
+                while (gasPrices.size() > HISTORY_BLOCKS) {
+                    gasPrices.removeFirst();
+                }
+                if (next == null) next = fromGasPrices(gasPrices, gasPrice, blockNumber);
+                fees = next;
+                sampledBlock = blockNumber;
+                return next;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        gasPrices.clear();
+        fees = null;
+        sampledBlock = -1;
+        feeHistorySupported = true;
+    }
+
+    /**
+     * Suggestions from an {@code eth_feeHistory} result, or {@code null} for chains before
+     * London, which report no base fee.
+     */
+    static Fees fromFeeHistory(Object result, BigInteger gasPrice, long blockNumber) throws JsonRpcException {
+        if (!(result instanceof JSONObject)) return null;
+        JSONObject history = (JSONObject) result;
+        JSONArray baseFees = history.optJSONArray("baseFeePerGas");
+        JSONArray rewards = history.optJSONArray("reward");
+        if (baseFees == null || baseFees.length() == 0 || rewards == null || rewards.length() == 0) return null;
+
+        // the last entry is the base fee of the next block
+        BigInteger baseFee = JsonRpcClient.quantity(baseFees.opt(baseFees.length() - 1));
+        if (baseFee.signum() == 0) return null;
+
+        BigInteger[] tips = new BigInteger[3];
+        for (int column = 0; column < 3; column++) {
+            List<BigInteger> values = new ArrayList<>(rewards.length());
+            for (int block = 0; block < rewards.length(); block++) {
+                JSONArray row = rewards.optJSONArray(block);
+                if (row != null && row.length() > column) values.add(JsonRpcClient.quantity(row.opt(column)));
+            }
+            tips[column] = values.isEmpty() ? BigInteger.ZERO : percentile(values, 50);
+        }
+
+        // the base fee can rise by an eighth per block
+        BigInteger slow = baseFee.add(tips[0]);
+        BigInteger normal = baseFee.add(baseFee.divide(EIGHT)).add(tips[1]).max(gasPrice);
+        BigInteger fast = baseFee.add(baseFee.divide(EIGHT).shiftLeft(1)).add(tips[2]).max(normal);
+        return new Fees(slow.min(normal), normal, fast, blockNumber, true);
+    }
+
+    static Fees fromGasPrices(List<BigInteger> samples, BigInteger latest, long blockNumber) {
+        List<BigInteger> values = new ArrayList<>(samples);
+        BigInteger normal = percentile(values, 50).max(latest);
+        BigInteger slow = percentile(values, 10).min(normal);
+        BigInteger fast = percentile(values, 90).max(latest.add(latest.shiftRight(2))).max(normal);
+        return new Fees(slow, normal, fast, blockNumber, false);
+    }
+
+    /** Nearest-rank percentile; sorts {@code values}. */
+    static BigInteger percentile(List<BigInteger> values, int percent) {
+        Collections.sort(values);
+        int rank = (int) Math.ceil(percent / 100.0 * values.size());
+        return values.get(Math.max(0, Math.min(values.size() - 1, rank - 1)));
+    }
+}
@@ -0,0 +1,121 @@
+package com.quickwallet.modules.geth;
+
+import android.os.SystemClock;
+
+import com.quickwallet.utils.HexUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers {@code estimateGas} results for contract calls that keep the same shape, such as
+ * ERC-20 {@code transfer}s to a known token, so repeat sends skip the extra round trip.
+ *
+ * <p>Entries are keyed by (chainId, contract, selector, calldata length), bounded by an LRU and
+ * expire after {@link #DEFAULT_MAX_AGE_BLOCKS} blocks. When no block height has been reported yet
+ * the age is approximated from wall time. The highest estimate seen for a key is kept, since the
+ * same call can cost more for some arguments (e.g. a recipient's first token balance), and the
+ * limit handed out is always the estimate times the safety margin.
+ */
+public class GasEstimateCache {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long DEFAULT_MAX_AGE_BLOCKS = 5760;
+
+    /** Gas limits are sent as twice the estimate, as the live path always did. */
+    private static final long MARGIN_PERCENT = 200;
+    private static final long AVERAGE_BLOCK_TIME = 15000;
+
+    private final int maxEntries;
+    private final long maxAgeBlocks;
+    private final LinkedHashMap<String, Estimate> entries;
+    private long headBlock;
+
+    public GasEstimateCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_BLOCKS);
+    }
+
+    public GasEstimateCache(final int maxEntries, long maxAgeBlocks) {
+        this.maxEntries = maxEntries;
+        this.maxAgeBlocks = maxAgeBlocks;
+        this.entries = new LinkedHashMap<String, Estimate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+                return size() > GasEstimateCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static String key(long chainId, String contract, byte[] data) {
+        int length = data == null ? 0 : data.length;
+        char[] selector = new char[2 * Math.min(4, length)];
+        if (length > 0) HexUtil.encode(data, 0, selector.length / 2, selector, 0);
+        return new StringBuilder().append(chainId).append(':').append(contract.toLowerCase()).append(':')
+                .append(selector).append(':').append(length).toString();
+    }
+
+    public static long withMargin(long estimate) {
+        return estimate * MARGIN_PERCENT / 100;
+    }
+
+    /**
+     * @return the gas limit to use for {@code key}, or 0 when there is no fresh estimate
+     */
+    public long get(String key) {
+        return get(key, SystemClock.elapsedRealtime());
+    }
+
+    synchronized long get(String key, long now) {
+        Estimate entry = entries.get(key);
+        if (entry == null) return 0;
+        if (isExpired(entry, now)) {
+            entries.remove(key);
+            return 0;
+        }
+        return withMargin(entry.estimate);
+    }
+
+    /**
+     * Records a live estimate and returns the gas limit to use for it.
+     */
+    public long put(String key, long estimate) {
+        return put(key, estimate, SystemClock.elapsedRealtime());
+    }
+
+    synchronized long put(String key, long estimate, long now) {
+        Estimate entry = entries.get(key);
+        if (entry == null || isExpired(entry, now)) {
+            entry = new Estimate();
+            entries.put(key, entry);
+        }
+        entry.estimate = Math.max(entry.estimate, estimate);
+        entry.block = headBlock;
+        entry.time = now;
+        return withMargin(entry.estimate);
+    }
+
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /** Reports the latest known block height, which drives expiry. */
+    public synchronized void onNewBlock(long blockNumber) {
+        if (blockNumber > headBlock) headBlock = blockNumber;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private boolean isExpired(Estimate entry, long now) {
+        if (entry.block > 0 && headBlock > 0) {
+            return headBlock - entry.block > maxAgeBlocks;
+        }
+        return now - entry.time > maxAgeBlocks * AVERAGE_BLOCK_TIME;
+    }
+
+    private static class Estimate {
+        long estimate;
+        long block;
+        long time;
+    }
+}
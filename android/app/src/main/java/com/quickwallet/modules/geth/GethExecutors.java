@@ -0,0 +1,99 @@
+package com.quickwallet.modules.geth;
+
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker pools for {@code GethModule}, so that slow calls no longer block React Native's single
+ * native-modules thread or each other.
+ *
+ * <p>The crypto pool runs scrypt and signing. It is kept small because every scrypt run holds
+ * tens of megabytes and competes with the UI for the CPU. The rpc pool runs node round trips,
+ * which mostly wait on the network and can therefore be wider and lower priority. Both queues
+ * are bounded; a full queue rejects the task instead of growing without limit.
+ */
+public class GethExecutors {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final int CRYPTO_THREADS = Math.max(1, Math.min(2, CPU_COUNT - 1));
+    private static final int CRYPTO_QUEUE_SIZE = 16;
+
+    private static final int RPC_THREADS = 4;
+    private static final int RPC_QUEUE_SIZE = 64;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor cryptoExecutor;
+    private final ThreadPoolExecutor rpcExecutor;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public GethExecutors() {
+        cryptoExecutor = newExecutor("geth-crypto", CRYPTO_THREADS, CRYPTO_QUEUE_SIZE, Process.THREAD_PRIORITY_DEFAULT);
+        rpcExecutor = newExecutor("geth-rpc", RPC_THREADS, RPC_QUEUE_SIZE, Process.THREAD_PRIORITY_BACKGROUND);
+        scheduler = new ScheduledThreadPoolExecutor(1, new PriorityThreadFactory("geth-scheduler", Process.THREAD_PRIORITY_BACKGROUND));
+    }
+
+    /** Pool for CPU-bound work: key decryption and signing. */
+    public Executor crypto() {
+        return cryptoExecutor;
+    }
+
+    /** Pool for I/O-bound work: nonce lookups, gas estimates and broadcasts. */
+    public Executor rpc() {
+        return rpcExecutor;
+    }
+
+    /** Single thread for delayed and periodic background work such as rebroadcasts. */
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    public void shutdown() {
+        cryptoExecutor.shutdownNow();
+        rpcExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads, int queueSize, int priority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new PriorityThreadFactory(name, priority),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class PriorityThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+        private final int priority;
+
+        PriorityThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(priority);
+                    runnable.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.utils.Hash;
+import com.quickwallet.utils.HexUtil;
+import com.quickwallet.utils.Secp256k1;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * BIP-39 seed and BIP-32/BIP-44 key derivation for the accounts of one mnemonic, on the path
+ * {@code m/44'/60'/0'/0/i} that Ethereum wallets use.
+ *
+ * <p>The seed and the hardened part of the path are derived once when the deriver is created.
+ * Every account after that only costs one HMAC and one public key multiplication, and
+ * {@link #addresses} spreads those over a worker pool in small batches.
+ */
+public class HdKeyDeriver {
+    public static final int HARDENED = 0x80000000;
+
+    /** {@code m/44'/60'/0'/0}, the external chain of the first Ethereum account. */
+    private static final int[] ETHEREUM_CHAIN = {44 | HARDENED, 60 | HARDENED, HARDENED, 0};
+
+    private static final int SEED_ITERATIONS = 2048;
+    private static final int BATCH_SIZE = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] chainKey;
+    private final byte[] chainCode;
+    private final byte[] chainPublicKey;
+
+    private HdKeyDeriver(byte[] chainKey, byte[] chainCode) {
+        this.chainKey = chainKey;
+        this.chainCode = chainCode;
+        this.chainPublicKey = Secp256k1.compressedPublicKey(chainKey);
+    }
+
+    public static HdKeyDeriver fromMnemonic(String mnemonic, String passphrase) throws GeneralSecurityException {
+        byte[] seed = seed(mnemonic, passphrase);
+        byte[][] key = master(seed);
+        Arrays.fill(seed, (byte) 0);
+        for (int index : ETHEREUM_CHAIN) {
+            byte[][] next = child(key[0], key[1], null, index);
+            Arrays.fill(key[0], (byte) 0);
+            key = next;
+        }
+        return new HdKeyDeriver(key[0], key[1]);
+    }
+
+    /** BIP-39 seed: PBKDF2-HMAC-SHA512 over the normalized mnemonic, 2048 rounds. */
+    public static byte[] seed(String mnemonic, String passphrase) throws GeneralSecurityException {
+        byte[] password = Normalizer.normalize(mnemonic.trim(), Normalizer.Form.NFKD).getBytes(UTF_8);
+        String salt = "mnemonic" + (passphrase == null ? "" : passphrase);
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(new SecretKeySpec(password, "HmacSHA512"));
+        mac.update(Normalizer.normalize(salt, Normalizer.Form.NFKD).getBytes(UTF_8));
+        byte[] u = mac.doFinal(new byte[]{0, 0, 0, 1});
+        byte[] result = u.clone();
+        for (int i = 1; i < SEED_ITERATIONS; i++) {
+            u = mac.doFinal(u);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        Arrays.fill(password, (byte) 0);
+        return result;
+    }
+
+    /** @return {private key, chain code} of the BIP-32 master node of {@code seed} */
+    static byte[][] master(byte[] seed) throws GeneralSecurityException {
+        byte[] i = hmacSha512("Bitcoin seed".getBytes(UTF_8), seed);
+        return new byte[][]{Arrays.copyOfRange(i, 0, 32), Arrays.copyOfRange(i, 32, 64)};
+    }
+
+    /**
+     * BIP-32 private child derivation. {@code publicKey} may be passed for non-hardened children
+     * to skip recomputing the parent's public key.
+     *
+     * @return {private key, chain code} of the child
+     */
+    static byte[][] child(byte[] key, byte[] chainCode, byte[] publicKey, int index) throws GeneralSecurityException {
+        byte[] data = new byte[37];
+        if ((index & HARDENED) != 0) {
+            System.arraycopy(key, 0, data, 1, 32);
+        } else {
+            byte[] parent = publicKey != null ? publicKey : Secp256k1.compressedPublicKey(key);
+            System.arraycopy(parent, 0, data, 0, 33);
+        }
+        data[33] = (byte) (index >>> 24);
+        data[34] = (byte) (index >>> 16);
+        data[35] = (byte) (index >>> 8);
+        data[36] = (byte) index;
+
+        byte[] i = hmacSha512(chainCode, data);
+        BigInteger tweak = new BigInteger(1, Arrays.copyOfRange(i, 0, 32));
+        BigInteger childKey = tweak.add(new BigInteger(1, key)).mod(Secp256k1.N);
+        if (tweak.compareTo(Secp256k1.N) >= 0 || childKey.signum() == 0) {
+            // probability below 2^-127; BIP-32 says to skip to the next index
+            throw new GeneralSecurityException("Invalid child key at index " + index);
+        }
+        return new byte[][]{toBytes32(childKey), Arrays.copyOfRange(i, 32, 64)};
+    }
+
+    /** Private key of account {@code index}, i.e. {@code m/44'/60'/0'/0/index}. */
+    public byte[] privateKey(int index) throws GeneralSecurityException {
+        if (index < 0) {
+            throw new IllegalArgumentException("Account index must not be negative");
+        }
+        return child(chainKey, chainCode, chainPublicKey, index)[0];
+    }
+
+    public String address(int index) throws GeneralSecurityException {
+        byte[] privateKey = privateKey(index);
+        try {
+            return address(privateKey);
+        } finally {
+            Arrays.fill(privateKey, (byte) 0);
+        }
+    }
+
+    /** Lower-case hex address of {@code privateKey}. */
+    public static String address(byte[] privateKey) {
+        byte[] publicKey = Secp256k1.publicKey(privateKey);
+        byte[] hash = Hash.keccak256(publicKey, 1, 64);
+        return HexUtil.encode(Arrays.copyOfRange(hash, 12, 32));
+    }
+
+    /**
+     * Derives the addresses of accounts {@code start} to {@code start + count - 1}. Batches are
+     * claimed from a shared counter by the calling thread and up to {@code parallelism - 1}
+     * workers on {@code executor}; the caller never waits on work that has not started, so this
+     * is safe to call from a thread of {@code executor} itself.
+     */
+    public String[] addresses(final int start, final int count, Executor executor, int parallelism) throws GeneralSecurityException {
+        final String[] addresses = new String[count];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicReference<GeneralSecurityException> failure = new AtomicReference<>();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int from;
+                while ((from = next.getAndAdd(BATCH_SIZE)) < count) {
+                    int to = Math.min(count, from + BATCH_SIZE);
+                    for (int i = from; i < to; i++) {
+                        try {
+                            addresses[i] = address(start + i);
+                        } catch (GeneralSecurityException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }
+            }
+        };
+
+        int workers = Math.min(parallelism, (count + BATCH_SIZE - 1) / BATCH_SIZE);
+        for (int i = 1; i < workers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException("Interrupted while deriving addresses");
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return addresses;
+    }
+
+    /** Overwrites the key material held by this deriver. */
+    public void destroy() {
+        Arrays.fill(chainKey, (byte) 0);
+        Arrays.fill(chainCode, (byte) 0);
+    }
+
+    private static byte[] hmacSha512(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(new SecretKeySpec(key, "HmacSHA512"));
+        return mac.doFinal(data);
+    }
+
+    private static byte[] toBytes32(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, out, 32 - length, length);
+        return out;
+    }
+}
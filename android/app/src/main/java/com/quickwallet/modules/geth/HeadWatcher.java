@@ -0,0 +1,418 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.RpcRouter;
+
+import org.json.JSONArray;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import geth.EthereumClient;
+import geth.Geth;
+import geth.Header;
+import geth.NewHeadHandler;
+import geth.Subscription;
+
+/**
+ * Tells listeners about new blocks on the configured node.
+ *
+ * <p>WebSocket endpoints push heads through geth's {@code subscribeNewHead}. HTTP endpoints, and
+ * WebSocket ones whose subscription broke, are polled with {@code eth_blockNumber} at the pace
+ * the chain has been producing blocks: one poll when the next block is expected, then
+ * increasingly sparse ones while it is late. The watcher only runs while it is resumed and has
+ * listeners.
+ *
+ * <p>Each listener gets its blocks in order on the dispatch executor, one call at a time. A
+ * listener that is still busy when more blocks arrive is called once more with the latest. The
+ * dispatch executor also dials WebSocket endpoints, so no caller waits on a slow node.
+ */
+public class HeadWatcher {
+    public static final long MIN_POLL_INTERVAL = 1000;
+    public static final long MAX_POLL_INTERVAL = 30 * 1000;
+    public static final long DEFAULT_BLOCK_TIME = 15 * 1000;
+    public static final long RESUBSCRIBE_DELAY = 60 * 1000;
+
+    private static final int HEAD_BUFFER = 16;
+
+    public interface Listener {
+        void onNewBlock(long blockNumber);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor dispatcher;
+    private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+
+    private String url;
+    private JsonRpcClient rpcClient;
+    private EthereumClient nodeClient;
+    private int endpoint;
+    private boolean dialing;
+    private boolean resumed = true;
+    private boolean running;
+    private int generation;
+    private Subscription subscription;
+    private ScheduledFuture<?> poll;
+
+    private long lastBlock = -1;
+    private long lastBlockAt;
+    private long blockTime = DEFAULT_BLOCK_TIME;
+    private int misses;
+
+    public HeadWatcher(ScheduledExecutorService scheduler, Executor dispatcher) {
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        deliveries.add(new Delivery(listener));
+        update();
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (Delivery delivery : deliveries) {
+            if (delivery.listener == listener) deliveries.remove(delivery);
+        }
+        update();
+    }
+
+    /**
+     * Points the watcher at {@code url}. {@code rpcClient} serves polling on HTTP endpoints and
+     * may be null for WebSocket ones, which share one geth client for subscribing and polling.
+     * That client is dialled on the dispatch executor once the watcher is wanted.
+     */
+    public synchronized void setEndpoint(String url, JsonRpcClient rpcClient) {
+        if (url != null && url.equals(this.url)) return;
+        stop();
+        this.url = url;
+        this.rpcClient = rpcClient;
+        nodeClient = null;
+        endpoint++;
+        lastBlock = -1;
+        blockTime = DEFAULT_BLOCK_TIME;
+        update();
+    }
+
+    public synchronized void resume() {
+        resumed = true;
+        update();
+    }
+
+    public synchronized void pause() {
+        resumed = false;
+        update();
+    }
+
+    public synchronized long getLastBlock() {
+        return lastBlock;
+    }
+
+    /** Average time between blocks as observed so far. */
+    public synchronized long getBlockTime() {
+        return blockTime;
+    }
+
+    private void update() {
+        boolean wanted = resumed && url != null && url.length() > 0 && !deliveries.isEmpty();
+        if (wanted && !running) {
+            if (nodeClient == null && (rpcClient == null || isWebSocket(url))) {
+                dial();
+                return;
+            }
+            running = true;
+            if (isWebSocket(url)) {
+                scheduleSubscribe(0);
+            } else {
+                schedulePoll(0);
+            }
+        } else if (!wanted && running) {
+            stop();
+        }
+    }
+
+    /** Opens the geth client of the current endpoint off the caller's thread, then starts watching. */
+    private void dial() {
+        if (dialing) return;
+        dialing = true;
+        final int dialled = endpoint;
+        final String target = url;
+        try {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    EthereumClient client = null;
+                    try {
+                        client = new EthereumClient(target);
+                    } catch (Exception e) {
+                        // dialled again below
+                    }
+                    onDialled(dialled, client);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dialing = false;
+        }
+    }
+
+    private synchronized void onDialled(final int dialled, EthereumClient client) {
+        dialing = false;
+        if (dialled == endpoint && client != null) {
+            nodeClient = client;
+        } else if (dialled == endpoint) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (HeadWatcher.this) {
+                            if (dialled == endpoint) update();
+                        }
+                    }
+                }, MAX_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler is shutting down
+            }
+            return;
+        }
+        // starts watching, or dials the endpoint that replaced this one
+        update();
+    }
+
+    private void stop() {
+        running = false;
+        generation++;
+        if (poll != null) {
+            poll.cancel(false);
+            poll = null;
+        }
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+    }
+
+    private void scheduleSubscribe(long delay) {
+        final int current = generation;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    subscribe(current);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            running = false;
+        }
+    }
+
+    private void subscribe(final int current) {
+        synchronized (this) {
+            if (current != generation) return;
+        }
+        Subscription opened;
+        try {
+            opened = nodeClient(current).subscribeNewHead(Geth.newContext(), new NewHeadHandler() {
+                @Override
+                public void onNewHead(Header header) {
+                    synchronized (HeadWatcher.this) {
+                        if (current != generation) return;
+                    }
+                    publish(header.getNumber());
+                }
+
+                @Override
+                public void onError(String failure) {
+                    onSubscriptionLost(current);
+                }
+            }, HEAD_BUFFER);
+        } catch (Exception e) {
+            onSubscriptionLost(current);
+            return;
+        }
+        synchronized (this) {
+            if (current != generation) {
+                opened.unsubscribe();
+                return;
+            }
+            subscription = opened;
+        }
+    }
+
+    /** Polls until a fresh subscription can be opened. */
+    private synchronized void onSubscriptionLost(int current) {
+        if (current != generation) return;
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+        generation++;
+        schedulePoll(0);
+        final int polling = generation;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (HeadWatcher.this) {
+                        if (polling != generation) return;
+                        generation++;
+                        if (poll != null) {
+                            poll.cancel(false);
+                            poll = null;
+                        }
+                        scheduleSubscribe(0);
+                    }
+                }
+            }, RESUBSCRIBE_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler is shutting down
+        }
+    }
+
+    private synchronized void schedulePoll(long delay) {
+        final int current = generation;
+        try {
+            poll = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    poll(current);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            running = false;
+        }
+    }
+
+    private void poll(int current) {
+        String target;
+        JsonRpcClient client;
+        synchronized (this) {
+            if (current != generation) return;
+            target = url;
+            client = rpcClient;
+        }
+        long delay;
+        try {
+            if (client == null || isWebSocket(target)) {
+                publish(nodeClient(current).getHeaderByNumber(RpcRouter.newContext(), -1).getNumber());
+            } else {
+                publish(fetchBlockNumber(client));
+            }
+            synchronized (this) {
+                delay = pollDelay(blockTime, lastBlockAt, misses, System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                delay = Math.min(MAX_POLL_INTERVAL, MIN_POLL_INTERVAL << Math.min(++misses, 5));
+            }
+        }
+        synchronized (this) {
+            if (current == generation) schedulePoll(delay);
+        }
+    }
+
+    /** The geth client of the current endpoint, shared by subscribing and polling. */
+    private synchronized EthereumClient nodeClient(int current) {
+        if (current != generation || nodeClient == null) throw new IllegalStateException("Endpoint changed");
+        return nodeClient;
+    }
+
+    private static long fetchBlockNumber(JsonRpcClient client) throws Exception {
+        return JsonRpcClient.longQuantity(client.call("eth_blockNumber", new JSONArray()));
+    }
+
+    private void publish(long blockNumber) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (blockNumber <= lastBlock) {
+                misses++;
+                return;
+            }
+            if (lastBlock >= 0 && lastBlockAt > 0) {
+                long observed = (now - lastBlockAt) / (blockNumber - lastBlock);
+                blockTime = averageBlockTime(blockTime, observed);
+            }
+            lastBlock = blockNumber;
+            lastBlockAt = now;
+            misses = 0;
+        }
+        for (Delivery delivery : deliveries) {
+            if (delivery.offer(blockNumber)) {
+                try {
+                    dispatcher.execute(delivery);
+                } catch (RejectedExecutionException e) {
+                    delivery.cancel();
+                }
+            }
+        }
+    }
+
+    /** Moving average that follows a changing block rate within a few blocks. */
+    static long averageBlockTime(long average, long observed) {
+        observed = Math.max(MIN_POLL_INTERVAL, Math.min(MAX_POLL_INTERVAL, observed));
+        return (3 * average + observed) / 4;
+    }
+
+    /**
+     * Waits until the next block is due, then polls at a quarter of the block time, doubling
+     * the gap with every poll that finds nothing new.
+     */
+    static long pollDelay(long blockTime, long lastBlockAt, int misses, long now) {
+        if (misses == 0 && lastBlockAt > 0) {
+            long due = lastBlockAt + blockTime - now;
+            if (due > MIN_POLL_INTERVAL) return Math.min(MAX_POLL_INTERVAL, due);
+        }
+        long base = Math.max(MIN_POLL_INTERVAL, blockTime / 4);
+        return Math.min(MAX_POLL_INTERVAL, base << Math.min(Math.max(misses - 1, 0), 5));
+    }
+
+    private static boolean isWebSocket(String url) {
+        return url != null && (url.startsWith("ws://") || url.startsWith("wss://"));
+    }
+
+    private static class Delivery implements Runnable {
+        final Listener listener;
+        private long blockNumber;
+        private boolean scheduled;
+
+        Delivery(Listener listener) {
+            this.listener = listener;
+        }
+
+        /** @return whether the delivery needs to be scheduled to pick up {@code blockNumber} */
+        synchronized boolean offer(long blockNumber) {
+            this.blockNumber = blockNumber;
+            if (scheduled) return false;
+            scheduled = true;
+            return true;
+        }
+
+        synchronized void cancel() {
+            scheduled = false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long current;
+                synchronized (this) {
+                    current = blockNumber;
+                }
+                try {
+                    listener.onNewBlock(current);
+                } catch (RuntimeException e) {
+                    // one failing consumer must not starve the others
+                }
+                synchronized (this) {
+                    if (blockNumber == current) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
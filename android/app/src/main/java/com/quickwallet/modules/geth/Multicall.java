@@ -0,0 +1,181 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.utils.HexUtil;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ABI encoding for Multicall3's {@code tryBlockAndAggregate(bool,(address,bytes)[])}, which runs
+ * many read-only calls inside a single {@code eth_call} and reports the block they were read at.
+ *
+ * <p>Only the handful of static shapes the wallet needs are supported, so the encoder is written
+ * out by hand instead of pulling in a general ABI library.
+ */
+public class Multicall {
+    /** Multicall3 is deployed at the same address on mainnet and the public testnets. */
+    public static final String DEFAULT_ADDRESS = "0xcA11bde05977b3631167028862bE2a173976CA11";
+
+    private static final byte[] TRY_BLOCK_AND_AGGREGATE = {(byte) 0x39, (byte) 0x95, (byte) 0x42, (byte) 0xe9};
+    private static final byte[] GET_ETH_BALANCE = {(byte) 0x4d, (byte) 0x23, (byte) 0x01, (byte) 0xcc};
+    private static final byte[] BALANCE_OF = {(byte) 0x70, (byte) 0xa0, (byte) 0x82, (byte) 0x31};
+
+    private static final int WORD = 32;
+
+    private Multicall() { }
+
+    public static class Call {
+        public final String target;
+        public final byte[] data;
+
+        public Call(String target, byte[] data) {
+            this.target = target;
+            this.data = data;
+        }
+    }
+
+    public static class Result {
+        public final boolean success;
+        public final byte[] returnData;
+
+        public Result(boolean success, byte[] returnData) {
+            this.success = success;
+            this.returnData = returnData;
+        }
+
+        /** Decodes a single {@code uint256} return value, or {@code null} if the call failed. */
+        public BigInteger getUint256() {
+            if (!success || returnData == null || returnData.length < WORD) return null;
+            return readUint(returnData, 0);
+        }
+    }
+
+    public static class Aggregate {
+        public final long blockNumber;
+        public final List<Result> results;
+
+        public Aggregate(long blockNumber, List<Result> results) {
+            this.blockNumber = blockNumber;
+            this.results = results;
+        }
+    }
+
+    /** Calldata for ERC-20 {@code balanceOf(holder)}. */
+    public static byte[] balanceOf(String holder) {
+        return withAddressArgument(BALANCE_OF, holder);
+    }
+
+    /** Calldata for Multicall3's own {@code getEthBalance(holder)}. */
+    public static byte[] getEthBalance(String holder) {
+        return withAddressArgument(GET_ETH_BALANCE, holder);
+    }
+
+    /**
+     * Encodes {@code tryBlockAndAggregate(false, calls)}, so a failing call is reported in its
+     * result instead of reverting the whole batch.
+     */
+    public static byte[] encodeTryBlockAndAggregate(List<Call> calls) {
+        int count = calls.size();
+        int[] tupleSizes = new int[count];
+        int tuplesSize = 0;
+        for (int i = 0; i < count; i++) {
+            tupleSizes[i] = 3 * WORD + padded(calls.get(i).data.length);
+            tuplesSize += tupleSizes[i];
+        }
+
+        byte[] out = new byte[4 + 3 * WORD + count * WORD + tuplesSize];
+        System.arraycopy(TRY_BLOCK_AND_AGGREGATE, 0, out, 0, 4);
+        int pos = 4;
+        pos = writeUint(out, pos, 0);
+        pos = writeUint(out, pos, 2 * WORD);
+        pos = writeUint(out, pos, count);
+
+        int offset = count * WORD;
+        for (int i = 0; i < count; i++) {
+            pos = writeUint(out, pos, offset);
+            offset += tupleSizes[i];
+        }
+
+        for (Call call : calls) {
+            writeAddress(out, pos, call.target);
+            pos += WORD;
+            pos = writeUint(out, pos, 2 * WORD);
+            pos = writeUint(out, pos, call.data.length);
+            System.arraycopy(call.data, 0, out, pos, call.data.length);
+            pos += padded(call.data.length);
+        }
+        return out;
+    }
+
+    /** Decodes the {@code (uint256 blockNumber, bytes32 blockHash, (bool,bytes)[])} return value. */
+    public static Aggregate decodeTryBlockAndAggregate(byte[] output) {
+        long blockNumber = readOffset(output, 0);
+        int arrayStart = (int) readOffset(output, 2 * WORD);
+        int count = (int) readOffset(output, arrayStart);
+        int base = arrayStart + WORD;
+
+        List<Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int tuple = base + (int) readOffset(output, base + i * WORD);
+            boolean success = readOffset(output, tuple) != 0;
+            int dataStart = tuple + (int) readOffset(output, tuple + WORD);
+            int length = (int) readOffset(output, dataStart);
+            if (dataStart + WORD + length > output.length) {
+                throw new IllegalArgumentException("Multicall result out of bounds");
+            }
+            byte[] returnData = new byte[length];
+            System.arraycopy(output, dataStart + WORD, returnData, 0, length);
+            results.add(new Result(success, returnData));
+        }
+        return new Aggregate(blockNumber, results);
+    }
+
+    private static byte[] withAddressArgument(byte[] selector, String address) {
+        byte[] out = new byte[4 + WORD];
+        System.arraycopy(selector, 0, out, 0, 4);
+        writeAddress(out, 4, address);
+        return out;
+    }
+
+    private static void writeAddress(byte[] out, int pos, String address) {
+        if (HexUtil.decodedLength(address) != 20) {
+            throw new IllegalArgumentException("Invalid address: " + address);
+        }
+        HexUtil.decode(address, out, pos + WORD - 20);
+    }
+
+    private static int writeUint(byte[] out, int pos, long value) {
+        for (int i = 0; i < 8; i++) {
+            out[pos + WORD - 1 - i] = (byte) (value >>> (8 * i));
+        }
+        return pos + WORD;
+    }
+
+    private static BigInteger readUint(byte[] data, int pos) {
+        byte[] word = new byte[WORD];
+        System.arraycopy(data, pos, word, 0, WORD);
+        return new BigInteger(1, word);
+    }
+
+    /** Reads a word that must fit in an offset, length or block number. */
+    private static long readOffset(byte[] data, int pos) {
+        if (pos < 0 || pos + WORD > data.length) {
+            throw new IllegalArgumentException("Multicall result out of bounds");
+        }
+        for (int i = 0; i < WORD - 8; i++) {
+            if (data[pos + i] != 0) {
+                throw new IllegalArgumentException("Multicall word out of range");
+            }
+        }
+        long value = 0;
+        for (int i = WORD - 8; i < WORD; i++) {
+            value = (value << 8) | (data[pos + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int padded(int length) {
+        return (length + WORD - 1) / WORD * WORD;
+    }
+}
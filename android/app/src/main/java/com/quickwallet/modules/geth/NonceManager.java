@@ -0,0 +1,137 @@
+package com.quickwallet.modules.geth;
+
+import android.os.SystemClock;
+
+import com.quickwallet.modules.geth.rpc.RpcRouter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import geth.Address;
+import geth.EthereumClient;
+
+/**
+ * Hands out transaction nonces per (chainId, address) from memory.
+ *
+ * <p>The first allocation for an address is seeded from the node's pending nonce; after that
+ * nonces are handed out sequentially without a round trip, so back-to-back sends no longer wait
+ * on {@code getNonceAt} or collide on the same value. The local counter is thrown away and
+ * re-read from the node after a failed send, or when the address has been idle for longer than
+ * the idle timeout, since transactions sent from elsewhere may have moved the nonce meanwhile.
+ */
+public class NonceManager {
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile TxOutbox outbox;
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Transactions waiting in {@code outbox} are unknown to the node, so a resync never goes
+     * below the nonce after the last queued one.
+     */
+    public void setOutbox(TxOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Reserves the next nonce for {@code address}. Only the first call, and calls after a failure
+     * or an idle period, ask the node.
+     */
+    public long allocate(EthereumClient ethClient, long chainId, String address) throws Exception {
+        return allocate(ethClient, chainId, address, 1);
+    }
+
+    /**
+     * Reserves {@code count} consecutive nonces for {@code address} and returns the first one.
+     */
+    public long allocate(final EthereumClient ethClient, long chainId, final String address, int count) throws Exception {
+        return allocate(chainId, address, count, SystemClock.elapsedRealtime(), new PendingNonce() {
+            @Override
+            public long read() throws Exception {
+                return ethClient.getPendingNonceAt(RpcRouter.newContext(), new Address(address));
+            }
+        });
+    }
+
+    long allocate(long chainId, String address, int count, long now, PendingNonce node) throws Exception {
+        Entry entry = getEntry(chainId, address);
+        synchronized (entry) {
+            if (entry.stale || now - entry.lastUsed > idleTimeout) {
+                long next = node.read();
+                TxOutbox queued = outbox;
+                entry.next = queued == null ? next : Math.max(next, queued.nextNonce(chainId, address));
+                entry.stale = false;
+            }
+            entry.lastUsed = now;
+            long first = entry.next;
+            entry.next += count;
+            return first;
+        }
+    }
+
+    /**
+     * Seeds the counter of {@code address} with a pending nonce that was read elsewhere, e.g.
+     * prefetched for a prepared transfer, so the next allocation needs no round trip. Nothing
+     * is reserved, and a counter that is fresh is left alone.
+     */
+    public void prime(long chainId, String address, long pendingNonce) {
+        prime(chainId, address, pendingNonce, SystemClock.elapsedRealtime());
+    }
+
+    void prime(long chainId, String address, long pendingNonce, long now) {
+        Entry entry = getEntry(chainId, address);
+        synchronized (entry) {
+            if (!entry.stale && now - entry.lastUsed <= idleTimeout) return;
+            TxOutbox queued = outbox;
+            entry.next = queued == null ? pendingNonce : Math.max(pendingNonce, queued.nextNonce(chainId, address));
+            entry.stale = false;
+            entry.lastUsed = now;
+        }
+    }
+
+    /**
+     * Marks the counter of {@code address} as unreliable after a failed sign or broadcast, so the
+     * next allocation resyncs with the node instead of leaving a nonce gap.
+     */
+    public void invalidate(long chainId, String address) {
+        Entry entry = entries.get(key(chainId, address));
+        if (entry == null) return;
+        synchronized (entry) {
+            entry.stale = true;
+        }
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    private Entry getEntry(long chainId, String address) {
+        String key = key(chainId, address);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) entry = created;
+        }
+        return entry;
+    }
+
+    private static String key(long chainId, String address) {
+        return chainId + ":" + address.toLowerCase();
+    }
+
+    /** The node's pending nonce of an address, read only when a counter resyncs. */
+    interface PendingNonce {
+        long read() throws Exception;
+    }
+
+    private static class Entry {
+        long next;
+        long lastUsed;
+        boolean stale = true;
+    }
+}
@@ -0,0 +1,136 @@
+package com.quickwallet.modules.geth;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory ETH and token balances of the tracked addresses, each stamped with the block it was
+ * read at.
+ *
+ * <p>Reads are answered from memory. {@link #refresh} re-reads only the holdings that are older
+ * than the latest known block, all of them through one {@link BalanceReader} call, so the node is
+ * asked once per block however often the balances are displayed.
+ */
+public class PortfolioStore {
+
+    public static class Holding {
+        public final String holder;
+        /** Token contract, or {@code null} for ETH. */
+        public final String token;
+        /** Balance in the token's smallest unit, or {@code null} until it has been read. */
+        public final BigInteger balance;
+        /** Block the balance was read at, or -1 until it has been read. */
+        public final long blockNumber;
+
+        Holding(String holder, String token, BigInteger balance, long blockNumber) {
+            this.holder = holder;
+            this.token = token;
+            this.balance = balance;
+            this.blockNumber = blockNumber;
+        }
+    }
+
+    private final Map<String, Holding> holdings = new LinkedHashMap<>();
+    private final Object refreshLock = new Object();
+    private long headBlock = -1;
+
+    /** Reports the latest known block height; every holding read before it becomes stale. */
+    public synchronized void onNewBlock(long blockNumber) {
+        if (blockNumber > headBlock) headBlock = blockNumber;
+    }
+
+    /** Starts keeping the balances of {@code queries}. Already tracked ones keep their values. */
+    public synchronized void track(List<BalanceReader.Query> queries) {
+        for (BalanceReader.Query query : queries) {
+            String key = key(query.holder, query.token);
+            if (!holdings.containsKey(key)) {
+                holdings.put(key, new Holding(normalize(query.holder), normalize(query.token), null, -1));
+            }
+        }
+    }
+
+    /** Whether every one of {@code queries} has been read at least once. */
+    public synchronized boolean isLoaded(List<BalanceReader.Query> queries) {
+        for (BalanceReader.Query query : queries) {
+            Holding holding = holdings.get(key(query.holder, query.token));
+            if (holding == null || holding.blockNumber < 0) return false;
+        }
+        return true;
+    }
+
+    public synchronized boolean isStale() {
+        for (Holding holding : holdings.values()) {
+            if (isStale(holding)) return true;
+        }
+        return false;
+    }
+
+    /** The holdings of {@code queries} in order; untracked ones come back unread. */
+    public synchronized List<Holding> get(List<BalanceReader.Query> queries) {
+        List<Holding> list = new ArrayList<>(queries.size());
+        for (BalanceReader.Query query : queries) {
+            Holding holding = holdings.get(key(query.holder, query.token));
+            list.add(holding != null ? holding : new Holding(normalize(query.holder), normalize(query.token), null, -1));
+        }
+        return list;
+    }
+
+    public synchronized void clear() {
+        holdings.clear();
+        headBlock = -1;
+    }
+
+    /**
+     * Re-reads every stale holding. Only one refresh runs at a time; a caller that had to wait
+     * usually finds nothing left to read.
+     *
+     * @return the holdings whose balance changed
+     */
+    public List<Holding> refresh(BalanceReader reader) throws Exception {
+        synchronized (refreshLock) {
+            List<BalanceReader.Query> stale = new ArrayList<>();
+            synchronized (this) {
+                for (Holding holding : holdings.values()) {
+                    if (isStale(holding)) {
+                        stale.add(new BalanceReader.Query(holding.holder, holding.token));
+                    }
+                }
+            }
+            List<Holding> changed = new ArrayList<>();
+            if (stale.isEmpty()) return changed;
+
+            BalanceReader.Snapshot snapshot = reader.read(stale);
+            synchronized (this) {
+                onNewBlock(snapshot.blockNumber);
+                for (BalanceReader.Balance balance : snapshot.balances) {
+                    String key = key(balance.holder, balance.token);
+                    Holding previous = holdings.get(key);
+                    // untracked meanwhile, or the token call failed: keep what we have, still stale
+                    if (previous == null || balance.balance == null) continue;
+                    Holding holding = new Holding(previous.holder, previous.token, balance.balance, snapshot.blockNumber);
+                    holdings.put(key, holding);
+                    if (!balance.balance.equals(previous.balance)) {
+                        changed.add(holding);
+                    }
+                }
+            }
+            return changed;
+        }
+    }
+
+    private boolean isStale(Holding holding) {
+        return holding.blockNumber < 0 || holding.blockNumber < headBlock;
+    }
+
+    private static String key(String holder, String token) {
+        return normalize(holder) + ":" + (token == null ? "" : normalize(token));
+    }
+
+    private static String normalize(String address) {
+        return address == null || address.length() == 0 ? null : address.toLowerCase(Locale.US);
+    }
+}
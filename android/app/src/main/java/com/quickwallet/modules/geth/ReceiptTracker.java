@@ -0,0 +1,226 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Follows broadcast transactions until they are mined or replaced.
+ *
+ * <p>{@link #check} is meant to run once per block: it asks for the receipt of every pending
+ * hash, plus one {@code eth_getTransactionCount} per sender, in a single JSON-RPC batch. A
+ * transaction whose nonce has been used by something else is reported dropped once that has been
+ * seen on {@link #DROP_CHECKS} consecutive blocks, so a receipt that lags the nonce by a block
+ * is not mistaken for a replacement. Replacements share the nonce of the transaction they
+ * replace: as soon as one of them has a receipt, the others are reported dropped with
+ * {@link Pending#getReplacedBy()} naming the one that was mined.
+ */
+public class ReceiptTracker {
+    public static final int DROP_CHECKS = 2;
+
+    public interface Listener {
+        void onConfirmed(Pending tx, JSONObject receipt);
+
+        /** The transaction was mined but reverted. */
+        void onFailed(Pending tx, JSONObject receipt);
+
+        /** The nonce was mined by a different transaction, e.g. a replacement. */
+        void onDropped(Pending tx);
+    }
+
+    public static class Pending {
+        public final String hash;
+        public final String from;
+        public final long chainId;
+        public final long nonce;
+        /** Hash of the first transaction of this nonce when this one is a replacement, else {@code null}. */
+        public final String replaces;
+        int spentChecks;
+        String replacedBy;
+
+        public Pending(String hash, String from, long chainId, long nonce) {
+            this(hash, from, chainId, nonce, null);
+        }
+
+        public Pending(String hash, String from, long chainId, long nonce, String replaces) {
+            this.hash = hash.toLowerCase(Locale.US);
+            this.from = from.toLowerCase(Locale.US);
+            this.chainId = chainId;
+            this.nonce = nonce;
+            this.replaces = replaces == null ? null : replaces.toLowerCase(Locale.US);
+        }
+
+        /** Hash of the transaction mined in place of this dropped one, if it was tracked too. */
+        public String getReplacedBy() {
+            return replacedBy;
+        }
+    }
+
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private long checkedBlock = -1;
+
+    public synchronized void track(Pending tx) {
+        if (!pending.containsKey(tx.hash)) {
+            pending.put(tx.hash, tx);
+        }
+    }
+
+    public synchronized void untrack(String hash) {
+        pending.remove(hash.toLowerCase(Locale.US));
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        checkedBlock = -1;
+    }
+
+    /**
+     * Looks up the receipts of {@code chainId}'s pending transactions as of {@code blockNumber}
+     * and reports the settled ones to {@code listener}. Does nothing if that block has already
+     * been checked.
+     *
+     * @return the number of transactions that settled
+     */
+    public int check(JsonRpcClient rpcClient, long chainId, long blockNumber, Listener listener) throws IOException {
+        List<Pending> txs = new ArrayList<>();
+        Map<String, Integer> senders = new LinkedHashMap<>();
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        synchronized (this) {
+            if (blockNumber <= checkedBlock) return 0;
+            for (Pending tx : pending.values()) {
+                if (tx.chainId != chainId) continue;
+                txs.add(tx);
+                if (!senders.containsKey(tx.from)) {
+                    senders.put(tx.from, -1);
+                }
+            }
+            for (Pending tx : txs) {
+                requests.add(new JsonRpcClient.Request("eth_getTransactionReceipt", new JSONArray().put(tx.hash)));
+            }
+            for (Map.Entry<String, Integer> sender : senders.entrySet()) {
+                sender.setValue(requests.size());
+                requests.add(new JsonRpcClient.Request("eth_getTransactionCount", new JSONArray().put(sender.getKey()).put("latest")));
+            }
+        }
+        if (txs.isEmpty()) {
+            synchronized (this) {
+                checkedBlock = Math.max(checkedBlock, blockNumber);
+            }
+            return 0;
+        }
+
+        List<JsonRpcClient.Response> responses = rpcClient.batch(requests);
+
+        Map<String, Long> minedNonces = new HashMap<>();
+        for (Map.Entry<String, Integer> sender : senders.entrySet()) {
+            try {
+                minedNonces.put(sender.getKey(), JsonRpcClient.longQuantity(responses.get(sender.getValue()).getResult()));
+            } catch (JsonRpcException e) {
+                // without the nonce nothing of this sender can be called dropped this round
+            }
+        }
+
+        List<Pending> confirmed = new ArrayList<>();
+        List<JSONObject> confirmedReceipts = new ArrayList<>();
+        List<Pending> failed = new ArrayList<>();
+        List<JSONObject> failedReceipts = new ArrayList<>();
+        List<Pending> dropped = new ArrayList<>();
+        synchronized (this) {
+            checkedBlock = Math.max(checkedBlock, blockNumber);
+            for (int i = 0; i < txs.size(); i++) {
+                Pending tx = txs.get(i);
+                if (pending.get(tx.hash) != tx) continue;
+
+                Object receipt;
+                try {
+                    receipt = responses.get(i).getResult();
+                } catch (JsonRpcException e) {
+                    continue;
+                }
+                if (receipt instanceof JSONObject) {
+                    pending.remove(tx.hash);
+                    if (isReverted((JSONObject) receipt)) {
+                        failed.add(tx);
+                        failedReceipts.add((JSONObject) receipt);
+                    } else {
+                        confirmed.add(tx);
+                        confirmedReceipts.add((JSONObject) receipt);
+                    }
+                    continue;
+                }
+
+                Long mined = minedNonces.get(tx.from);
+                if (mined != null && tx.nonce < mined) {
+                    if (++tx.spentChecks >= DROP_CHECKS) {
+                        pending.remove(tx.hash);
+                        dropped.add(tx);
+                    }
+                } else {
+                    tx.spentChecks = 0;
+                }
+            }
+            for (Pending tx : confirmed) {
+                settleReplaced(tx, dropped);
+            }
+            for (Pending tx : failed) {
+                settleReplaced(tx, dropped);
+            }
+        }
+
+        // listeners run outside the lock so they may track follow-up transactions
+        for (int i = 0; i < confirmed.size(); i++) {
+            listener.onConfirmed(confirmed.get(i), confirmedReceipts.get(i));
+        }
+        for (int i = 0; i < failed.size(); i++) {
+            listener.onFailed(failed.get(i), failedReceipts.get(i));
+        }
+        for (Pending tx : dropped) {
+            listener.onDropped(tx);
+        }
+        return confirmed.size() + failed.size() + dropped.size();
+    }
+
+    /** Drops every other transaction of {@code mined}'s nonce without waiting for more blocks. */
+    private void settleReplaced(Pending mined, List<Pending> dropped) {
+        for (Pending tx : dropped) {
+            if (isSameNonce(tx, mined)) tx.replacedBy = mined.hash;
+        }
+        Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending tx = iterator.next();
+            if (isSameNonce(tx, mined)) {
+                iterator.remove();
+                tx.replacedBy = mined.hash;
+                dropped.add(tx);
+            }
+        }
+    }
+
+    private static boolean isSameNonce(Pending a, Pending b) {
+        return a.chainId == b.chainId && a.nonce == b.nonce && a.from.equals(b.from);
+    }
+
+    /** Post-Byzantium receipts carry a {@code status}; older ones cannot tell and count as mined. */
+    private static boolean isReverted(JSONObject receipt) {
+        return "0x0".equals(receipt.optString("status"));
+    }
+}
@@ -0,0 +1,172 @@
+package com.quickwallet.modules.geth;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.quickwallet.utils.ByteUtil;
+import com.quickwallet.utils.FileUtil;
+import com.quickwallet.utils.SharedPreferencesHelper;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+
+import geth.Account;
+import geth.Geth;
+import geth.KeyStore;
+
+/**
+ * Picks the scrypt cost used to encrypt keyfiles from a measurement taken on this device, instead
+ * of one fixed value that is instant on a flagship and takes many seconds on a low-end phone.
+ *
+ * <p>A throwaway key is encrypted and unlocked at {@link #MIN_N}, and the time per unit of work
+ * is extrapolated linearly, which holds for scrypt since its cost is proportional to N * P. N is
+ * doubled up to {@link #MAX_N} while the predicted unlock stays within the target; past that,
+ * scrypt's memory use would get too high for a phone, so the remaining budget goes into P. The
+ * result never drops below the cost the app used before calibration existed.
+ */
+public class ScryptCalibrator {
+    public static final long MIN_N = Geth.StandardScryptN / 16;
+    public static final long MAX_N = Geth.StandardScryptN / 4;
+    public static final long MAX_P = 4;
+    public static final long DEFAULT_TARGET_MILLIS = 1000;
+
+    private static final String SCRYPT_N_KEY = "scrypt_n_key";
+    private static final String SCRYPT_P_KEY = "scrypt_p_key";
+    private static final String SCRYPT_PROBE_MILLIS_KEY = "scrypt_probe_millis_key";
+    private static final String SCRYPT_ESTIMATED_MILLIS_KEY = "scrypt_estimated_millis_key";
+    private static final String SCRYPT_LAST_UNLOCK_MILLIS_KEY = "scrypt_last_unlock_millis_key";
+
+    private static final int PROBE_RUNS = 2;
+    private static final String PROBE_PASSPHRASE = "scrypt-calibration";
+
+    private final SharedPreferencesHelper sharedPreferencesHelper;
+    private final File workDir;
+    private final long targetMillis;
+
+    public ScryptCalibrator(SharedPreferencesHelper sharedPreferencesHelper, File workDir) {
+        this(sharedPreferencesHelper, workDir, DEFAULT_TARGET_MILLIS);
+    }
+
+    public ScryptCalibrator(SharedPreferencesHelper sharedPreferencesHelper, File workDir, long targetMillis) {
+        this.sharedPreferencesHelper = sharedPreferencesHelper;
+        this.workDir = workDir;
+        this.targetMillis = targetMillis;
+    }
+
+    public static class Params {
+        public final long n;
+        public final long p;
+        public final long estimatedMillis;
+
+        public Params(long n, long p, long estimatedMillis) {
+            this.n = n;
+            this.p = p;
+            this.estimatedMillis = estimatedMillis;
+        }
+    }
+
+    /**
+     * Chooses N and P for a device where one scrypt run at {@code probeN}, {@code probeP} took
+     * {@code probeMillis}.
+     */
+    public static Params choose(long probeN, long probeP, long probeMillis, long targetMillis) {
+        double unitMillis = (double) Math.max(1, probeMillis) / (probeN * probeP);
+        long n = MIN_N;
+        while (n < MAX_N && unitMillis * n * 2 <= targetMillis) {
+            n *= 2;
+        }
+        long p = 1;
+        if (n == MAX_N) {
+            p = Math.max(1, Math.min(MAX_P, (long) (targetMillis / (unitMillis * n))));
+        }
+        return new Params(n, p, Math.round(unitMillis * n * p));
+    }
+
+    public boolean isCalibrated() {
+        return sharedPreferencesHelper.contain(SCRYPT_N_KEY);
+    }
+
+    /** N to encrypt new keys with; the pre-calibration value until {@link #calibrate} has run. */
+    public long getN() {
+        return (Long) sharedPreferencesHelper.getSharedPreference(SCRYPT_N_KEY, MIN_N);
+    }
+
+    public long getP() {
+        return (Long) sharedPreferencesHelper.getSharedPreference(SCRYPT_P_KEY, 1L);
+    }
+
+    public long getTargetMillis() {
+        return targetMillis;
+    }
+
+    public long getProbeMillis() {
+        return (Long) sharedPreferencesHelper.getSharedPreference(SCRYPT_PROBE_MILLIS_KEY, 0L);
+    }
+
+    public long getEstimatedMillis() {
+        return (Long) sharedPreferencesHelper.getSharedPreference(SCRYPT_ESTIMATED_MILLIS_KEY, 0L);
+    }
+
+    public long getLastUnlockMillis() {
+        return (Long) sharedPreferencesHelper.getSharedPreference(SCRYPT_LAST_UNLOCK_MILLIS_KEY, 0L);
+    }
+
+    public void recordUnlock(long millis) {
+        sharedPreferencesHelper.put(SCRYPT_LAST_UNLOCK_MILLIS_KEY, millis);
+    }
+
+    /**
+     * Measures scrypt on this device and stores the chosen parameters. Takes a few scrypt runs at
+     * {@link #MIN_N}, so it belongs on a background thread.
+     */
+    public synchronized Params calibrate() throws Exception {
+        String dir = workDir.getAbsolutePath();
+        FileUtil.deleteDirectory(dir);
+        FileUtil.createDir(dir);
+        try {
+            KeyStore probeStore = new KeyStore(dir, MIN_N, 1);
+            byte[] privateKey = new byte[32];
+            new SecureRandom().nextBytes(privateKey);
+            Account probe = probeStore.importECDSAKey(privateKey, PROBE_PASSPHRASE);
+
+            long probeMillis = Long.MAX_VALUE;
+            for (int i = 0; i < PROBE_RUNS; i++) {
+                long start = SystemClock.elapsedRealtime();
+                probeStore.unlock(probe, PROBE_PASSPHRASE);
+                probeMillis = Math.min(probeMillis, SystemClock.elapsedRealtime() - start);
+                probeStore.lock(probe.getAddress());
+            }
+
+            Params params = choose(MIN_N, 1, probeMillis, targetMillis);
+            sharedPreferencesHelper.put(SCRYPT_P_KEY, params.p);
+            sharedPreferencesHelper.put(SCRYPT_PROBE_MILLIS_KEY, probeMillis);
+            sharedPreferencesHelper.put(SCRYPT_ESTIMATED_MILLIS_KEY, params.estimatedMillis);
+            sharedPreferencesHelper.put(SCRYPT_N_KEY, params.n);
+            return params;
+        } finally {
+            FileUtil.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Returns whether the keyfile of {@code account} was encrypted with other scrypt parameters
+     * than the calibrated ones.
+     */
+    public boolean needsReencryption(Account account) {
+        if (!isCalibrated() || account == null) return false;
+        try {
+            File keyFile = new File(Uri.parse(account.getURL()).getPath());
+            if (!keyFile.isFile()) return false;
+            JSONObject json = new JSONObject(new String(ByteUtil.getFileToByte(keyFile), Charset.forName("UTF-8")));
+            JSONObject crypto = json.has("crypto") ? json.getJSONObject("crypto") : json.getJSONObject("Crypto");
+            if (!"scrypt".equals(crypto.optString("kdf"))) return false;
+            JSONObject kdfParams = crypto.getJSONObject("kdfparams");
+            return kdfParams.getLong("n") != getN() || kdfParams.getLong("p") != getP();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
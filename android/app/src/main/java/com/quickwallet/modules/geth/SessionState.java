@@ -0,0 +1,118 @@
+package com.quickwallet.modules.geth;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import geth.Account;
+import geth.EthereumClient;
+import geth.KeyStore;
+
+/**
+ * The wallet session of {@code GethModule}: the current account, its keystore and the node
+ * client, held as one immutable {@link Snapshot} that is only ever swapped whole.
+ *
+ * <p>A request reads the snapshot once and works with that, so an account switch or an
+ * {@code unInit} on another thread can never pair one account with another account's keystore
+ * halfway through. Work on a key, such as unlocking it, signing with it or locking it again, holds
+ * {@link #lockFor} of its account; different accounts never wait for each other.
+ */
+public class SessionState {
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    private final ConcurrentHashMap<String, ReentrantLock> accountLocks = new ConcurrentHashMap<>();
+
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(null, null, null, null);
+
+        /** Lower-case address of {@link #account}, or {@code null} while no account is loaded. */
+        public final String address;
+        public final Account account;
+        public final KeyStore keyStore;
+        public final EthereumClient ethClient;
+
+        Snapshot(String address, Account account, KeyStore keyStore, EthereumClient ethClient) {
+            this.address = address;
+            this.account = account;
+            this.keyStore = keyStore;
+            this.ethClient = ethClient;
+        }
+
+        public boolean hasAccount() {
+            return address != null;
+        }
+    }
+
+    public Snapshot get() {
+        return current.get();
+    }
+
+    /** Makes {@code account} the current account, keeping the node client. */
+    public Snapshot setAccount(String address, Account account, KeyStore keyStore) {
+        String key = address.toLowerCase(Locale.US);
+        while (true) {
+            Snapshot prev = current.get();
+            Snapshot next = new Snapshot(key, account, keyStore, prev.ethClient);
+            if (current.compareAndSet(prev, next)) return next;
+        }
+    }
+
+    /**
+     * A snapshot of {@code account} on the current node client that is not made current, for
+     * signing with another stored account, e.g. for a dapp.
+     */
+    public Snapshot forAccount(String address, Account account, KeyStore keyStore) {
+        return new Snapshot(address.toLowerCase(Locale.US), account, keyStore, current.get().ethClient);
+    }
+
+    /** Forgets the current account, keeping the node client, and returns the replaced snapshot. */
+    public Snapshot clearAccount() {
+        while (true) {
+            Snapshot prev = current.get();
+            if (!prev.hasAccount()) return prev;
+            if (current.compareAndSet(prev, new Snapshot(null, null, null, prev.ethClient))) return prev;
+        }
+    }
+
+    public Snapshot setEthClient(EthereumClient ethClient) {
+        while (true) {
+            Snapshot prev = current.get();
+            Snapshot next = new Snapshot(prev.address, prev.account, prev.keyStore, ethClient);
+            if (current.compareAndSet(prev, next)) return next;
+        }
+    }
+
+    /** Empties the session and returns the replaced snapshot. */
+    public Snapshot clear() {
+        return current.getAndSet(Snapshot.EMPTY);
+    }
+
+    /** Work on the key of one snapshot, such as a signature. */
+    public interface KeyWork<T> {
+        T run(Snapshot session) throws Exception;
+    }
+
+    /**
+     * Runs {@code work} on {@code session}'s keystore and account while holding its account lock,
+     * so the key cannot be locked or unlocked again halfway through. Other accounts run in parallel.
+     */
+    public <T> T withKey(Snapshot session, KeyWork<T> work) throws Exception {
+        ReentrantLock lock = lockFor(session.address);
+        lock.lock();
+        try {
+            return work.run(session);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The lock serializing work on the key of {@code address}; the same one for any casing. */
+    public ReentrantLock lockFor(String address) {
+        String key = address.toLowerCase(Locale.US);
+        ReentrantLock lock = accountLocks.get(key);
+        if (lock != null) return lock;
+        ReentrantLock created = new ReentrantLock();
+        lock = accountLocks.putIfAbsent(key, created);
+        return lock == null ? created : lock;
+    }
+}
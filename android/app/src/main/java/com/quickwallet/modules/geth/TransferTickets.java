@@ -0,0 +1,163 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+import com.quickwallet.utils.HexUtil;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived tickets for transfers that were prepared before the user confirmed them.
+ *
+ * <p>As soon as the transfer form is valid, {@link #prefetch} reads everything the node has to
+ * say about the transfer in one batch: the pending nonce, the suggested gas price, the chain id
+ * and, for token transfers, the gas estimate. The resulting ticket holds the unsigned transfer,
+ * so confirming it only signs and broadcasts. Tickets are single use and expire after
+ * {@link #DEFAULT_TTL}, since gas prices and nonces move on.
+ */
+public class TransferTickets {
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    private static final int MAX_TICKETS = 16;
+
+    private final Map<String, Ticket> tickets = new LinkedHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttl;
+
+    public TransferTickets() {
+        this(DEFAULT_TTL);
+    }
+
+    public TransferTickets(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /** What the node reported for a transfer about to be made. */
+    public static class Prefetch {
+        public final long nonce;
+        public final long gasPrice;
+        /** Chain id the node is on, or -1 if it does not support {@code eth_chainId}. */
+        public final long chainId;
+        /** {@code eth_estimateGas} result, or -1 if no estimate was asked for. */
+        public final long gasEstimate;
+
+        public Prefetch(long nonce, long gasPrice, long chainId, long gasEstimate) {
+            this.nonce = nonce;
+            this.gasPrice = gasPrice;
+            this.chainId = chainId;
+            this.gasEstimate = gasEstimate;
+        }
+    }
+
+    public static class Ticket {
+        public final String id;
+        public final long chainId;
+        public final String from;
+        /** Recipient of the transaction: the payee for ETH, the token contract for tokens. */
+        public final String to;
+        public final long value;
+        public final byte[] data;
+        public final long gasLimit;
+        public final long gasPrice;
+        final long expiresAt;
+
+        Ticket(String id, long chainId, String from, String to, long value, byte[] data, long gasLimit, long gasPrice, long expiresAt) {
+            this.id = id;
+            this.chainId = chainId;
+            this.from = from;
+            this.to = to;
+            this.value = value;
+            this.data = data;
+            this.gasLimit = gasLimit;
+            this.gasPrice = gasPrice;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Reads the pending nonce of {@code from}, the gas price and the chain id, plus the gas
+     * estimate of {@code estimateCall} when one is given, in a single round trip.
+     */
+    public static Prefetch prefetch(JsonRpcClient rpcClient, String from, JSONObject estimateCall)
+            throws IOException, JsonRpcException {
+        List<JsonRpcClient.Request> requests = new ArrayList<>(4);
+        requests.add(new JsonRpcClient.Request("eth_getTransactionCount", new JSONArray().put(from).put("pending")));
+        requests.add(new JsonRpcClient.Request("eth_gasPrice", new JSONArray()));
+        requests.add(new JsonRpcClient.Request("eth_chainId", new JSONArray()));
+        if (estimateCall != null) {
+            requests.add(new JsonRpcClient.Request("eth_estimateGas", new JSONArray().put(estimateCall)));
+        }
+        List<JsonRpcClient.Response> responses = rpcClient.batch(requests);
+
+        long chainId;
+        try {
+            chainId = JsonRpcClient.longQuantity(responses.get(2).getResult());
+        } catch (JsonRpcException e) {
+            // older nodes only know net_version
+            chainId = -1;
+        }
+        return new Prefetch(
+                JsonRpcClient.longQuantity(responses.get(0).getResult()),
+                JsonRpcClient.longQuantity(responses.get(1).getResult()),
+                chainId,
+                estimateCall == null ? -1 : JsonRpcClient.longQuantity(responses.get(3).getResult()));
+    }
+
+    public synchronized Ticket add(long chainId, String from, String to, long value, byte[] data, long gasLimit, long gasPrice) {
+        long now = now();
+        evictExpired(now);
+        if (tickets.size() >= MAX_TICKETS) {
+            Iterator<String> eldest = tickets.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        char[] id = new char[bytes.length * 2];
+        HexUtil.encode(bytes, 0, bytes.length, id, 0);
+        Ticket ticket = new Ticket(new String(id), chainId, from, to, value, data, gasLimit, gasPrice, now + ttl);
+        tickets.put(ticket.id, ticket);
+        return ticket;
+    }
+
+    /** Whether {@code id} is a ticket that has not expired or been used. */
+    public synchronized boolean isValid(String id) {
+        Ticket ticket = tickets.get(id);
+        return ticket != null && now() < ticket.expiresAt;
+    }
+
+    /** Removes and returns the ticket, or {@code null} if it is unknown, used or expired. */
+    public synchronized Ticket take(String id) {
+        Ticket ticket = tickets.remove(id);
+        if (ticket == null || now() >= ticket.expiresAt) return null;
+        return ticket;
+    }
+
+    public synchronized void clear() {
+        tickets.clear();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Ticket> iterator = tickets.values().iterator();
+        while (iterator.hasNext()) {
+            if (now >= iterator.next().expiresAt) iterator.remove();
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+}
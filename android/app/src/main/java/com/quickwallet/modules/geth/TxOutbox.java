@@ -0,0 +1,383 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+import com.quickwallet.utils.ByteUtil;
+import com.quickwallet.utils.FileUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Durable queue of signed transactions, written to disk before they are broadcast so that a
+ * flaky connection never costs the user a signature.
+ *
+ * <p>Each entry is one JSON file. Entries stay until their nonce is mined: a failed broadcast is
+ * retried with exponential backoff, and a successful one is repeated now and then in case the
+ * node drops it from its pool. {@link #flush} sends everything that is due, plus one nonce query
+ * per sender to prune mined entries, as a single JSON-RPC batch.
+ */
+public class TxOutbox {
+    public static final long BASE_BACKOFF = 5 * 1000;
+    public static final long MAX_BACKOFF = 10 * 60 * 1000;
+    public static final long REBROADCAST_INTERVAL = 2 * 60 * 1000;
+    public static final int MAX_REJECTIONS = 10;
+    /** How much more a replacement must pay than the transaction it replaces, as geth demands. */
+    public static final int REPLACEMENT_BUMP_PERCENT = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".json";
+
+    /** Fragments of transport errors, as geth and OkHttp word them, that are worth retrying. */
+    private static final String[] TRANSIENT_ERRORS = {
+            "timeout", "timed out", "deadline exceeded", "connection refused", "connection reset",
+            "connection abort", "no such host", "unable to resolve host", "network is unreachable",
+            "no route to host", "broken pipe", ": eof", "unexpected eof", "failed to connect", "socket closed",
+            "handshake"
+    };
+
+    private static final String[] KNOWN_ERRORS = {
+            "already known", "known transaction", "alreadyknown"
+    };
+
+    private static final String[] SPENT_NONCE_ERRORS = {
+            "nonce too low", "replacement transaction underpriced"
+    };
+
+    private final File dir;
+    private final Random random = new Random();
+    private Map<String, Entry> entries;
+
+    public TxOutbox(File dir) {
+        this.dir = dir;
+    }
+
+    public static class Entry {
+        public final String hash;
+        public final String from;
+        public final long chainId;
+        public final long nonce;
+        public final String raw;
+        /** Hash of the first transaction of this nonce when this one is a replacement, else {@code null}. */
+        public final String replaces;
+        int attempts;
+        int rejections;
+        long nextAttempt;
+        String lastError;
+
+        public Entry(String hash, String from, long chainId, long nonce, String raw) {
+            this(hash, from, chainId, nonce, raw, null);
+        }
+
+        public Entry(String hash, String from, long chainId, long nonce, String raw, String replaces) {
+            this.hash = hash.toLowerCase(Locale.US);
+            this.from = from.toLowerCase(Locale.US);
+            this.chainId = chainId;
+            this.nonce = nonce;
+            this.raw = raw;
+            this.replaces = replaces == null ? null : replaces.toLowerCase(Locale.US);
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getNextAttempt() {
+            return nextAttempt;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+    }
+
+    public static class FlushResult {
+        public final int sent;
+        public final int pruned;
+        public final int failed;
+        /** Milliseconds until the next entry is due, or -1 when the outbox is empty. */
+        public final long nextDelay;
+
+        FlushResult(int sent, int pruned, int failed, long nextDelay) {
+            this.sent = sent;
+            this.pruned = pruned;
+            this.failed = failed;
+            this.nextDelay = nextDelay;
+        }
+    }
+
+    /** Whether a broadcast failure came from the connection rather than from the node. */
+    public static boolean isTransient(Throwable error) {
+        if (error instanceof IOException) return true;
+        return isTransient(error == null ? null : error.getMessage());
+    }
+
+    public static boolean isTransient(String message) {
+        return matches(message, TRANSIENT_ERRORS);
+    }
+
+    /** Whether the node refused a transaction because it already has it. */
+    public static boolean isKnown(String message) {
+        return matches(message, KNOWN_ERRORS);
+    }
+
+    /** Lowest gas price a node accepts for a transaction replacing one priced at {@code gasPrice}. */
+    public static BigInteger minReplacementPrice(BigInteger gasPrice) {
+        BigInteger bumped = gasPrice.multiply(BigInteger.valueOf(100 + REPLACEMENT_BUMP_PERCENT)).divide(BigInteger.valueOf(100));
+        return bumped.max(gasPrice.add(BigInteger.ONE));
+    }
+
+    /** Stores {@code entry} before its first broadcast attempt. */
+    public synchronized void add(Entry entry) throws IOException {
+        entry.nextAttempt = System.currentTimeMillis();
+        write(entry);
+        getEntries().put(entry.hash, entry);
+    }
+
+    /** Records an accepted broadcast; the entry stays until its nonce is mined. */
+    public synchronized void markBroadcast(String hash) {
+        Entry entry = getEntries().get(hash.toLowerCase(Locale.US));
+        if (entry == null) return;
+        entry.attempts++;
+        entry.lastError = null;
+        entry.nextAttempt = System.currentTimeMillis() + REBROADCAST_INTERVAL;
+        writeQuietly(entry);
+    }
+
+    /**
+     * Records a failed broadcast and pushes the next attempt back exponentially. Connection
+     * failures are retried for as long as it takes; an entry the node itself has refused
+     * {@link #MAX_REJECTIONS} times is dropped.
+     *
+     * @return milliseconds until the retry, or -1 if the entry was dropped
+     */
+    public synchronized long scheduleRetry(String hash, String error, boolean rejected) {
+        Entry entry = getEntries().get(hash.toLowerCase(Locale.US));
+        if (entry == null) return -1;
+        entry.attempts++;
+        entry.lastError = error;
+        if (rejected && ++entry.rejections >= MAX_REJECTIONS) {
+            remove(entry.hash);
+            return -1;
+        }
+        long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(entry.attempts - 1, 20));
+        // jitter, so many queued wallets do not retry in lockstep
+        backoff += random.nextInt((int) Math.max(1, backoff / 4));
+        entry.nextAttempt = System.currentTimeMillis() + backoff;
+        writeQuietly(entry);
+        return backoff;
+    }
+
+    public synchronized void remove(String hash) {
+        String key = hash.toLowerCase(Locale.US);
+        getEntries().remove(key);
+        FileUtil.deleteFile(new File(dir, key + SUFFIX).getAbsolutePath());
+    }
+
+    /** The entry for {@code hash}, or {@code null} once it is mined or was dropped. */
+    public synchronized Entry get(String hash) {
+        return getEntries().get(hash.toLowerCase(Locale.US));
+    }
+
+    public synchronized List<Entry> getEntries(long chainId) {
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : getEntries().values()) {
+            if (entry.chainId == chainId) list.add(entry);
+        }
+        return list;
+    }
+
+    /**
+     * Nonce after the highest one queued for {@code from}, or -1 when nothing is queued, so a
+     * nonce resync does not hand out a nonce that is only known to the outbox.
+     */
+    public synchronized long nextNonce(long chainId, String from) {
+        long next = -1;
+        String key = from.toLowerCase(Locale.US);
+        for (Entry entry : getEntries().values()) {
+            if (entry.chainId == chainId && entry.from.equals(key)) {
+                next = Math.max(next, entry.nonce + 1);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Prunes mined entries and broadcasts every entry that is due, or all of them when
+     * {@code force} is set, e.g. because connectivity just came back.
+     */
+    public FlushResult flush(JsonRpcClient rpcClient, long chainId, boolean force) throws JSONException {
+        long now = System.currentTimeMillis();
+        List<Entry> due = new ArrayList<>();
+        Map<String, Integer> senders = new LinkedHashMap<>();
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : getEntries(chainId)) {
+                if (!senders.containsKey(entry.from)) {
+                    senders.put(entry.from, requests.size());
+                    requests.add(new JsonRpcClient.Request("eth_getTransactionCount", new JSONArray().put(entry.from).put("latest")));
+                }
+            }
+            for (Entry entry : getEntries(chainId)) {
+                if (force || entry.nextAttempt <= now) {
+                    due.add(entry);
+                    requests.add(new JsonRpcClient.Request("eth_sendRawTransaction", new JSONArray().put(entry.raw)));
+                }
+            }
+        }
+        if (requests.isEmpty()) {
+            return new FlushResult(0, 0, 0, nextDelay(chainId));
+        }
+
+        List<JsonRpcClient.Response> responses;
+        try {
+            responses = rpcClient.batch(requests);
+        } catch (IOException e) {
+            for (Entry entry : due) {
+                scheduleRetry(entry.hash, String.valueOf(e.getMessage()), false);
+            }
+            return new FlushResult(0, 0, due.size(), nextDelay(chainId));
+        }
+
+        Map<String, Long> minedNonces = new HashMap<>();
+        for (Map.Entry<String, Integer> sender : senders.entrySet()) {
+            try {
+                minedNonces.put(sender.getKey(), JsonRpcClient.longQuantity(responses.get(sender.getValue()).getResult()));
+            } catch (JsonRpcException e) {
+                // keep this sender's entries until the next flush can read its nonce
+            }
+        }
+
+        int sent = 0, pruned = 0, failed = 0;
+        synchronized (this) {
+            for (Entry entry : getEntries(chainId)) {
+                Long mined = minedNonces.get(entry.from);
+                if (mined != null && entry.nonce < mined) {
+                    remove(entry.hash);
+                    pruned++;
+                }
+            }
+            for (int i = 0; i < due.size(); i++) {
+                Entry entry = due.get(i);
+                if (!getEntries().containsKey(entry.hash)) continue;
+                JsonRpcClient.Response response = responses.get(senders.size() + i);
+                String error = response.isError() ? response.getError().getMessage() : null;
+                if (error == null || isKnown(error)) {
+                    markBroadcast(entry.hash);
+                    sent++;
+                } else if (matches(error, SPENT_NONCE_ERRORS)) {
+                    // the nonce went to another transaction; the pruning pass drops it once mined
+                    entry.lastError = error;
+                    entry.nextAttempt = now + REBROADCAST_INTERVAL;
+                    writeQuietly(entry);
+                    failed++;
+                } else {
+                    scheduleRetry(entry.hash, error, true);
+                    failed++;
+                }
+            }
+        }
+        return new FlushResult(sent, pruned, failed, nextDelay(chainId));
+    }
+
+    private synchronized long nextDelay(long chainId) {
+        long next = Long.MAX_VALUE;
+        for (Entry entry : getEntries(chainId)) {
+            next = Math.min(next, entry.nextAttempt);
+        }
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next - System.currentTimeMillis());
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries != null) return entries;
+        entries = new LinkedHashMap<>();
+        File[] files = dir.listFiles();
+        if (files == null) return entries;
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) continue;
+            try {
+                Entry entry = read(file);
+                entries.put(entry.hash, entry);
+            } catch (JSONException e) {
+                FileUtil.deleteFile(file.getAbsolutePath());
+            }
+        }
+        return entries;
+    }
+
+    private static Entry read(File file) throws JSONException {
+        JSONObject json = new JSONObject(new String(ByteUtil.getFileToByte(file), UTF_8));
+        Entry entry = new Entry(json.getString("hash"), json.getString("from"), json.getLong("chainId"),
+                json.getLong("nonce"), json.getString("raw"), json.has("replaces") ? json.getString("replaces") : null);
+        entry.attempts = json.optInt("attempts");
+        entry.rejections = json.optInt("rejections");
+        entry.nextAttempt = json.optLong("nextAttempt");
+        entry.lastError = json.has("lastError") ? json.getString("lastError") : null;
+        return entry;
+    }
+
+    /** Writes to a temporary file first, so a crash mid-write never leaves a truncated entry. */
+    private void write(Entry entry) throws IOException {
+        FileUtil.createDir(dir.getAbsolutePath());
+        byte[] data;
+        try {
+            JSONObject json = new JSONObject();
+            json.put("hash", entry.hash);
+            json.put("from", entry.from);
+            json.put("chainId", entry.chainId);
+            json.put("nonce", entry.nonce);
+            json.put("raw", entry.raw);
+            if (entry.replaces != null) json.put("replaces", entry.replaces);
+            json.put("attempts", entry.attempts);
+            json.put("rejections", entry.rejections);
+            json.put("nextAttempt", entry.nextAttempt);
+            if (entry.lastError != null) json.put("lastError", entry.lastError);
+            data = json.toString().getBytes(UTF_8);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        File temp = new File(dir, entry.hash + SUFFIX + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(dir, entry.hash + SUFFIX))) {
+            FileUtil.deleteFile(temp.getAbsolutePath());
+            throw new IOException("Could not store transaction " + entry.hash);
+        }
+    }
+
+    private void writeQuietly(Entry entry) {
+        try {
+            write(entry);
+        } catch (IOException e) {
+            // the in-memory state is still correct, the file catches up on the next change
+        }
+    }
+
+    private static boolean matches(String message, String[] fragments) {
+        if (message == null) return false;
+        String lower = message.toLowerCase(Locale.US);
+        for (String fragment : fragments) {
+            if (lower.contains(fragment)) return true;
+        }
+        return false;
+    }
+}
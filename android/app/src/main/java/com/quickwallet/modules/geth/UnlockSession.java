@@ -0,0 +1,148 @@
+package com.quickwallet.modules.geth;
+
+import android.os.SystemClock;
+
+import com.quickwallet.utils.Hash;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import geth.Account;
+import geth.Address;
+import geth.KeyStore;
+
+/**
+ * Tracks a {@link KeyStore#timedUnlock} so that consecutive signatures reuse the decrypted key
+ * instead of running scrypt again. Only a salted digest of the passphrase is kept, which lets a
+ * later request prove it knows the passphrase without another key decryption.
+ *
+ * <p>The unlocked account, digest and expiry are published together as one immutable
+ * {@link State}, so the checks never wait for the scrypt run of an unlock in progress, and
+ * neither does {@link #lock}.
+ */
+public class UnlockSession {
+    public static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
+
+    /** Geth drops the key on its own at expiry, stop trusting the session slightly before that. */
+    static final long EXPIRY_MARGIN = 1000;
+
+    /**
+     * Shortest timeout accepted. Zero would make geth keep the key unlocked until the process
+     * exits, and anything within {@link #EXPIRY_MARGIN} could never be reused.
+     */
+    public static final long MIN_TIMEOUT = 10 * 1000;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile State state;
+    /** Counts {@link #lock} calls, so an unlock that was overtaken by one is not published. */
+    private int locks;
+
+    private static final class State {
+        final String address;
+        final byte[] salt;
+        final byte[] digest;
+        final long expiresAt;
+
+        State(String address, byte[] salt, byte[] digest, long expiresAt) {
+            this.address = address;
+            this.salt = salt;
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** Sets the timeout of the next unlock, raised to {@link #MIN_TIMEOUT} if shorter. */
+    public void setTimeout(long timeout) {
+        this.timeout = Math.max(MIN_TIMEOUT, timeout);
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Decrypts the key of {@code account} once and keeps it unlocked for the session timeout.
+     * A {@link #lock} that arrives while scrypt runs wins: the key is locked again right after.
+     *
+     * @throws Exception if the passphrase is wrong
+     */
+    public void unlock(KeyStore keyStore, Account account, String passphrase) throws Exception {
+        int epoch = epoch();
+        long timeout = this.timeout;
+        keyStore.timedUnlock(account, passphrase, TimeUnit.MILLISECONDS.toNanos(timeout));
+
+        String address = account.getAddress().getHex();
+        if (!publish(epoch, address, passphrase, SystemClock.elapsedRealtime() + timeout)) {
+            try {
+                keyStore.lock(account.getAddress());
+            } catch (Exception e) {
+                // the key is already locked
+            }
+        }
+    }
+
+    synchronized int epoch() {
+        return locks;
+    }
+
+    /** Records the unlock of {@code address}, unless {@link #lock} ran since {@code epoch}. */
+    synchronized boolean publish(int epoch, String address, String passphrase, long expiresAt) {
+        if (epoch != locks) return false;
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        state = new State(address, salt, digest(salt, passphrase), expiresAt);
+        return true;
+    }
+
+    public boolean isUnlocked(Account account) {
+        return account != null && isUnlocked(state, account.getAddress().getHex(), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Returns whether {@code account} is still unlocked and {@code passphrase} is the one it was
+     * unlocked with, so the caller can sign without touching the keyfile.
+     */
+    public boolean matches(Account account, String passphrase) {
+        return account != null && matches(account.getAddress().getHex(), passphrase, SystemClock.elapsedRealtime());
+    }
+
+    boolean matches(String address, String passphrase, long now) {
+        State current = state;
+        if (!isUnlocked(current, address, now)) return false;
+        return MessageDigest.isEqual(current.digest, digest(current.salt, passphrase));
+    }
+
+    public void lock(KeyStore keyStore) {
+        State previous;
+        synchronized (this) {
+            locks++;
+            previous = state;
+            state = null;
+        }
+        try {
+            if (keyStore != null && previous != null) {
+                keyStore.lock(new Address(previous.address));
+            }
+        } catch (Exception e) {
+            // the key is already locked
+        }
+    }
+
+    private static boolean isUnlocked(State state, String address, long now) {
+        if (state == null || address == null) return false;
+        if (now + EXPIRY_MARGIN >= state.expiresAt) return false;
+        return state.address.equalsIgnoreCase(address);
+    }
+
+    private static byte[] digest(byte[] salt, String passphrase) {
+        byte[] secret = (passphrase == null ? "" : passphrase).getBytes(Charset.forName("UTF-8"));
+        byte[] input = new byte[salt.length + secret.length];
+        System.arraycopy(salt, 0, input, 0, salt.length);
+        System.arraycopy(secret, 0, input, salt.length, secret.length);
+        return Hash.sha256(input);
+    }
+}
@@ -0,0 +1,68 @@
+package com.quickwallet.modules.geth.rpc;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link JsonRpcClient} in front of another one that answers final results from an
+ * {@link RpcCache}.
+ *
+ * <p>Old receipts and transactions, contract code and token metadata are read from disk instead
+ * of the node, whoever asks for them. Receipts only become final relative to a head block: the
+ * head is raised by {@link #setHeadBlock} and by every {@code eth_blockNumber} that passes
+ * through, and stays -1 until one of the two happens.
+ */
+public class CachingRpcClient extends JsonRpcClient {
+    private final JsonRpcClient delegate;
+    private final RpcCache cache;
+    private final long chainId;
+    private volatile long headBlock = -1;
+
+    public CachingRpcClient(JsonRpcClient delegate, RpcCache cache, long chainId) {
+        super(delegate.getUrl());
+        this.delegate = delegate;
+        this.cache = cache;
+        this.chainId = chainId;
+    }
+
+    public JsonRpcClient getDelegate() {
+        return delegate;
+    }
+
+    public long getChainId() {
+        return chainId;
+    }
+
+    public long getHeadBlock() {
+        return headBlock;
+    }
+
+    /** Raises the head receipts are judged final against; a lower block is ignored. */
+    public synchronized void setHeadBlock(long blockNumber) {
+        if (blockNumber > headBlock) headBlock = blockNumber;
+    }
+
+    @Override
+    public boolean isHttp() {
+        return delegate.isHttp();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public List<Response> batch(List<Request> requests) throws IOException {
+        List<Response> responses = cache.batch(delegate, chainId, headBlock, requests);
+        for (int i = 0; i < responses.size(); i++) {
+            if (!"eth_blockNumber".equals(requests.get(i).getMethod())) continue;
+            try {
+                setHeadBlock(longQuantity(responses.get(i).getResult()));
+            } catch (JsonRpcException | RuntimeException e) {
+                // a failed head read leaves the head where it was
+            }
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,187 @@
+package com.quickwallet.modules.geth.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link JsonRpcClient} in front of another one that sends each distinct read only once.
+ *
+ * <p>Screens and sagas often ask for the same balance, nonce or estimate within milliseconds.
+ * A read-only call that is identical to one already on its way to the node waits for that call
+ * and shares its response instead of going out again. A successful response is also reused for
+ * {@code reuseWindow} milliseconds after it arrived. Writes and filter calls always go through.
+ * Calls that are not shared still go out together as one batch.
+ */
+public class CoalescingRpcClient extends JsonRpcClient {
+    public static final long DEFAULT_REUSE_WINDOW = 500;
+
+    private static final int MAX_IDLE_FLIGHTS = 64;
+
+    private final JsonRpcClient delegate;
+    private final Map<String, Flight> flights = new HashMap<>();
+    private long reuseWindow;
+    private long hits;
+    private long misses;
+
+    public CoalescingRpcClient(JsonRpcClient delegate, long reuseWindow) {
+        super(delegate.getUrl());
+        this.delegate = delegate;
+        this.reuseWindow = reuseWindow;
+    }
+
+    public JsonRpcClient getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isHttp() {
+        return delegate.isHttp();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    public synchronized void setReuseWindow(long reuseWindow) {
+        this.reuseWindow = reuseWindow;
+        if (reuseWindow <= 0) evictExpired(now());
+    }
+
+    public synchronized long getReuseWindow() {
+        return reuseWindow;
+    }
+
+    /** Reads answered by a call already in flight or by a recent response. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Reads that had to go to the node. */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public List<Response> batch(List<Request> requests) throws IOException {
+        int size = requests.size();
+        Flight[] shared = new Flight[size];
+        List<Request> outgoing = new ArrayList<>(size);
+        List<Integer> outgoingIndexes = new ArrayList<>(size);
+        List<Flight> led = new ArrayList<>(size);
+
+        synchronized (this) {
+            long now = now();
+            for (int i = 0; i < size; i++) {
+                Request request = requests.get(i);
+                if (!RpcRouter.isReadOnly(request.getMethod())) {
+                    outgoing.add(request);
+                    outgoingIndexes.add(i);
+                    led.add(null);
+                    continue;
+                }
+                String key = request.getMethod() + request.getParams().toString();
+                Flight flight = flights.get(key);
+                if (flight != null && (flight.response == null || now - flight.arrivedAt < reuseWindow)) {
+                    hits++;
+                    shared[i] = flight;
+                    continue;
+                }
+                misses++;
+                if (flights.size() >= MAX_IDLE_FLIGHTS) evictExpired(now);
+                flight = new Flight(key);
+                flights.put(key, flight);
+                shared[i] = flight;
+                outgoing.add(request);
+                outgoingIndexes.add(i);
+                led.add(flight);
+            }
+        }
+
+        Response[] responses = new Response[size];
+        if (!outgoing.isEmpty()) {
+            List<Response> fetched;
+            try {
+                fetched = delegate.batch(outgoing);
+            } catch (IOException | RuntimeException e) {
+                IOException error = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                land(led, null, error);
+                throw error;
+            }
+            for (int i = 0; i < fetched.size(); i++) {
+                responses[outgoingIndexes.get(i)] = fetched.get(i);
+            }
+            land(led, fetched, null);
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (responses[i] != null) continue;
+            Flight flight = shared[i];
+            try {
+                flight.latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for JSON-RPC call", e);
+            }
+            if (flight.error != null) throw flight.error;
+            responses[i] = flight.response;
+        }
+        return Arrays.asList(responses);
+    }
+
+    /** Hands the responses to everyone waiting on the flights this call led. */
+    private void land(List<Flight> led, List<Response> fetched, IOException error) {
+        synchronized (this) {
+            long now = now();
+            for (int i = 0; i < led.size(); i++) {
+                Flight flight = led.get(i);
+                if (flight == null) continue;
+                if (error != null) {
+                    flight.error = error;
+                } else {
+                    flight.response = fetched.get(i);
+                }
+                flight.arrivedAt = now;
+                // errors are shared with whoever waited, but never reused
+                if ((error != null || flight.response.isError() || reuseWindow <= 0) && flights.get(flight.key) == flight) {
+                    flights.remove(flight.key);
+                }
+            }
+        }
+        for (Flight flight : led) {
+            if (flight != null) flight.latch.countDown();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Flight> iterator = flights.values().iterator();
+        while (iterator.hasNext()) {
+            Flight flight = iterator.next();
+            if (flight.response != null && now - flight.arrivedAt >= reuseWindow) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    private static class Flight {
+        final String key;
+        final CountDownLatch latch = new CountDownLatch(1);
+        Response response;
+        IOException error;
+        long arrivedAt;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+}
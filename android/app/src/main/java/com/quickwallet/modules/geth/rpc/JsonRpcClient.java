@@ -0,0 +1,263 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+/**
+ * Minimal JSON-RPC 2.0 client over HTTP that can send many calls as one batch array.
+ *
+ * <p>The gomobile {@code EthereumClient} issues one HTTP request per call. Here a list of calls
+ * goes out as a single POST (split into chunks of {@link #MAX_BATCH_SIZE}, which public nodes
+ * commonly cap), and the responses are matched back to their calls by id, since nodes may
+ * answer a batch in any order. A {@code ws://} or {@code wss://} URL sends the same batches as
+ * frames over one shared WebSocket instead.
+ */
+public class JsonRpcClient {
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private static final MediaType JSON_TYPE = MediaType.parse("application/json; charset=utf-8");
+    private static final int INTERNAL_ERROR = -32603;
+
+    private static OkHttpClient sharedHttpClient;
+
+    private final OkHttpClient httpClient;
+    private final String url;
+    private final WebSocketTransport webSocket;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    public JsonRpcClient(String url) {
+        this(getSharedHttpClient(), url);
+    }
+
+    public JsonRpcClient(OkHttpClient httpClient, String url) {
+        this.httpClient = httpClient;
+        this.url = url;
+        this.webSocket = WebSocketTransport.isWebSocket(url) ? new WebSocketTransport(httpClient, url) : null;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /** Whether calls go out as HTTP POSTs rather than over a WebSocket. */
+    public boolean isHttp() {
+        return webSocket == null;
+    }
+
+    /** Closes the WebSocket, if any; the next call opens a new one. */
+    public void close() {
+        if (webSocket != null) webSocket.close();
+    }
+
+    /**
+     * Sends a single call and returns its {@code result}, or {@code null} for a JSON null.
+     *
+     * @throws JsonRpcException if the node answered with an error object
+     */
+    public Object call(String method, JSONArray params) throws IOException, JsonRpcException {
+        List<Request> requests = new ArrayList<>(1);
+        requests.add(new Request(method, params));
+        return batch(requests).get(0).getResult();
+    }
+
+    /**
+     * Reads a JSON-RPC quantity, a {@code 0x}-prefixed hex number such as a balance or a nonce.
+     *
+     * @throws JsonRpcException if {@code hex} is not a quantity
+     */
+    public static BigInteger quantity(Object hex) throws JsonRpcException {
+        if (!(hex instanceof String) || !((String) hex).startsWith("0x")) {
+            throw new JsonRpcException(INTERNAL_ERROR, "Unexpected quantity: " + hex);
+        }
+        String digits = ((String) hex).substring(2);
+        try {
+            return digits.isEmpty() ? BigInteger.ZERO : new BigInteger(digits, 16);
+        } catch (NumberFormatException e) {
+            throw new JsonRpcException(INTERNAL_ERROR, "Unexpected quantity: " + hex);
+        }
+    }
+
+    /** Like {@link #quantity}, for nonces, block numbers, gas and chain ids. */
+    public static long longQuantity(Object hex) throws JsonRpcException {
+        BigInteger value = quantity(hex);
+        if (value.bitLength() > 63) throw new JsonRpcException(INTERNAL_ERROR, "Quantity out of range: " + hex);
+        return value.longValue();
+    }
+
+    /**
+     * Sends all {@code requests} in as few HTTP round trips as the batch size allows. The returned
+     * list has one response per request, in the same order.
+     *
+     * @throws IOException if a round trip failed as a whole
+     */
+    public List<Response> batch(List<Request> requests) throws IOException {
+        List<Response> responses = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(requests.size(), from + MAX_BATCH_SIZE);
+            responses.addAll(send(requests.subList(from, to)));
+        }
+        return responses;
+    }
+
+    private List<Response> send(List<Request> requests) throws IOException {
+        long firstId = nextId.getAndAdd(requests.size());
+        JSONArray body = new JSONArray();
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                body.put(requests.get(i).toJson(firstId + i));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Couldn't encode JSON-RPC request", e);
+        }
+
+        String payload = requests.size() == 1 ? body.opt(0).toString() : body.toString();
+        String text = webSocket != null ? webSocket.send(payload, firstId, requests.size()) : post(payload);
+        return parse(text, requests.size(), firstId);
+    }
+
+    private String post(String payload) throws IOException {
+        okhttp3.Request httpRequest = new okhttp3.Request.Builder()
+                .url(url)
+                .post(RequestBody.create(JSON_TYPE, payload))
+                .build();
+
+        okhttp3.Response httpResponse = httpClient.newCall(httpRequest).execute();
+        String text;
+        try {
+            if (!httpResponse.isSuccessful()) {
+                throw new IOException("JSON-RPC request failed with HTTP " + httpResponse.code());
+            }
+            ResponseBody responseBody = httpResponse.body();
+            text = responseBody == null ? "" : responseBody.string();
+        } finally {
+            httpResponse.close();
+        }
+        return text;
+    }
+
+    private static List<Response> parse(String text, int size, long firstId) throws IOException {
+        Map<Long, Response> byId = new HashMap<>();
+        try {
+            String trimmed = text.trim();
+            if (trimmed.startsWith("[")) {
+                JSONArray array = new JSONArray(trimmed);
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject item = array.getJSONObject(i);
+                    byId.put(item.optLong("id", -1), Response.fromJson(item));
+                }
+            } else {
+                JSONObject item = new JSONObject(trimmed);
+                Response response = Response.fromJson(item);
+                if (item.isNull("id")) {
+                    // the node rejected the request as a whole, e.g. batches are not supported
+                    for (int i = 0; i < size; i++) {
+                        byId.put(firstId + i, response);
+                    }
+                } else {
+                    byId.put(item.optLong("id", -1), response);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IOException("Couldn't parse JSON-RPC response", e);
+        }
+
+        List<Response> responses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Response response = byId.get(firstId + i);
+            if (response == null) {
+                response = new Response(null, new JsonRpcException(INTERNAL_ERROR, "Missing response in batch"));
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private static synchronized OkHttpClient getSharedHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = new OkHttpClient.Builder()
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .writeTimeout(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return sharedHttpClient;
+    }
+
+    public static class Request {
+        private final String method;
+        private final JSONArray params;
+
+        public Request(String method, JSONArray params) {
+            this.method = method;
+            this.params = params == null ? new JSONArray() : params;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public JSONArray getParams() {
+            return params;
+        }
+
+        JSONObject toJson(long id) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("jsonrpc", "2.0");
+            json.put("id", id);
+            json.put("method", method);
+            json.put("params", params);
+            return json;
+        }
+    }
+
+    public static class Response {
+        private final Object result;
+        private final JsonRpcException error;
+
+        public Response(Object result, JsonRpcException error) {
+            this.result = result;
+            this.error = error;
+        }
+
+        public boolean isError() {
+            return error != null;
+        }
+
+        public JsonRpcException getError() {
+            return error;
+        }
+
+        /**
+         * @return the call's result, {@code null} for a JSON null
+         * @throws JsonRpcException if the node answered this call with an error
+         */
+        public Object getResult() throws JsonRpcException {
+            if (error != null) throw error;
+            return result;
+        }
+
+        static Response fromJson(JSONObject json) {
+            JSONObject error = json.optJSONObject("error");
+            if (error != null) {
+                return new Response(null, new JsonRpcException(error.optInt("code", INTERNAL_ERROR), error.optString("message")));
+            }
+            Object result = json.opt("result");
+            return new Response(result == JSONObject.NULL ? null : result, null);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.quickwallet.modules.geth.rpc;
+
+/**
+ * Error object returned by a JSON-RPC node for a single call.
+ */
+public class JsonRpcException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public JsonRpcException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
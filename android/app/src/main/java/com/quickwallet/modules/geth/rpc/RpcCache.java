@@ -0,0 +1,278 @@
+package com.quickwallet.modules.geth.rpc;
+
+import com.quickwallet.utils.ByteUtil;
+import com.quickwallet.utils.FileUtil;
+import com.quickwallet.utils.Hash;
+import com.quickwallet.utils.HexUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Disk-backed LRU cache for JSON-RPC results that can no longer change.
+ *
+ * <p>Only results that are final are admitted: transactions and receipts mined at least
+ * {@link #FINALITY_DEPTH} blocks below the head, non-empty contract code, and the
+ * {@code name()}, {@code symbol()} and {@code decimals()} of tokens. Errors and anything
+ * pending are never stored. Each result is one file named after the hash of its call; the least
+ * recently used files are deleted once the cache grows past its byte budget.
+ */
+public class RpcCache {
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    public static final int FINALITY_DEPTH = 12;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** {@code name()}, {@code symbol()} and {@code decimals()} selectors. */
+    private static final String[] TOKEN_METADATA = {"0x06fdde03", "0x95d89b41", "0x313ce567"};
+
+    private static final Map<String, RpcCache> OPEN = new HashMap<>();
+
+    private final File dir;
+    private final long maxBytes;
+    private Map<String, Long> index;
+    private long totalBytes;
+    private int hits;
+    private int misses;
+
+    public RpcCache(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    public RpcCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The cache of {@code dir} shared by everyone in the process, so that two readers of the same
+     * directory never keep diverging indexes of its files.
+     */
+    public static RpcCache open(File dir) {
+        synchronized (OPEN) {
+            String path = dir.getAbsolutePath();
+            RpcCache cache = OPEN.get(path);
+            if (cache == null) {
+                cache = new RpcCache(dir);
+                OPEN.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Answers what it can from the cache and sends the rest to {@code rpcClient} as one batch.
+     * Fresh results that are final as of {@code headBlock} are stored; pass -1 when the head is
+     * unknown to admit only results that do not depend on it.
+     */
+    public List<JsonRpcClient.Response> batch(
+            JsonRpcClient rpcClient,
+            long chainId,
+            long headBlock,
+            List<JsonRpcClient.Request> requests
+    ) throws IOException {
+        int size = requests.size();
+        JsonRpcClient.Response[] responses = new JsonRpcClient.Response[size];
+        String[] keys = new String[size];
+        List<JsonRpcClient.Request> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            JsonRpcClient.Request request = requests.get(i);
+            keys[i] = key(chainId, request);
+            Object cached = keys[i] == null ? null : get(keys[i]);
+            if (cached != null) {
+                responses[i] = new JsonRpcClient.Response(cached, null);
+            } else {
+                missing.add(request);
+                missingIndexes.add(i);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<JsonRpcClient.Response> fetched = rpcClient.batch(missing);
+            for (int i = 0; i < fetched.size(); i++) {
+                int index = missingIndexes.get(i);
+                JsonRpcClient.Response response = fetched.get(i);
+                responses[index] = response;
+                if (keys[index] == null) continue;
+                try {
+                    Object result = response.getResult();
+                    if (isFinal(requests.get(index), result, headBlock)) {
+                        put(keys[index], result);
+                    }
+                } catch (JsonRpcException e) {
+                    // errors are never cached
+                }
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        FileUtil.deleteDirectory(dir.getAbsolutePath());
+        index = null;
+        totalBytes = 0;
+    }
+
+    /**
+     * Cache key of a call whose result can become final, or {@code null} for calls that are
+     * never cached. Hashes and addresses are lower-cased and block tags dropped where the
+     * result does not depend on them.
+     */
+    static String key(long chainId, JsonRpcClient.Request request) {
+        JSONArray params = request.getParams();
+        String method = request.getMethod();
+        if ("eth_getTransactionByHash".equals(method) || "eth_getTransactionReceipt".equals(method)) {
+            String hash = params.optString(0, null);
+            return hash == null ? null : chainId + ":" + method + ":" + hash.toLowerCase(Locale.US);
+        }
+        if ("eth_getCode".equals(method)) {
+            String address = params.optString(0, null);
+            return address == null ? null : chainId + ":" + method + ":" + address.toLowerCase(Locale.US);
+        }
+        if ("eth_call".equals(method)) {
+            JSONObject call = params.optJSONObject(0);
+            if (call == null || !call.has("to")) return null;
+            String data = call.optString("data", call.optString("input", "")).toLowerCase(Locale.US);
+            if (!isTokenMetadata(data)) return null;
+            return chainId + ":" + method + ":" + call.optString("to").toLowerCase(Locale.US) + ":" + data;
+        }
+        return null;
+    }
+
+    static boolean isFinal(JsonRpcClient.Request request, Object result, long headBlock) {
+        String method = request.getMethod();
+        if ("eth_getTransactionByHash".equals(method) || "eth_getTransactionReceipt".equals(method)) {
+            if (!(result instanceof JSONObject) || headBlock < 0) return false;
+            String blockNumber = ((JSONObject) result).optString("blockNumber", null);
+            if (blockNumber == null || !blockNumber.startsWith("0x")) return false;
+            return Long.parseLong(blockNumber.substring(2), 16) <= headBlock - FINALITY_DEPTH;
+        }
+        // code can still be deployed to an empty address, token metadata calls can revert
+        return result instanceof String && ((String) result).length() > 2;
+    }
+
+    private static boolean isTokenMetadata(String data) {
+        for (String selector : TOKEN_METADATA) {
+            if (data.equals(selector)) return true;
+        }
+        return false;
+    }
+
+    private synchronized Object get(String key) {
+        String name = fileName(key);
+        Long length = getIndex().get(name);
+        if (length == null) {
+            misses++;
+            return null;
+        }
+        File file = new File(dir, name);
+        if (!file.isFile()) {
+            // the system may clear the cache directory at any time
+            remove(name);
+            misses++;
+            return null;
+        }
+        try {
+            Object result = new JSONArray(new String(ByteUtil.getFileToByte(file), UTF_8)).get(0);
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            return result;
+        } catch (JSONException e) {
+            remove(name);
+            misses++;
+            return null;
+        }
+    }
+
+    private synchronized void put(String key, Object result) {
+        String name = fileName(key);
+        byte[] data = new JSONArray().put(result).toString().getBytes(UTF_8);
+        if (data.length > maxBytes) return;
+        Map<String, Long> entries = getIndex();
+        try {
+            FileUtil.createDir(dir.getAbsolutePath());
+            File temp = new File(dir, name + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(new File(dir, name))) {
+                FileUtil.deleteFile(temp.getAbsolutePath());
+                return;
+            }
+        } catch (IOException e) {
+            // caching is best effort
+            return;
+        }
+        Long previous = entries.put(name, (long) data.length);
+        totalBytes += data.length - (previous == null ? 0 : previous);
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            FileUtil.deleteFile(new File(dir, entry.getKey()).getAbsolutePath());
+        }
+    }
+
+    private void remove(String name) {
+        Long length = getIndex().remove(name);
+        if (length != null) totalBytes -= length;
+        FileUtil.deleteFile(new File(dir, name).getAbsolutePath());
+    }
+
+    /** Access-ordered index of file name to size, rebuilt from the file times on first use. */
+    private Map<String, Long> getIndex() {
+        if (index != null) return index;
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        File[] files = dir.listFiles();
+        if (files == null) return index;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                FileUtil.deleteFile(file.getAbsolutePath());
+                continue;
+            }
+            index.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        return index;
+    }
+
+    private static String fileName(String key) {
+        return HexUtil.encode(Hash.sha256(key.getBytes(UTF_8))).substring(2);
+    }
+}
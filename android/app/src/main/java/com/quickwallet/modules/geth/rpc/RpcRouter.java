@@ -0,0 +1,339 @@
+package com.quickwallet.modules.geth.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import geth.Context;
+import geth.Geth;
+
+/**
+ * {@link JsonRpcClient} over several endpoints of one chain.
+ *
+ * <p>Every endpoint keeps an exponentially weighted moving average of its latency and error
+ * rate, and each call goes to the endpoint with the best score. A call that fails on the
+ * connection moves on to the next endpoint, and a call that is still unanswered after
+ * {@code deadline} fails with an {@link IOException} instead of waiting on a stalled node.
+ * Read-only calls are also hedged: when the first endpoint has not answered within its
+ * {@link #HEDGE_PERCENTILE} latency, the same call goes to the next endpoint and the first
+ * answer wins.
+ */
+public class RpcRouter extends JsonRpcClient {
+    public static final long DEFAULT_DEADLINE = 15 * 1000;
+    public static final double HEDGE_PERCENTILE = 0.95;
+
+    static final double ALPHA = 0.2;
+    static final long INITIAL_LATENCY = 300;
+    static final long MIN_HEDGE_DELAY = 20;
+    static final long ERROR_HALF_LIFE = 30 * 1000;
+    static final double ERROR_PENALTY = 10;
+
+    private static final int SAMPLES = 32;
+    private static final int MIN_SAMPLES = 4;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final List<Endpoint> endpoints;
+    private final long deadline;
+    private final ThreadPoolExecutor attempts;
+
+    public RpcRouter(List<JsonRpcClient> clients, long deadline) {
+        super(clients.get(0).getUrl());
+        List<Endpoint> list = new ArrayList<>(clients.size());
+        for (JsonRpcClient client : clients) {
+            list.add(new Endpoint(client));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.deadline = deadline;
+        this.attempts = new ThreadPoolExecutor(0, MAX_ATTEMPTS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "rpc-router-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /** Router over the comma-separated endpoint URLs in {@code urls}, in order of preference. */
+    public static RpcRouter forUrls(String urls) {
+        List<JsonRpcClient> clients = new ArrayList<>();
+        for (String url : parseUrls(urls)) {
+            clients.add(new JsonRpcClient(url));
+        }
+        if (clients.isEmpty()) throw new IllegalArgumentException("No RPC endpoint in \"" + urls + "\"");
+        return new RpcRouter(clients, DEFAULT_DEADLINE);
+    }
+
+    public static List<String> parseUrls(String urls) {
+        List<String> list = new ArrayList<>();
+        if (urls == null) return list;
+        for (String url : urls.split(",")) {
+            if (url.trim().length() > 0) list.add(url.trim());
+        }
+        return list;
+    }
+
+    /**
+     * Geth context for calls through the gomobile {@code EthereumClient}, bounded by the same
+     * deadline as routed calls.
+     */
+    public static Context newContext() {
+        return Geth.newContext().withTimeout(DEFAULT_DEADLINE * 1000000L);
+    }
+
+    public List<String> getUrls() {
+        List<String> urls = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            urls.add(endpoint.client.getUrl());
+        }
+        return urls;
+    }
+
+    /** Whether every endpoint is reached over HTTP rather than a WebSocket. */
+    @Override
+    public boolean isHttp() {
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.client.isHttp()) return false;
+        }
+        return true;
+    }
+
+    /** Closes the endpoints' WebSockets and lets the attempt threads wind down. */
+    @Override
+    public void close() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.client.close();
+        }
+        attempts.shutdown();
+    }
+
+    /** URL of the endpoint the next call would go to first. */
+    public String getBestUrl() {
+        return rank().get(0).client.getUrl();
+    }
+
+    /** Smoothed latency of {@code url} in milliseconds, or -1 if it is not an endpoint. */
+    public long getLatency(String url) {
+        Endpoint endpoint = find(url);
+        return endpoint == null ? -1 : endpoint.getLatency();
+    }
+
+    /** Smoothed share of failed calls on {@code url}, between 0 and 1, or -1 if unknown. */
+    public double getErrorRate(String url) {
+        Endpoint endpoint = find(url);
+        return endpoint == null ? -1 : endpoint.getErrorRate(now());
+    }
+
+    @Override
+    public List<Response> batch(List<Request> requests) throws IOException {
+        List<Endpoint> ranked = rank();
+        boolean hedged = ranked.size() > 1 && isReadOnly(requests);
+        Race race = new Race();
+        long deadlineAt = now() + deadline;
+
+        Endpoint next = ranked.get(0);
+        int launched = 0;
+        long hedgeAt = Long.MAX_VALUE;
+        while (true) {
+            if (next != null) {
+                boolean inline = launched == 0;
+                if (launch(next, requests, race, inline)) {
+                    launched++;
+                    hedgeAt = hedged && launched < ranked.size() ? now() + next.hedgeDelay() : Long.MAX_VALUE;
+                } else {
+                    // no thread left for a hedge, wait on what is already running
+                    hedged = false;
+                    hedgeAt = Long.MAX_VALUE;
+                }
+                next = null;
+            }
+            synchronized (race) {
+                while (true) {
+                    if (race.responses != null) return race.responses;
+                    long now = now();
+                    boolean allFailed = race.failures == launched;
+                    if (launched < ranked.size() && (allFailed || now >= hedgeAt)) {
+                        next = ranked.get(launched);
+                        break;
+                    }
+                    if (allFailed) throw race.error;
+                    if (now >= deadlineAt) {
+                        for (Endpoint endpoint : race.running) {
+                            endpoint.failure(deadline);
+                        }
+                        throw new IOException("JSON-RPC call timed out after " + deadline + " ms");
+                    }
+                    long wait = Math.min(deadlineAt, hedgeAt) - now;
+                    try {
+                        race.wait(Math.max(1, wait));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for JSON-RPC call", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts one attempt. The first one runs on the calling thread when the pool is full, so a
+     * call always goes out, only without its deadline.
+     */
+    private boolean launch(final Endpoint endpoint, final List<Request> requests, final Race race, boolean inline) {
+        synchronized (race) {
+            race.running.add(endpoint);
+        }
+        Runnable attempt = new Runnable() {
+            @Override
+            public void run() {
+                long start = now();
+                List<Response> responses = null;
+                IOException error = null;
+                try {
+                    responses = endpoint.client.batch(requests);
+                    endpoint.success(now() - start);
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = new IOException(e.getMessage(), e);
+                }
+                if (error != null) endpoint.failure(now() - start);
+                synchronized (race) {
+                    race.running.remove(endpoint);
+                    if (responses != null) {
+                        if (race.responses == null) race.responses = responses;
+                    } else {
+                        race.failures++;
+                        race.error = error;
+                    }
+                    race.notifyAll();
+                }
+            }
+        };
+        try {
+            attempts.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            if (!inline) {
+                synchronized (race) {
+                    race.running.remove(endpoint);
+                }
+                return false;
+            }
+            attempt.run();
+        }
+        return true;
+    }
+
+    private List<Endpoint> rank() {
+        final long now = now();
+        List<Endpoint> ranked = new ArrayList<>(endpoints);
+        final double[] scores = new double[ranked.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = ranked.get(i).score(now);
+        }
+        final List<Endpoint> order = endpoints;
+        // stable, so endpoints with equal scores keep their configured order
+        Collections.sort(ranked, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint a, Endpoint b) {
+                return Double.compare(scores[order.indexOf(a)], scores[order.indexOf(b)]);
+            }
+        });
+        return ranked;
+    }
+
+    private Endpoint find(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.client.getUrl().equals(url)) return endpoint;
+        }
+        return null;
+    }
+
+    /** Writes and node-local filters must not be sent twice. */
+    static boolean isReadOnly(List<Request> requests) {
+        for (Request request : requests) {
+            if (!isReadOnly(request.getMethod())) return false;
+        }
+        return true;
+    }
+
+    static boolean isReadOnly(String method) {
+        return !(method.startsWith("eth_send") || method.startsWith("eth_sign") || method.startsWith("personal_")
+                || method.contains("Filter") || method.endsWith("subscribe"));
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    private static class Race {
+        final List<Endpoint> running = new ArrayList<>(2);
+        List<Response> responses;
+        IOException error;
+        int failures;
+    }
+
+    static class Endpoint {
+        final JsonRpcClient client;
+        private final long[] samples = new long[SAMPLES];
+        private int sampleCount;
+        private double latency = INITIAL_LATENCY;
+        private double errorRate;
+        private long lastFailureAt;
+
+        Endpoint(JsonRpcClient client) {
+            this.client = client;
+        }
+
+        synchronized void success(long elapsed) {
+            latency += ALPHA * (elapsed - latency);
+            errorRate *= 1 - ALPHA;
+            samples[sampleCount++ % SAMPLES] = elapsed;
+        }
+
+        synchronized void failure(long elapsed) {
+            // a refused connection fails fast, which says nothing good about the latency
+            if (elapsed > latency) latency += ALPHA * (elapsed - latency);
+            errorRate += ALPHA * (1 - errorRate);
+            lastFailureAt = now();
+        }
+
+        synchronized long getLatency() {
+            return Math.round(latency);
+        }
+
+        /** Error rate fading towards zero while the endpoint gets no traffic to prove itself. */
+        synchronized double getErrorRate(long now) {
+            if (errorRate == 0) return 0;
+            return errorRate * Math.pow(0.5, (now - lastFailureAt) / (double) ERROR_HALF_LIFE);
+        }
+
+        double score(long now) {
+            double errors = getErrorRate(now);
+            synchronized (this) {
+                return latency * (1 + ERROR_PENALTY * errors);
+            }
+        }
+
+        synchronized long hedgeDelay() {
+            int count = Math.min(sampleCount, SAMPLES);
+            if (count < MIN_SAMPLES) return Math.max(MIN_HEDGE_DELAY, Math.round(2 * latency));
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(HEDGE_PERCENTILE * count) - 1;
+            return Math.max(MIN_HEDGE_DELAY, sorted[Math.max(0, index)]);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * JSON-RPC over one shared WebSocket, for nodes that are only reachable on geth's WebSocket
+ * port. Each request or batch goes out as one text frame and its answer is handed to the caller
+ * waiting for its ids. A dropped connection fails the calls in flight and is dialled again by the
+ * next call.
+ */
+class WebSocketTransport {
+    static final long TIMEOUT = 30 * 1000;
+
+    private final OkHttpClient httpClient;
+    private final String url;
+    private final Map<Long, Call> calls = new LinkedHashMap<>();
+    private WebSocket socket;
+
+    private static class Call {
+        final CountDownLatch done = new CountDownLatch(1);
+        final WebSocket socket;
+        String text;
+        IOException error;
+
+        Call(WebSocket socket) {
+            this.socket = socket;
+        }
+    }
+
+    WebSocketTransport(OkHttpClient httpClient, String url) {
+        this.httpClient = httpClient;
+        this.url = url;
+    }
+
+    static boolean isWebSocket(String url) {
+        String lower = url.trim().toLowerCase(Locale.US);
+        return lower.startsWith("ws:") || lower.startsWith("wss:");
+    }
+
+    /** Sends {@code payload}, whose calls carry the ids {@code firstId} onwards, and returns the answer. */
+    String send(String payload, long firstId, int size) throws IOException {
+        Call call;
+        synchronized (this) {
+            if (socket == null) {
+                socket = httpClient.newWebSocket(new okhttp3.Request.Builder().url(url).build(), new Listener());
+            }
+            call = new Call(socket);
+            for (int i = 0; i < size; i++) {
+                calls.put(firstId + i, call);
+            }
+        }
+        try {
+            if (!call.socket.send(payload)) {
+                throw new IOException("WebSocket to " + url + " is closed");
+            }
+            if (!call.done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("JSON-RPC over WebSocket timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } finally {
+            synchronized (this) {
+                for (int i = 0; i < size; i++) {
+                    calls.remove(firstId + i);
+                }
+            }
+        }
+        if (call.error != null) throw call.error;
+        return call.text;
+    }
+
+    synchronized void close() {
+        if (socket != null) {
+            socket.close(1000, null);
+            fail(socket, new IOException("WebSocket to " + url + " was closed"));
+        }
+    }
+
+    private synchronized void answer(String text) {
+        Call call;
+        try {
+            Long id = firstId(text);
+            if (id == null) {
+                // an error without id answers the oldest call, the node could not read it
+                Iterator<Call> oldest = calls.values().iterator();
+                call = oldest.hasNext() ? oldest.next() : null;
+            } else {
+                call = calls.get(id);
+            }
+        } catch (JSONException e) {
+            return;
+        }
+        if (call == null || call.done.getCount() == 0) return;
+        call.text = text;
+        call.done.countDown();
+    }
+
+    private synchronized void fail(WebSocket failed, IOException error) {
+        if (socket == failed) socket = null;
+        List<Call> failedCalls = new ArrayList<>();
+        for (Call call : calls.values()) {
+            if (call.socket == failed) failedCalls.add(call);
+        }
+        for (Call call : failedCalls) {
+            if (call.done.getCount() == 0) continue;
+            call.error = error;
+            call.done.countDown();
+        }
+    }
+
+    /** Id of the first call answered in {@code text}, or {@code null} if it carries none. */
+    private static Long firstId(String text) throws JSONException {
+        String trimmed = text.trim();
+        JSONObject item;
+        if (trimmed.startsWith("[")) {
+            JSONArray array = new JSONArray(trimmed);
+            if (array.length() == 0) return null;
+            item = array.getJSONObject(0);
+        } else {
+            item = new JSONObject(trimmed);
+        }
+        if (item.isNull("id")) {
+            // subscription notifications carry a method instead, nobody waits on them here
+            return item.has("method") ? Long.valueOf(-1) : null;
+        }
+        return item.getLong("id");
+    }
+
+    private class Listener extends WebSocketListener {
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            answer(text);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+            fail(webSocket, new IOException("WebSocket to " + url + " closed: " + code + " " + reason));
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            fail(webSocket, t instanceof IOException ? (IOException) t : new IOException(t));
+        }
+    }
+}
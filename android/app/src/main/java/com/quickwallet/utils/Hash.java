@@ -1,9 +1,31 @@
 package com.quickwallet.utils;
 
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Hash {
+  private static final byte[] PERSONAL_MESSAGE_PREFIX =
+      "\u0019Ethereum Signed Message:\n".getBytes(Charset.forName("UTF-8"));
+
+  private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("Couldn't find a SHA-256 provider", e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Keccak256> KECCAK256 = new ThreadLocal<Keccak256>() {
+    @Override
+    protected Keccak256 initialValue() {
+      return new Keccak256();
+    }
+  };
+
   private Hash() { }
 
   /**
@@ -14,12 +36,48 @@ public class Hash {
    * @throws RuntimeException If we couldn't find any SHA-256 provider
    */
   public static byte[] sha256(byte[] input) {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-256");
-      return digest.digest(input);
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("Couldn't find a SHA-256 provider", e);
+    MessageDigest digest = SHA256.get();
+    digest.reset();
+    return digest.digest(input);
+  }
+
+  /**
+   * Generates the Ethereum Keccak-256 digest for the given {@code input}.
+   *
+   * @param input The input to digest
+   * @return The 32 byte hash value for the given input
+   */
+  public static byte[] keccak256(byte[] input) {
+    return keccak256(input, 0, input.length);
+  }
+
+  public static byte[] keccak256(byte[] input, int offset, int length) {
+    Keccak256 keccak = KECCAK256.get();
+    keccak.reset();
+    return keccak.update(input, offset, length).digest();
+  }
+
+  /**
+   * Generates the EIP-191 hash signed by {@code personal_sign}, i.e. the Keccak-256 of
+   * {@code "\x19Ethereum Signed Message:\n" + message.length + message}, without building the
+   * concatenated buffer.
+   *
+   * @param message The raw message bytes
+   * @return The 32 byte hash to sign
+   */
+  public static byte[] personalMessageHash(byte[] message) {
+    Keccak256 keccak = KECCAK256.get();
+    keccak.reset();
+    keccak.update(PERSONAL_MESSAGE_PREFIX);
+    int length = message.length;
+    int divisor = 1;
+    while (divisor <= length / 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      keccak.update((byte) ('0' + length / divisor % 10));
     }
+    return keccak.update(message).digest();
   }
 
 }
@@ -0,0 +1,106 @@
+package com.quickwallet.utils;
+
+/**
+ * Table-driven hex codec for keys, hashes, signatures and calldata.
+ *
+ * <p>Decoding accepts an optional {@code 0x}/{@code 0X} prefix and rejects odd lengths and
+ * non-hex characters instead of silently producing garbage bytes. The buffer variants write into
+ * caller-supplied arrays so hot paths can avoid intermediate allocations.
+ */
+public class HexUtil {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexUtil() { }
+
+    public static boolean hasPrefix(CharSequence hex) {
+        return hex.length() >= 2 && hex.charAt(0) == '0' && (hex.charAt(1) == 'x' || hex.charAt(1) == 'X');
+    }
+
+    /**
+     * Number of bytes {@code hex} decodes to.
+     *
+     * @throws IllegalArgumentException if the digit count is odd
+     */
+    public static int decodedLength(CharSequence hex) {
+        int digits = hex.length() - (hasPrefix(hex) ? 2 : 0);
+        if ((digits & 1) != 0) {
+            throw new IllegalArgumentException("Hex string has an odd number of digits");
+        }
+        return digits >> 1;
+    }
+
+    /**
+     * Decodes {@code hex}, with or without a {@code 0x} prefix.
+     *
+     * @throws IllegalArgumentException if {@code hex} is not valid hex
+     */
+    public static byte[] decode(CharSequence hex) {
+        byte[] out = new byte[decodedLength(hex)];
+        decode(hex, out, 0);
+        return out;
+    }
+
+    /**
+     * Decodes {@code hex} into {@code out} starting at {@code offset}.
+     *
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if {@code hex} is not valid hex
+     */
+    public static int decode(CharSequence hex, byte[] out, int offset) {
+        int length = decodedLength(hex);
+        if (offset < 0 || offset + length > out.length) {
+            throw new IndexOutOfBoundsException("Output buffer too small");
+        }
+        int pos = hasPrefix(hex) ? 2 : 0;
+        for (int i = 0; i < length; i++, pos += 2) {
+            char high = hex.charAt(pos);
+            char low = hex.charAt(pos + 1);
+            int value = (high | low) < 128 ? VALUES[high] << 4 | VALUES[low] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid hex digits at " + pos + ": " + high + low);
+            }
+            out[offset + i] = (byte) value;
+        }
+        return length;
+    }
+
+    /** Encodes {@code data} as a lower-case, {@code 0x}-prefixed string. */
+    public static String encode(byte[] data) {
+        char[] out = new char[2 + data.length * 2];
+        out[0] = '0';
+        out[1] = 'x';
+        encode(data, 0, data.length, out, 2);
+        return new String(out);
+    }
+
+    /**
+     * Encodes {@code length} bytes of {@code data} as lower-case digits into {@code out}.
+     *
+     * @return the number of chars written
+     */
+    public static int encode(byte[] data, int offset, int length, char[] out, int outOffset) {
+        if (outOffset < 0 || outOffset + length * 2 > out.length) {
+            throw new IndexOutOfBoundsException("Output buffer too small");
+        }
+        for (int i = 0; i < length; i++) {
+            int b = data[offset + i];
+            out[outOffset++] = DIGITS[(b >> 4) & 0xf];
+            out[outOffset++] = DIGITS[b & 0xf];
+        }
+        return length * 2;
+    }
+}
@@ -0,0 +1,135 @@
+package com.quickwallet.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Public key derivation on secp256k1, the only curve operation HD key derivation needs outside
+ * of geth.
+ *
+ * <p>Multiples {@code 2^i * G} are computed once and kept in affine form, so {@code k * G} is one
+ * mixed Jacobian addition per set bit of {@code k} and a single modular inverse at the end.
+ * This is not constant-time; it is used to derive addresses from keys the device already holds.
+ */
+public class Secp256k1 {
+    public static final BigInteger P = new BigInteger("fffffffffffffffffffffffffffffffffffffffffffffffffffffffefffffc2f", 16);
+    public static final BigInteger N = new BigInteger("fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141", 16);
+
+    private static final BigInteger GX = new BigInteger("79be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798", 16);
+    private static final BigInteger GY = new BigInteger("483ada7726a3c4655da4fbfc0e1108a8fd17b448a68554199c47d08ffb10d4b8", 16);
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+    private static final BigInteger EIGHT = BigInteger.valueOf(8);
+
+    /** {@code 2^i * G} in affine coordinates. */
+    private static volatile BigInteger[][] powers;
+
+    private Secp256k1() { }
+
+    /**
+     * @return the 65 byte uncompressed public key {@code 0x04 || x || y} of {@code privateKey}
+     */
+    public static byte[] publicKey(byte[] privateKey) {
+        BigInteger[] point = multiplyG(new BigInteger(1, privateKey));
+        byte[] out = new byte[65];
+        out[0] = 4;
+        writeUnsigned(point[0], out, 1);
+        writeUnsigned(point[1], out, 33);
+        return out;
+    }
+
+    /**
+     * @return the 33 byte compressed public key {@code 0x02/0x03 || x} of {@code privateKey}
+     */
+    public static byte[] compressedPublicKey(byte[] privateKey) {
+        BigInteger[] point = multiplyG(new BigInteger(1, privateKey));
+        byte[] out = new byte[33];
+        out[0] = (byte) (point[1].testBit(0) ? 3 : 2);
+        writeUnsigned(point[0], out, 1);
+        return out;
+    }
+
+    private static BigInteger[] multiplyG(BigInteger k) {
+        if (k.signum() <= 0 || k.compareTo(N) >= 0) {
+            throw new IllegalArgumentException("Private key out of range");
+        }
+        BigInteger[][] table = getPowers();
+        // Jacobian (x, y, z); null x means the point at infinity
+        BigInteger x = null, y = null, z = null;
+        for (int i = 0; i < 256; i++) {
+            if (!k.testBit(i)) continue;
+            BigInteger qx = table[i][0], qy = table[i][1];
+            if (x == null) {
+                x = qx;
+                y = qy;
+                z = BigInteger.ONE;
+                continue;
+            }
+            BigInteger zz = z.multiply(z).mod(P);
+            BigInteger u2 = qx.multiply(zz).mod(P);
+            BigInteger s2 = qy.multiply(zz).multiply(z).mod(P);
+            BigInteger h = u2.subtract(x).mod(P);
+            BigInteger r = s2.subtract(y).mod(P);
+            if (h.signum() == 0) {
+                if (r.signum() != 0) {
+                    x = null;
+                    continue;
+                }
+                BigInteger[] doubled = doubleJacobian(x, y, z);
+                x = doubled[0];
+                y = doubled[1];
+                z = doubled[2];
+                continue;
+            }
+            BigInteger hh = h.multiply(h).mod(P);
+            BigInteger hhh = hh.multiply(h).mod(P);
+            BigInteger v = x.multiply(hh).mod(P);
+            BigInteger x3 = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(P);
+            y = r.multiply(v.subtract(x3)).subtract(y.multiply(hhh)).mod(P);
+            z = z.multiply(h).mod(P);
+            x = x3;
+        }
+        if (x == null) {
+            throw new IllegalArgumentException("Private key out of range");
+        }
+        BigInteger zInv = z.modInverse(P);
+        BigInteger zInv2 = zInv.multiply(zInv).mod(P);
+        return new BigInteger[]{x.multiply(zInv2).mod(P), y.multiply(zInv2).multiply(zInv).mod(P)};
+    }
+
+    private static BigInteger[] doubleJacobian(BigInteger x, BigInteger y, BigInteger z) {
+        BigInteger yy = y.multiply(y).mod(P);
+        BigInteger s = x.multiply(yy).shiftLeft(2).mod(P);
+        BigInteger m = x.multiply(x).multiply(THREE).mod(P);
+        BigInteger x3 = m.multiply(m).subtract(s.shiftLeft(1)).mod(P);
+        BigInteger y3 = m.multiply(s.subtract(x3)).subtract(yy.multiply(yy).multiply(EIGHT)).mod(P);
+        BigInteger z3 = y.multiply(z).shiftLeft(1).mod(P);
+        return new BigInteger[]{x3, y3, z3};
+    }
+
+    private static BigInteger[][] getPowers() {
+        BigInteger[][] table = powers;
+        if (table != null) return table;
+        synchronized (Secp256k1.class) {
+            if (powers != null) return powers;
+            table = new BigInteger[256][];
+            BigInteger x = GX, y = GY;
+            for (int i = 0; i < 256; i++) {
+                table[i] = new BigInteger[]{x, y};
+                // affine doubling: lambda = 3x^2 / 2y
+                BigInteger lambda = x.multiply(x).multiply(THREE).multiply(y.multiply(TWO).modInverse(P)).mod(P);
+                BigInteger x2 = lambda.multiply(lambda).subtract(x.shiftLeft(1)).mod(P);
+                y = lambda.multiply(x.subtract(x2)).subtract(y).mod(P);
+                x = x2;
+            }
+            powers = table;
+            return table;
+        }
+    }
+
+    private static void writeUnsigned(BigInteger value, byte[] out, int offset) {
+        byte[] bytes = value.toByteArray();
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, out, offset + 32 - length, length);
+    }
+}
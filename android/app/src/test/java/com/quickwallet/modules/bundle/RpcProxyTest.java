@@ -0,0 +1,181 @@
+package com.quickwallet.modules.bundle;
+
+import com.quickwallet.modules.geth.rpc.CachingRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.RpcCache;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RpcProxyTest {
+    private static final String CALL = "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"eth_call\","
+            + "\"params\":[{\"to\":\"0x6fac4d18c912343bf86fa7049364dd4e424ab9c0\",\"data\":\"0x70a08231\"},\"latest\"]}";
+
+    private static final String RECEIPT = "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"eth_getTransactionReceipt\","
+            + "\"params\":[\"0x88df016429689c079f3b2f6ad39fa052532c56795b733da78a91ebe6a713944b\"]}";
+    private static final String CODE = "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"eth_getCode\","
+            + "\"params\":[\"0x6fac4d18c912343bf86fa7049364dd4e424ab9c0\",\"latest\"]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private ScheduledExecutorService scheduler;
+    private RpcProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_call", "0x01")
+                .result("eth_getTransactionReceipt", new JSONObject().put("status", "0x1").put("blockNumber", "0x2"))
+                .result("eth_getCode", "0x6080")
+                .result("eth_blockNumber", "0x10");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        proxy = new RpcProxy(scheduler);
+        proxy.configure(new JsonRpcClient(new OkHttpClient(), server.url("/").toString()), 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void answersChainIdentityLocally() throws Exception {
+        JSONArray responses = new JSONArray(proxy.handle("[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"net_version\",\"params\":[]}]"));
+        assertEquals("0x4", responses.getJSONObject(0).getString("result"));
+        assertEquals(2, responses.getJSONObject(1).getInt("id"));
+        assertEquals("4", responses.getJSONObject(1).getString("result"));
+        assertEquals(0, node.getHttpRequests());
+    }
+
+    @Test
+    public void joinsConcurrentCallsAndCachesThemForTheBlock() throws Exception {
+        node.delay(100);
+        final CountDownLatch done = new CountDownLatch(8);
+        final List<String> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int id = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String response = proxy.handle(String.format(CALL, id));
+                    synchronized (results) {
+                        results.add(response);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(8, results.size());
+        for (String response : results) {
+            assertEquals("0x01", new JSONObject(response).getString("result"));
+        }
+        // one call plus the head, in one request
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(2, node.getCalls());
+
+        node.delay(0);
+        assertEquals("0x10", new JSONObject(proxy.handle(
+                "{\"jsonrpc\":\"2.0\",\"id\":9,\"method\":\"eth_blockNumber\",\"params\":[]}")).getString("result"));
+        assertEquals("0x01", new JSONObject(proxy.handle(String.format(CALL, 10))).getString("result"));
+        assertEquals(1, node.getHttpRequests());
+    }
+
+    @Test
+    public void servesHttpFromLoopback() throws Exception {
+        LocalRpcServer rpcServer = new LocalRpcServer(proxy);
+        rpcServer.start();
+        try {
+            OkHttpClient http = new OkHttpClient();
+            Response preflight = http.newCall(new Request.Builder()
+                    .url(rpcServer.getUrl())
+                    .method("OPTIONS", null)
+                    .header("Origin", "https://dapp.example")
+                    .build()).execute();
+            assertEquals(204, preflight.code());
+            assertEquals("https://dapp.example", preflight.header("Access-Control-Allow-Origin"));
+            preflight.close();
+
+            Response response = http.newCall(new Request.Builder()
+                    .url(rpcServer.getUrl())
+                    .post(RequestBody.create(MediaType.parse("application/json"), String.format(CALL, 1)))
+                    .build()).execute();
+            assertEquals(200, response.code());
+            assertNull(response.header("Access-Control-Allow-Origin"));
+            assertEquals("0x01", new JSONObject(response.body().string()).getString("result"));
+        } finally {
+            rpcServer.stop();
+        }
+    }
+
+    @Test
+    public void rejectsRequestsWithoutTheSecret() throws Exception {
+        LocalRpcServer rpcServer = new LocalRpcServer(proxy);
+        rpcServer.start();
+        try {
+            HttpUrl url = HttpUrl.parse(rpcServer.getUrl());
+            assertEquals(32, url.encodedPath().length() - 1);
+            OkHttpClient http = new OkHttpClient();
+            for (String path : new String[] {"/", "/0123456789abcdef0123456789abcdef", url.encodedPath() + "x"}) {
+                Response response = http.newCall(new Request.Builder()
+                        .url(url.newBuilder().encodedPath(path).build())
+                        .post(RequestBody.create(MediaType.parse("application/json"), String.format(CALL, 1)))
+                        .header("Origin", "https://evil.example")
+                        .build()).execute();
+                assertEquals(404, response.code());
+                assertNull(response.header("Access-Control-Allow-Origin"));
+                response.close();
+            }
+            assertEquals(0, node.getHttpRequests());
+        } finally {
+            rpcServer.stop();
+        }
+    }
+
+    @Test
+    public void finalResultsComeFromTheRpcCache() throws Exception {
+        JsonRpcClient upstream = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+        RpcProxy cached = new RpcProxy(scheduler);
+        cached.configure(new CachingRpcClient(upstream, new RpcCache(folder.newFolder("rpcCache")), 4), 4);
+
+        // the first batch also reads the head, so the receipt is judged final from the second on
+        assertEquals("0x6080", new JSONObject(cached.handle(String.format(CODE, 1))).getString("result"));
+        assertEquals("0x1", new JSONObject(cached.handle(String.format(RECEIPT, 2))).getJSONObject("result").getString("status"));
+        int requests = node.getHttpRequests();
+
+        assertEquals("0x6080", new JSONObject(cached.handle(String.format(CODE, 3))).getString("result"));
+        assertEquals("0x1", new JSONObject(cached.handle(String.format(RECEIPT, 4))).getJSONObject("result").getString("status"));
+        assertEquals(requests, node.getHttpRequests());
+    }
+}
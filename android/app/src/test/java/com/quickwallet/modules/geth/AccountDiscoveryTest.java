@@ -0,0 +1,92 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.JsonRpcException;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AccountDiscoveryTest {
+    private static final String MNEMONIC =
+            "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_getBalance", "0x0")
+                .result("eth_getTransactionCount", "0x0");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void stopsAfterGapLimitEmptyAddresses() throws Exception {
+        HdKeyDeriver deriver = HdKeyDeriver.fromMnemonic(MNEMONIC, "");
+        node.result("eth_getBalance:" + deriver.address(2), "0xde0b6b3a7640000");
+        node.result("eth_getTransactionCount:" + deriver.address(5), "0x3");
+
+        List<AccountDiscovery.Found> found = AccountDiscovery.scan(deriver, client, 3, executor, 2);
+
+        assertEquals(2, found.size());
+        assertEquals(2, found.get(0).index);
+        assertEquals(deriver.address(2), found.get(0).address);
+        assertEquals(new BigInteger("1000000000000000000"), found.get(0).balance);
+        assertEquals(5, found.get(1).index);
+        assertEquals(3, found.get(1).nonce);
+        // windows 0-2, 3-5 and 6-8, one batch request each
+        assertEquals(3, node.getHttpRequests());
+        assertEquals(18, node.getCalls());
+    }
+
+    @Test
+    public void freshSeedNeedsOneRequest() throws Exception {
+        HdKeyDeriver deriver = HdKeyDeriver.fromMnemonic(MNEMONIC, "");
+
+        List<AccountDiscovery.Found> found = AccountDiscovery.scan(deriver, client, AccountDiscovery.DEFAULT_GAP_LIMIT, executor, 2);
+
+        assertEquals(0, found.size());
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(2 * AccountDiscovery.DEFAULT_GAP_LIMIT, node.getCalls());
+    }
+
+    @Test
+    public void nodeErrorsKeepTheirCodeAndMessage() throws Exception {
+        HdKeyDeriver deriver = HdKeyDeriver.fromMnemonic(MNEMONIC, "");
+        node.error("eth_getBalance:" + deriver.address(1), "header not found");
+
+        try {
+            AccountDiscovery.scan(deriver, client, 3, executor, 2);
+            fail("scan ignored the node error");
+        } catch (JsonRpcException e) {
+            assertEquals(-32000, e.getCode());
+            assertEquals("header not found", e.getMessage());
+        }
+    }
+}
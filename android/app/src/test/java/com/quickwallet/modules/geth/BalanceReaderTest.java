@@ -0,0 +1,150 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BalanceReaderTest {
+    private static final String HOLDER = "0x38bcc5b8b793f544d86a94bd2ae94196567b865c";
+    private static final String TOKEN = "0x641f543e76cd0dfe81717d91ab532831468fa3ce";
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void encodesCallsLikeTheSolidityAbi() {
+        byte[] encoded = Multicall.encodeTryBlockAndAggregate(Arrays.asList(
+                new Multicall.Call(TOKEN, Multicall.balanceOf(HOLDER)),
+                new Multicall.Call(TOKEN, new byte[]{1, 2})));
+
+        String expected = "399542e9"
+                + word(0) + word(0x40)
+                + word(2) + word(0x40) + word(0x40 + 0xa0)
+                + pad(TOKEN.substring(2)) + word(0x40) + word(36)
+                + "70a08231" + pad(HOLDER.substring(2)) + repeat("00", 28)
+                + pad(TOKEN.substring(2)) + word(0x40) + word(2) + "0102" + repeat("00", 30);
+        assertEquals(expected, hex(encoded));
+    }
+
+    @Test
+    public void readsAllBalancesInOneRequest() throws Exception {
+        node.result("eth_call", "0x" + aggregate(1234, new String[]{word(5), word(7), null}));
+
+        List<BalanceReader.Query> queries = new ArrayList<>();
+        queries.add(new BalanceReader.Query(HOLDER, null));
+        queries.add(new BalanceReader.Query(HOLDER, TOKEN));
+        queries.add(new BalanceReader.Query(HOLDER, TOKEN));
+        BalanceReader.Snapshot snapshot = new BalanceReader(client).read(queries);
+
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(1234, snapshot.blockNumber);
+        assertEquals(BigInteger.valueOf(5), snapshot.balances.get(0).balance);
+        assertNull(snapshot.balances.get(0).token);
+        assertEquals(BigInteger.valueOf(7), snapshot.balances.get(1).balance);
+        assertNull(snapshot.balances.get(2).balance);
+    }
+
+    @Test
+    public void chunksByGasBudget() throws Exception {
+        node.result("eth_call", "0x" + aggregate(99, new String[]{word(1), word(2)}));
+
+        List<BalanceReader.Query> queries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            queries.add(new BalanceReader.Query(HOLDER, TOKEN));
+        }
+        BalanceReader.Snapshot snapshot = new BalanceReader(client, Multicall.DEFAULT_ADDRESS, 60000).read(queries);
+
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(2, node.getCalls());
+        assertEquals(4, snapshot.balances.size());
+        assertEquals(BigInteger.valueOf(2), snapshot.balances.get(3).balance);
+    }
+
+    @Test
+    public void decodesAggregateResult() {
+        Multicall.Aggregate aggregate = Multicall.decodeTryBlockAndAggregate(
+                unhex(aggregate(42, new String[]{word(3), null})));
+
+        assertEquals(42, aggregate.blockNumber);
+        assertEquals(2, aggregate.results.size());
+        assertEquals(BigInteger.valueOf(3), aggregate.results.get(0).getUint256());
+        assertArrayEquals(new byte[0], aggregate.results.get(1).returnData);
+        assertNull(aggregate.results.get(1).getUint256());
+    }
+
+    /** ABI output of tryBlockAndAggregate, a null entry stands for a failed call. */
+    private static String aggregate(long blockNumber, String[] returnWords) {
+        StringBuilder out = new StringBuilder();
+        out.append(word(blockNumber)).append(repeat("ab", 32)).append(word(0x60));
+        out.append(word(returnWords.length));
+        int offset = returnWords.length * 32;
+        for (String data : returnWords) {
+            out.append(word(offset));
+            offset += data == null ? 96 : 128;
+        }
+        for (String data : returnWords) {
+            out.append(word(data == null ? 0 : 1)).append(word(0x40));
+            out.append(word(data == null ? 0 : 32));
+            if (data != null) out.append(data);
+        }
+        return out.toString();
+    }
+
+    private static String word(long value) {
+        return pad(Long.toHexString(value));
+    }
+
+    private static String pad(String hex) {
+        return repeat("0", 64 - hex.length()) + hex;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) builder.append(s);
+        return builder.toString();
+    }
+
+    private static String hex(byte[] data) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : data) builder.append(String.format("%02x", b));
+        return builder.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return data;
+    }
+}
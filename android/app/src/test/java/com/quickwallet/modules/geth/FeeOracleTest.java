@@ -0,0 +1,88 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FeeOracleTest {
+    private static final BigInteger GWEI = BigInteger.valueOf(1000000000L);
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void suggestsFromFeeHistoryOncePerBlock() throws Exception {
+        // next base fee 8 gwei, tips of 1, 2 and 3 gwei in every block
+        JSONArray rewards = new JSONArray();
+        for (int i = 0; i < 4; i++) {
+            rewards.put(new JSONArray().put(hex(GWEI)).put(hex(GWEI.shiftLeft(1))).put(hex(GWEI.multiply(BigInteger.valueOf(3)))));
+        }
+        node.result("eth_gasPrice", hex(GWEI.multiply(BigInteger.valueOf(9))))
+                .result("eth_feeHistory", new JSONObject()
+                        .put("baseFeePerGas", new JSONArray().put(hex(GWEI.shiftLeft(3))))
+                        .put("reward", rewards));
+        FeeOracle oracle = new FeeOracle();
+
+        FeeOracle.Fees fees = oracle.sample(client, 100);
+        assertTrue(fees.fromFeeHistory);
+        assertEquals(GWEI.multiply(BigInteger.valueOf(9)), fees.slow);
+        assertEquals(GWEI.multiply(BigInteger.valueOf(11)), fees.normal);
+        assertEquals(GWEI.multiply(BigInteger.valueOf(13)), fees.fast);
+
+        assertSame(fees, oracle.sample(client, 100));
+        assertSame(fees, oracle.get());
+        assertEquals(1, node.getHttpRequests());
+    }
+
+    @Test
+    public void fallsBackToGasPricePercentilesWithoutFeeHistory() throws Exception {
+        FeeOracle oracle = new FeeOracle();
+        for (int block = 1; block <= 10; block++) {
+            node.result("eth_gasPrice", hex(GWEI.multiply(BigInteger.valueOf(block))));
+            oracle.sample(client, block);
+        }
+        // fee history was asked for once and never again
+        assertEquals(11, node.getCalls());
+
+        FeeOracle.Fees fees = oracle.get();
+        assertFalse(fees.fromFeeHistory);
+        assertEquals(GWEI, fees.slow);
+        // never below the latest price, and fast keeps a quarter of headroom over it
+        assertEquals(GWEI.multiply(BigInteger.TEN), fees.normal);
+        assertEquals(GWEI.multiply(BigInteger.valueOf(25)).divide(BigInteger.valueOf(2)), fees.fast);
+    }
+
+    private static String hex(BigInteger value) {
+        return "0x" + value.toString(16);
+    }
+}
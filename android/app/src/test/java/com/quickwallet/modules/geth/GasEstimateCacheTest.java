@@ -0,0 +1,84 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GasEstimateCacheTest {
+    private static final String TOKEN = "0x6fac4d18c912343bf86fa7049364dd4e424ab9c0";
+    private static final byte[] TRANSFER = new byte[68];
+
+    static {
+        TRANSFER[0] = (byte) 0xa9;
+        TRANSFER[1] = (byte) 0x05;
+        TRANSFER[2] = (byte) 0x9c;
+        TRANSFER[3] = (byte) 0xbb;
+    }
+
+    @Test
+    public void keysOnContractSelectorAndLength() {
+        String key = GasEstimateCache.key(4, TOKEN.toUpperCase().replace("0X", "0x"), TRANSFER);
+        assertEquals("4:" + TOKEN + ":a9059cbb:68", key);
+        assertFalse(key.equals(GasEstimateCache.key(1, TOKEN, TRANSFER)));
+        assertEquals("4:" + TOKEN + "::0", GasEstimateCache.key(4, TOKEN, null));
+    }
+
+    @Test
+    public void keepsTheHighestEstimate() {
+        GasEstimateCache cache = new GasEstimateCache();
+        String key = GasEstimateCache.key(4, TOKEN, TRANSFER);
+        assertEquals(0, cache.get(key, 0));
+
+        assertEquals(GasEstimateCache.withMargin(51000), cache.put(key, 51000, 0));
+        assertEquals(GasEstimateCache.withMargin(51000), cache.put(key, 36000, 10));
+        assertEquals(GasEstimateCache.withMargin(51000), cache.get(key, 20));
+
+        cache.invalidate(key);
+        assertEquals(0, cache.get(key, 30));
+    }
+
+    @Test
+    public void expiresByBlocksOrElseByWallTime() {
+        GasEstimateCache cache = new GasEstimateCache(8, 10);
+        String key = GasEstimateCache.key(4, TOKEN, TRANSFER);
+
+        // no head yet: ten blocks of 15 seconds
+        cache.put(key, 51000, 0);
+        assertEquals(GasEstimateCache.withMargin(51000), cache.get(key, 150000));
+        assertEquals(0, cache.get(key, 150001));
+
+        cache.onNewBlock(100);
+        cache.put(key, 36000, 0);
+        cache.onNewBlock(110);
+        assertEquals(GasEstimateCache.withMargin(36000), cache.get(key, Long.MAX_VALUE));
+        cache.onNewBlock(111);
+        assertEquals(0, cache.get(key, 0));
+
+        // an expired entry does not keep its old maximum
+        cache.put(key, 51000, 0);
+        cache.onNewBlock(200);
+        assertEquals(GasEstimateCache.withMargin(30000), cache.put(key, 30000, 0));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedContract() {
+        GasEstimateCache cache = new GasEstimateCache(2, 10);
+        String first = GasEstimateCache.key(4, String.format("0x%040x", 1), TRANSFER);
+        String second = GasEstimateCache.key(4, String.format("0x%040x", 2), TRANSFER);
+        String third = GasEstimateCache.key(4, String.format("0x%040x", 3), TRANSFER);
+
+        cache.put(first, 51000, 0);
+        cache.put(second, 52000, 0);
+        // touch the first one so the second is the least recently used
+        cache.get(first, 0);
+        cache.put(third, 53000, 0);
+
+        assertEquals(GasEstimateCache.withMargin(51000), cache.get(first, 0));
+        assertEquals(0, cache.get(second, 0));
+        assertEquals(GasEstimateCache.withMargin(53000), cache.get(third, 0));
+
+        cache.clear();
+        assertEquals(0, cache.get(first, 0));
+    }
+}
@@ -0,0 +1,60 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.utils.HexUtil;
+import com.quickwallet.utils.Secp256k1;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HdKeyDeriverTest {
+    private static final String MNEMONIC =
+            "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+
+    @Test
+    public void followsBip32TestVectorOne() throws Exception {
+        byte[][] master = HdKeyDeriver.master(HexUtil.decode("000102030405060708090a0b0c0d0e0f"));
+        assertEquals("0xe8f32e723decf4051aefac8e2c93c9c5b214313817cdb01a1494b917c8436b35", HexUtil.encode(master[0]));
+        assertEquals("0x873dff81c02f525623fd1fe5167eac3a55a049de3d314bb42ee227ffed37d508", HexUtil.encode(master[1]));
+        assertEquals("0x0339a36013301597daef41fbe593a02cc513d0b55527ec2df1050e2e8ff49c85c2",
+                HexUtil.encode(Secp256k1.compressedPublicKey(master[0])));
+
+        byte[][] hardened = HdKeyDeriver.child(master[0], master[1], null, HdKeyDeriver.HARDENED);
+        assertEquals("0xedb2e14f9ee77d26dd93b4ecede8d16ed408ce149b6cd80b0715a2d911a0afea", HexUtil.encode(hardened[0]));
+
+        byte[][] normal = HdKeyDeriver.child(hardened[0], hardened[1], null, 1);
+        assertEquals("0x3c6cb8d0f6a264c91ea8b5030fadaa8e538b020f0a387421a12de9319dc93368", HexUtil.encode(normal[0]));
+        assertEquals("0x2a7857631386ba23dacac34180dd1983734e444fdbf774041578e9b6adb37c19", HexUtil.encode(normal[1]));
+    }
+
+    @Test
+    public void derivesEthereumAccountsFromMnemonic() throws Exception {
+        assertEquals("0x5eb00bbddcf069084889a8ab9155568165f5c453ccb85e70811aaed6f6da5fc1"
+                        + "9a5ac40b389cd370d086206dec8aa6c43daea6690f20ad3d8d48b2d2ce9e38e4",
+                HexUtil.encode(HdKeyDeriver.seed(MNEMONIC, "")));
+
+        HdKeyDeriver deriver = HdKeyDeriver.fromMnemonic(MNEMONIC, "");
+        assertEquals("0x9858effd232b4033e47d90003d41ec34ecaeda94", deriver.address(0));
+        assertEquals("0x6fac4d18c912343bf86fa7049364dd4e424ab9c0", deriver.address(1));
+    }
+
+    @Test
+    public void parallelDerivationMatchesSequential() throws Exception {
+        HdKeyDeriver deriver = HdKeyDeriver.fromMnemonic(MNEMONIC, "");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            String[] parallel = deriver.addresses(5, 23, executor, 4);
+            String[] sequential = new String[23];
+            for (int i = 0; i < sequential.length; i++) {
+                sequential[i] = deriver.address(5 + i);
+            }
+            assertArrayEquals(sequential, parallel);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
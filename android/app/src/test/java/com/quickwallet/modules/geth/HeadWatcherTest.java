@@ -0,0 +1,98 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HeadWatcherTest {
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private ScheduledExecutorService scheduler;
+    private String url;
+    private JsonRpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher().result("eth_blockNumber", "0x10");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        url = server.url("/").toString();
+        client = new JsonRpcClient(new OkHttpClient(), url);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void pollsOnlyWhileSomeoneListens() throws Exception {
+        final BlockingQueue<Long> blocks = new LinkedBlockingQueue<>();
+        HeadWatcher.Listener listener = new HeadWatcher.Listener() {
+            @Override
+            public void onNewBlock(long blockNumber) {
+                blocks.add(blockNumber);
+            }
+        };
+        HeadWatcher watcher = new HeadWatcher(scheduler, scheduler);
+        watcher.setEndpoint(url, client);
+        assertEquals(0, node.getHttpRequests());
+
+        watcher.addListener(listener);
+        assertEquals(Long.valueOf(16), blocks.poll(5, TimeUnit.SECONDS));
+        assertEquals(16, watcher.getLastBlock());
+
+        watcher.removeListener(listener);
+        int requests = node.getHttpRequests();
+        Thread.sleep(100);
+        assertEquals(requests, node.getHttpRequests());
+
+        node.result("eth_blockNumber", "0x11");
+        watcher.addListener(listener);
+        assertEquals(Long.valueOf(17), blocks.poll(5, TimeUnit.SECONDS));
+        watcher.pause();
+        assertNull(blocks.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void waitsForTheNextBlockThenBacksOff() {
+        long now = 100000;
+        // a block just arrived on a 12s chain: sleep until the next one is due
+        assertEquals(12000, HeadWatcher.pollDelay(12000, now, 0, now));
+        assertEquals(4000, HeadWatcher.pollDelay(12000, now - 8000, 0, now));
+        // it is late: poll at a quarter of the block time, doubling with every empty poll
+        assertEquals(3000, HeadWatcher.pollDelay(12000, now - 12000, 0, now));
+        assertEquals(3000, HeadWatcher.pollDelay(12000, now - 15000, 1, now));
+        assertEquals(6000, HeadWatcher.pollDelay(12000, now - 18000, 2, now));
+        assertEquals(HeadWatcher.MAX_POLL_INTERVAL, HeadWatcher.pollDelay(12000, now - 60000, 9, now));
+        // fast chains are never polled more than once a second
+        assertEquals(HeadWatcher.MIN_POLL_INTERVAL, HeadWatcher.pollDelay(2000, now - 2000, 1, now));
+    }
+
+    @Test
+    public void blockTimeFollowsTheChain() {
+        long average = HeadWatcher.DEFAULT_BLOCK_TIME;
+        for (int i = 0; i < 20; i++) {
+            average = HeadWatcher.averageBlockTime(average, 5000);
+        }
+        assertEquals(5000, average, 50);
+    }
+}
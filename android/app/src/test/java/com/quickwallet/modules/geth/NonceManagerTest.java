@@ -0,0 +1,111 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class NonceManagerTest {
+    private static final String FROM = "0x9858EfFD232B4033E47d90003D41EC34EcaEda94";
+    private static final long CHAIN_ID = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NonceManager nonces;
+    private StandInNode node;
+
+    @Before
+    public void setUp() {
+        nonces = new NonceManager();
+        node = new StandInNode(5);
+    }
+
+    @Test
+    public void handsOutConsecutiveNoncesAfterOneRead() throws Exception {
+        assertEquals(5, nonces.allocate(CHAIN_ID, FROM, 1, 0, node));
+        assertEquals(6, nonces.allocate(CHAIN_ID, FROM.toLowerCase(), 3, 10, node));
+        assertEquals(9, nonces.allocate(CHAIN_ID, FROM, 1, 20, node));
+        assertEquals(1, node.reads);
+
+        // every chain counts on its own
+        assertEquals(5, nonces.allocate(1, FROM, 1, 30, node));
+        assertEquals(2, node.reads);
+    }
+
+    @Test
+    public void resyncsAfterAFailureOrAnIdlePeriod() throws Exception {
+        nonces.setIdleTimeout(1000);
+        nonces.allocate(CHAIN_ID, FROM, 2, 0, node);
+
+        node.pending = 6;
+        nonces.invalidate(CHAIN_ID, FROM);
+        assertEquals(6, nonces.allocate(CHAIN_ID, FROM, 1, 10, node));
+        assertEquals(2, node.reads);
+
+        assertEquals(7, nonces.allocate(CHAIN_ID, FROM, 1, 1010, node));
+        node.pending = 20;
+        assertEquals(20, nonces.allocate(CHAIN_ID, FROM, 1, 2011, node));
+        assertEquals(3, node.reads);
+
+        nonces.reset();
+        assertEquals(20, nonces.allocate(CHAIN_ID, FROM, 1, 2020, node));
+        assertEquals(4, node.reads);
+    }
+
+    @Test
+    public void primingSkipsTheReadButLeavesAFreshCounterAlone() throws Exception {
+        nonces.prime(CHAIN_ID, FROM, 12, 0);
+        assertEquals(12, nonces.allocate(CHAIN_ID, FROM, 1, 10, node));
+        assertEquals(0, node.reads);
+
+        nonces.prime(CHAIN_ID, FROM, 3, 20);
+        assertEquals(13, nonces.allocate(CHAIN_ID, FROM, 1, 30, node));
+
+        nonces.invalidate(CHAIN_ID, FROM);
+        nonces.prime(CHAIN_ID, FROM, 3, 40);
+        assertEquals(3, nonces.allocate(CHAIN_ID, FROM, 1, 50, node));
+        assertEquals(0, node.reads);
+    }
+
+    @Test
+    public void neverResyncsBelowTheOutbox() throws Exception {
+        TxOutbox outbox = new TxOutbox(new File(folder.getRoot(), "txOutbox"));
+        outbox.add(entry(7));
+        outbox.add(entry(8));
+        nonces.setOutbox(outbox);
+
+        assertEquals(9, nonces.allocate(CHAIN_ID, FROM, 1, 0, node));
+        nonces.invalidate(CHAIN_ID, FROM);
+        nonces.prime(CHAIN_ID, FROM, 6, 10);
+        assertEquals(9, nonces.allocate(CHAIN_ID, FROM, 1, 20, node));
+
+        // a node that is ahead of the outbox wins
+        node.pending = 15;
+        nonces.invalidate(CHAIN_ID, FROM);
+        assertEquals(15, nonces.allocate(CHAIN_ID, FROM, 1, 30, node));
+    }
+
+    private static TxOutbox.Entry entry(long nonce) {
+        return new TxOutbox.Entry(String.format("0x%064x", nonce + 1), FROM, CHAIN_ID, nonce, String.format("0xf86b%02x", nonce));
+    }
+
+    private static class StandInNode implements NonceManager.PendingNonce {
+        long pending;
+        int reads;
+
+        StandInNode(long pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public long read() {
+            reads++;
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioStoreTest {
+    private static final String HOLDER = "0x9858EfFD232B4033E47d90003D41EC34EcaEda94";
+    private static final String TOKEN = "0x6FAC4D18c912343BF86fa7049364Dd4E424Ab9C0";
+
+    /** Answers from a table and records what it was asked. */
+    private static class TableReader extends BalanceReader {
+        final Map<String, BigInteger> balances = new HashMap<>();
+        final List<Integer> reads = new ArrayList<>();
+        long blockNumber;
+
+        TableReader() {
+            super(null);
+        }
+
+        @Override
+        public Snapshot read(List<Query> queries) {
+            reads.add(queries.size());
+            List<Balance> list = new ArrayList<>();
+            for (Query query : queries) {
+                list.add(new Balance(query, balances.get(query.token == null ? "eth" : "token")));
+            }
+            return new Snapshot(blockNumber, list);
+        }
+    }
+
+    private final List<BalanceReader.Query> queries = Arrays.asList(
+            new BalanceReader.Query(HOLDER, null),
+            new BalanceReader.Query(HOLDER, TOKEN));
+
+    @Test
+    public void readsOnlyWhatIsStale() throws Exception {
+        TableReader reader = new TableReader();
+        reader.balances.put("eth", BigInteger.TEN);
+        reader.balances.put("token", BigInteger.ONE);
+        reader.blockNumber = 100;
+        PortfolioStore store = new PortfolioStore();
+
+        store.track(queries);
+        assertFalse(store.isLoaded(queries));
+        assertEquals(2, store.refresh(reader).size());
+        assertTrue(store.isLoaded(queries));
+
+        // same block: served from memory
+        assertEquals(0, store.refresh(reader).size());
+        store.track(queries.subList(0, 1));
+        assertEquals(Arrays.asList(2), reader.reads);
+
+        // a new block makes everything stale, only changed balances are reported
+        store.onNewBlock(101);
+        reader.blockNumber = 101;
+        reader.balances.put("token", BigInteger.valueOf(2));
+        List<PortfolioStore.Holding> changed = store.refresh(reader);
+        assertEquals(1, changed.size());
+        assertEquals(TOKEN.toLowerCase(), changed.get(0).token);
+        assertEquals(Arrays.asList(2, 2), reader.reads);
+
+        List<PortfolioStore.Holding> holdings = store.get(queries);
+        assertEquals(BigInteger.TEN, holdings.get(0).balance);
+        assertNull(holdings.get(0).token);
+        assertEquals(BigInteger.valueOf(2), holdings.get(1).balance);
+        assertEquals(101, holdings.get(1).blockNumber);
+    }
+
+    @Test
+    public void failedTokenCallKeepsTheLastBalance() throws Exception {
+        TableReader reader = new TableReader();
+        reader.balances.put("eth", BigInteger.TEN);
+        reader.balances.put("token", BigInteger.ONE);
+        reader.blockNumber = 5;
+        PortfolioStore store = new PortfolioStore();
+        store.track(queries);
+        store.refresh(reader);
+
+        store.onNewBlock(6);
+        reader.blockNumber = 6;
+        reader.balances.remove("token");
+        store.refresh(reader);
+
+        PortfolioStore.Holding token = store.get(queries).get(1);
+        assertEquals(BigInteger.ONE, token.balance);
+        assertEquals(5, token.blockNumber);
+        assertTrue(store.isStale());
+    }
+}
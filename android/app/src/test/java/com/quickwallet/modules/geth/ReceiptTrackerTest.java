@@ -0,0 +1,125 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReceiptTrackerTest {
+    private static final String FROM = "0x9858effd232b4033e47d90003d41ec34ecaeda94";
+    private static final long CHAIN_ID = 4;
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+    private ReceiptTracker tracker;
+    private final List<String> events = new ArrayList<>();
+
+    private final ReceiptTracker.Listener listener = new ReceiptTracker.Listener() {
+        @Override
+        public void onConfirmed(ReceiptTracker.Pending tx, JSONObject receipt) {
+            events.add("confirmed " + tx.nonce);
+        }
+
+        @Override
+        public void onFailed(ReceiptTracker.Pending tx, JSONObject receipt) {
+            events.add("failed " + tx.nonce);
+        }
+
+        @Override
+        public void onDropped(ReceiptTracker.Pending tx) {
+            events.add("dropped " + tx.nonce + (tx.getReplacedBy() == null ? "" : " for " + tx.getReplacedBy()));
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_getTransactionCount", "0x0")
+                .result("eth_getTransactionReceipt", JSONObject.NULL);
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+        tracker = new ReceiptTracker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void checksAllPendingHashesInOneRequestPerBlock() throws Exception {
+        for (int nonce = 0; nonce < 3; nonce++) {
+            tracker.track(pending(nonce));
+        }
+        node.result("eth_getTransactionReceipt:" + hash(0), new JSONObject().put("status", "0x1"))
+                .result("eth_getTransactionReceipt:" + hash(1), new JSONObject().put("status", "0x0"));
+
+        assertEquals(2, tracker.check(client, CHAIN_ID, 100, listener));
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(4, node.getCalls());
+        assertEquals("[confirmed 0, failed 1]", events.toString());
+        assertEquals(1, tracker.size());
+
+        // the same block is not checked twice
+        assertEquals(0, tracker.check(client, CHAIN_ID, 100, listener));
+        assertEquals(1, node.getHttpRequests());
+    }
+
+    @Test
+    public void reportsDroppedOnlyAfterTheNonceStaysSpent() throws Exception {
+        tracker.track(pending(5));
+        node.result("eth_getTransactionCount:" + FROM, "0x6");
+
+        assertEquals(0, tracker.check(client, CHAIN_ID, 10, listener));
+        assertTrue(events.isEmpty());
+        assertEquals(1, tracker.check(client, CHAIN_ID, 11, listener));
+        assertEquals("[dropped 5]", events.toString());
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test
+    public void dropsReplacedTransactionsAsSoonAsOneIsMined() throws Exception {
+        String original = hash(7);
+        String speedUp = hash(8);
+        tracker.track(pending(7));
+        tracker.track(new ReceiptTracker.Pending(speedUp, FROM, CHAIN_ID, 7, original));
+        node.result("eth_getTransactionCount:" + FROM, "0x8")
+                .result("eth_getTransactionReceipt:" + speedUp, new JSONObject().put("status", "0x1"));
+
+        assertEquals(2, tracker.check(client, CHAIN_ID, 50, listener));
+        assertEquals("[confirmed 7, dropped 7 for " + speedUp + "]", events.toString());
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test
+    public void ignoresOtherChains() throws Exception {
+        tracker.track(new ReceiptTracker.Pending(hash(0), FROM, 1, 0));
+
+        assertEquals(0, tracker.check(client, CHAIN_ID, 1, listener));
+        assertEquals(0, node.getHttpRequests());
+        assertEquals(1, tracker.size());
+    }
+
+    private static ReceiptTracker.Pending pending(long nonce) {
+        return new ReceiptTracker.Pending(hash(nonce), FROM, CHAIN_ID, nonce);
+    }
+
+    private static String hash(long nonce) {
+        return String.format("0x%064x", nonce + 1);
+    }
+}
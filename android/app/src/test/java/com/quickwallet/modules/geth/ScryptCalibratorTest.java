@@ -0,0 +1,42 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScryptCalibratorTest {
+
+    @Test
+    public void slowDeviceKeepsTheMinimumCost() {
+        ScryptCalibrator.Params params = ScryptCalibrator.choose(ScryptCalibrator.MIN_N, 1, 3000, 1000);
+        assertEquals(ScryptCalibrator.MIN_N, params.n);
+        assertEquals(1, params.p);
+        assertEquals(3000, params.estimatedMillis);
+    }
+
+    @Test
+    public void doublesNWhileWithinTarget() {
+        // 200ms at MIN_N: 2x fits, 4x would take 800ms and still fits, 8x is beyond MAX_N
+        ScryptCalibrator.Params params = ScryptCalibrator.choose(ScryptCalibrator.MIN_N, 1, 200, 1000);
+        assertEquals(ScryptCalibrator.MAX_N, params.n);
+        assertEquals(1, params.p);
+        assertEquals(800, params.estimatedMillis);
+
+        params = ScryptCalibrator.choose(ScryptCalibrator.MIN_N, 1, 300, 1000);
+        assertEquals(ScryptCalibrator.MIN_N * 2, params.n);
+        assertEquals(600, params.estimatedMillis);
+    }
+
+    @Test
+    public void spendsRemainingBudgetOnPAtMaxN() {
+        ScryptCalibrator.Params params = ScryptCalibrator.choose(ScryptCalibrator.MIN_N, 1, 80, 1000);
+        assertEquals(ScryptCalibrator.MAX_N, params.n);
+        assertEquals(3, params.p);
+        assertTrue(params.estimatedMillis <= 1000);
+
+        params = ScryptCalibrator.choose(ScryptCalibrator.MIN_N, 1, 1, 1000);
+        assertEquals(ScryptCalibrator.MAX_N, params.n);
+        assertEquals(ScryptCalibrator.MAX_P, params.p);
+    }
+}
@@ -0,0 +1,154 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStateTest {
+    private static final List<String> ADDRESSES = Arrays.asList(
+            "0x9858effd232b4033e47d90003d41ec34ecaeda94",
+            "0x6fac4d18c912343bf86fa7049364dd4e424ab9c0",
+            "0xb6716976a3ebe8d39aceb04372f22ff8e6802d7a",
+            "0xf3f50213c1d2e255e4b2bad430f8a38eef8d718e");
+    private static final int SIGNATURES = 800;
+
+    @Test
+    public void signaturesUseTheSnapshotTheyReadWhileAccountsSwap() throws Exception {
+        final SessionState state = new SessionState();
+        final ConcurrentHashMap<String, AtomicInteger> signing = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, AtomicBoolean> locking = new ConcurrentHashMap<>();
+        for (String address : ADDRESSES) {
+            signing.put(address, new AtomicInteger());
+            locking.put(address, new AtomicBoolean());
+        }
+        // the snapshot a request of each account read before the latest switch
+        final AtomicReferenceArray<SessionState.Snapshot> read = new AtomicReferenceArray<>(ADDRESSES.size());
+        for (int i = 0; i < ADDRESSES.size(); i++) {
+            read.set(i, state.setAccount(ADDRESSES.get(i), null, null));
+        }
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger lockedMidSignature = new AtomicInteger();
+        final AtomicInteger wrongSnapshot = new AtomicInteger();
+        final AtomicInteger signed = new AtomicInteger();
+        final AtomicBoolean swapping = new AtomicBoolean(true);
+
+        // account switches and unInits keep landing while the signatures run, and lock the key
+        // of the swapped-out session the way GethModule.lockKey does
+        final SessionState.KeyWork<Void> lockKey = new SessionState.KeyWork<Void>() {
+            @Override
+            public Void run(SessionState.Snapshot session) {
+                if (signing.get(session.address).get() != 0) overlaps.incrementAndGet();
+                locking.get(session.address).set(true);
+                Thread.yield();
+                locking.get(session.address).set(false);
+                return null;
+            }
+        };
+        Thread swapper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                try {
+                    while (swapping.get()) {
+                        int index = i++ % ADDRESSES.size();
+                        String address = ADDRESSES.get(index);
+                        read.set(index, state.setAccount(address.toUpperCase().replace("0X", "0x"), null, null));
+                        SessionState.Snapshot previous = i % 7 == 0 ? state.clear() : state.clearAccount();
+                        if (previous.hasAccount()) state.withKey(previous, lockKey);
+                    }
+                } catch (Exception e) {
+                    overlaps.incrementAndGet();
+                }
+            }
+        });
+        swapper.start();
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        final CountDownLatch done = new CountDownLatch(SIGNATURES);
+        for (int i = 0; i < SIGNATURES; i++) {
+            final int index = i % ADDRESSES.size();
+            final byte[] message = ("message " + i).getBytes("UTF-8");
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final SessionState.Snapshot session = read.get(index);
+                        SessionState.Snapshot used = state.withKey(session, new SessionState.KeyWork<SessionState.Snapshot>() {
+                            @Override
+                            public SessionState.Snapshot run(SessionState.Snapshot signer) throws Exception {
+                                if (!state.lockFor(signer.address).isHeldByCurrentThread()) overlaps.incrementAndGet();
+                                if (signing.get(signer.address).incrementAndGet() != 1) overlaps.incrementAndGet();
+                                int now = active.incrementAndGet();
+                                while (true) {
+                                    int max = maxActive.get();
+                                    if (now <= max || maxActive.compareAndSet(max, now)) break;
+                                }
+                                if (locking.get(signer.address).get()) lockedMidSignature.incrementAndGet();
+                                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                                byte[] hash = message;
+                                for (int round = 0; round < 2000; round++) {
+                                    hash = digest.digest(hash);
+                                }
+                                if (locking.get(signer.address).get()) lockedMidSignature.incrementAndGet();
+                                active.decrementAndGet();
+                                signing.get(signer.address).decrementAndGet();
+                                return signer;
+                            }
+                        });
+                        if (used != session || !ADDRESSES.get(index).equals(used.address)) wrongSnapshot.incrementAndGet();
+                        signed.incrementAndGet();
+                    } catch (Exception e) {
+                        // counted as missing below
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        swapping.set(false);
+        swapper.join();
+        pool.shutdown();
+
+        assertEquals(SIGNATURES, signed.get());
+        assertEquals(0, wrongSnapshot.get());
+        assertEquals(0, overlaps.get());
+        assertEquals(0, lockedMidSignature.get());
+        assertTrue("accounts never signed in parallel", maxActive.get() > 1);
+        assertTrue(maxActive.get() <= ADDRESSES.size());
+    }
+
+    @Test
+    public void swapsReplaceTheWholeSnapshot() {
+        SessionState state = new SessionState();
+        String address = ADDRESSES.get(0);
+        assertFalse(state.get().hasAccount());
+
+        SessionState.Snapshot session = state.setAccount(address.toUpperCase().replace("0X", "0x"), null, null);
+        assertEquals(address, session.address);
+        assertSame(session, state.get());
+        assertSame(state.lockFor(address), state.lockFor(address.toUpperCase()));
+
+        assertSame(session, state.clearAccount());
+        assertNull(state.get().address);
+        assertFalse(state.clear().hasAccount());
+    }
+}
@@ -0,0 +1,80 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransferTicketsTest {
+    private static final String FROM = "0x9858effd232b4033e47d90003d41ec34ecaeda94";
+    private static final String TOKEN = "0x6fac4d18c912343bf86fa7049364dd4e424ab9c0";
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_getTransactionCount", "0x2a")
+                .result("eth_gasPrice", "0x3b9aca00")
+                .result("eth_chainId", "0x4")
+                .result("eth_estimateGas", "0xc350");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void prefetchesEverythingInOneRoundTrip() throws Exception {
+        JSONObject estimateCall = new JSONObject().put("from", FROM).put("to", TOKEN).put("data", "0xa9059cbb");
+        TransferTickets.Prefetch prefetch = TransferTickets.prefetch(client, FROM, estimateCall);
+
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(4, node.getCalls());
+        assertEquals(42, prefetch.nonce);
+        assertEquals(1000000000L, prefetch.gasPrice);
+        assertEquals(4, prefetch.chainId);
+        assertEquals(50000, prefetch.gasEstimate);
+
+        // ETH transfers need no estimate, and a node without eth_chainId is not an error
+        node.error("eth_chainId", "the method eth_chainId does not exist");
+        prefetch = TransferTickets.prefetch(client, FROM, null);
+        assertEquals(7, node.getCalls());
+        assertEquals(-1, prefetch.chainId);
+        assertEquals(-1, prefetch.gasEstimate);
+    }
+
+    @Test
+    public void ticketsAreSingleUseAndExpire() throws Exception {
+        TransferTickets tickets = new TransferTickets(200);
+        TransferTickets.Ticket ticket = tickets.add(4, FROM, TOKEN, 0, new byte[]{1}, 60000, 1000000000L);
+
+        assertTrue(tickets.isValid(ticket.id));
+        assertNotNull(tickets.take(ticket.id));
+        assertNull(tickets.take(ticket.id));
+
+        TransferTickets.Ticket stale = tickets.add(4, FROM, TOKEN, 0, null, 21000, 1000000000L);
+        Thread.sleep(250);
+        assertFalse(tickets.isValid(stale.id));
+        assertNull(tickets.take(stale.id));
+    }
+}
@@ -0,0 +1,188 @@
+package com.quickwallet.modules.geth;
+
+import com.quickwallet.modules.geth.rpc.JsonRpcClient;
+import com.quickwallet.modules.geth.rpc.StandInRpcDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TxOutboxTest {
+    private static final String FROM = "0x9858EfFD232B4033E47d90003D41EC34EcaEda94";
+    private static final long CHAIN_ID = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_sendRawTransaction", "0x00");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+        dir = new File(folder.getRoot(), "txOutbox");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void entriesSurviveARestart() throws Exception {
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(entry(7));
+        outbox.add(entry(8));
+        outbox.scheduleRetry(hash(8), "connection refused", false);
+
+        TxOutbox reloaded = new TxOutbox(dir);
+        List<TxOutbox.Entry> entries = reloaded.getEntries(CHAIN_ID);
+        assertEquals(2, entries.size());
+        for (TxOutbox.Entry entry : entries) {
+            assertEquals(entry.nonce == 8 ? 1 : 0, entry.getAttempts());
+        }
+        assertEquals(9, reloaded.nextNonce(CHAIN_ID, FROM.toLowerCase()));
+        assertEquals(-1, reloaded.nextNonce(1, FROM));
+    }
+
+    @Test
+    public void onlyNodeRejectionsDropAnEntry() throws Exception {
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(entry(1));
+
+        long first = outbox.scheduleRetry(hash(1), "timeout", false);
+        long second = outbox.scheduleRetry(hash(1), "timeout", false);
+        assertTrue(first >= TxOutbox.BASE_BACKOFF);
+        assertTrue(second >= 2 * TxOutbox.BASE_BACKOFF);
+        for (int i = 0; i < 3 * TxOutbox.MAX_REJECTIONS; i++) {
+            assertTrue(outbox.scheduleRetry(hash(1), "timeout", false) <= TxOutbox.MAX_BACKOFF * 5 / 4);
+        }
+        assertEquals(1, outbox.getEntries(CHAIN_ID).size());
+
+        for (int i = 1; i < TxOutbox.MAX_REJECTIONS; i++) {
+            outbox.scheduleRetry(hash(1), "insufficient funds for gas * price + value", true);
+        }
+        assertEquals(1, outbox.getEntries(CHAIN_ID).size());
+        assertEquals(-1, outbox.scheduleRetry(hash(1), "insufficient funds for gas * price + value", true));
+        assertEquals(0, new TxOutbox(dir).getEntries(CHAIN_ID).size());
+    }
+
+    @Test
+    public void flushPrunesMinedNoncesAndRebroadcastsInOneBatch() throws Exception {
+        node.result("eth_getTransactionCount:" + FROM.toLowerCase(), "0x4");
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(entry(3));
+        outbox.add(entry(4));
+        outbox.add(entry(5));
+
+        TxOutbox.FlushResult result = outbox.flush(client, CHAIN_ID, false);
+
+        assertEquals(1, result.pruned);
+        assertEquals(2, result.sent);
+        assertEquals(0, result.failed);
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(4, node.getCalls());
+        assertEquals(2, outbox.getEntries(CHAIN_ID).size());
+        assertTrue(result.nextDelay > TxOutbox.REBROADCAST_INTERVAL - 1000);
+
+        // nothing is due until the rebroadcast interval, unless forced
+        outbox.flush(client, CHAIN_ID, false);
+        assertEquals(5, node.getCalls());
+        outbox.flush(client, CHAIN_ID, true);
+        assertEquals(8, node.getCalls());
+    }
+
+    @Test
+    public void knownTransactionsCountAsSentAndRejectionsBackOff() throws Exception {
+        node.result("eth_getTransactionCount", "0x0")
+                .error("eth_sendRawTransaction:" + raw(0), "already known")
+                .error("eth_sendRawTransaction:" + raw(1), "insufficient funds for gas * price + value");
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(entry(0));
+        outbox.add(entry(1));
+
+        TxOutbox.FlushResult result = outbox.flush(client, CHAIN_ID, false);
+
+        assertEquals(1, result.sent);
+        assertEquals(1, result.failed);
+        for (TxOutbox.Entry entry : outbox.getEntries(CHAIN_ID)) {
+            if (entry.nonce == 0) {
+                assertNull(entry.getLastError());
+            } else {
+                assertEquals("insufficient funds for gas * price + value", entry.getLastError());
+                assertTrue(entry.getNextAttempt() > System.currentTimeMillis());
+            }
+        }
+    }
+
+    @Test
+    public void unreachableNodeKeepsEverything() throws Exception {
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(entry(0));
+        server.shutdown();
+
+        TxOutbox.FlushResult result = outbox.flush(client, CHAIN_ID, true);
+
+        assertEquals(1, result.failed);
+        assertEquals(1, outbox.getEntries(CHAIN_ID).size());
+        assertEquals(1, outbox.getEntries(CHAIN_ID).get(0).getAttempts());
+        assertTrue(result.nextDelay >= TxOutbox.BASE_BACKOFF - 1000);
+    }
+
+    @Test
+    public void replacementsKeepTheirOriginalAcrossARestart() throws Exception {
+        TxOutbox outbox = new TxOutbox(dir);
+        outbox.add(new TxOutbox.Entry(hash(9), FROM, CHAIN_ID, 3, raw(9), hash(3)));
+
+        TxOutbox.Entry entry = new TxOutbox(dir).get(hash(9));
+        assertEquals(hash(3).toLowerCase(), entry.replaces);
+        assertNull(outbox.get(hash(3)));
+    }
+
+    @Test
+    public void replacementsPayAtLeastTenPercentMore() {
+        assertEquals(BigInteger.valueOf(1100000000L), TxOutbox.minReplacementPrice(BigInteger.valueOf(1000000000L)));
+        assertEquals(BigInteger.valueOf(12), TxOutbox.minReplacementPrice(BigInteger.TEN.add(BigInteger.ONE)));
+        assertEquals(BigInteger.ONE, TxOutbox.minReplacementPrice(BigInteger.ZERO));
+    }
+
+    @Test
+    public void classifiesBroadcastErrors() {
+        assertTrue(TxOutbox.isTransient(new java.net.SocketTimeoutException()));
+        assertTrue(TxOutbox.isTransient(new Exception("Post https://node: dial tcp: connection refused")));
+        assertTrue(TxOutbox.isKnown("known transaction: 0xabc"));
+        assertTrue(!TxOutbox.isTransient(new Exception("nonce too low")));
+    }
+
+    private static TxOutbox.Entry entry(long nonce) {
+        return new TxOutbox.Entry(hash(nonce), FROM, CHAIN_ID, nonce, raw(nonce));
+    }
+
+    private static String hash(long nonce) {
+        return String.format("0x%064x", nonce + 1);
+    }
+
+    private static String raw(long nonce) {
+        return String.format("0xf86b%02x", nonce);
+    }
+}
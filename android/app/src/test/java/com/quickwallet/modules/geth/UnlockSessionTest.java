@@ -0,0 +1,61 @@
+package com.quickwallet.modules.geth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnlockSessionTest {
+    @Test
+    public void timeoutsNeverDropBelowTheMinimum() {
+        UnlockSession session = new UnlockSession();
+        assertEquals(UnlockSession.DEFAULT_TIMEOUT, session.getTimeout());
+
+        // zero would leave the key unlocked until the process exits
+        session.setTimeout(0);
+        assertEquals(UnlockSession.MIN_TIMEOUT, session.getTimeout());
+        session.setTimeout(-5000);
+        assertEquals(UnlockSession.MIN_TIMEOUT, session.getTimeout());
+        session.setTimeout(500);
+        assertEquals(UnlockSession.MIN_TIMEOUT, session.getTimeout());
+
+        session.setTimeout(60 * 1000);
+        assertEquals(60 * 1000, session.getTimeout());
+    }
+
+    @Test
+    public void lockOvertakesAnUnlockInProgress() {
+        UnlockSession session = new UnlockSession();
+        String address = "0x9858effd232b4033e47d90003d41ec34ecaeda94";
+
+        // lock lands while the scrypt run of the unlock is still going
+        int epoch = session.epoch();
+        session.lock(null);
+        assertFalse(session.publish(epoch, address, "secret", 60 * 1000));
+        assertFalse(session.matches(address, "secret", 0));
+
+        assertTrue(session.publish(session.epoch(), address, "secret", 60 * 1000));
+        assertTrue(session.matches(address.toUpperCase().replace("0X", "0x"), "secret", 0));
+        session.lock(null);
+        assertFalse(session.matches(address, "secret", 0));
+    }
+
+    @Test
+    public void aSessionThatExpiresDuringTheNodeRoundTripsNoLongerMatches() {
+        UnlockSession session = new UnlockSession();
+        String address = "0x9858effd232b4033e47d90003d41ec34ecaeda94";
+        long expiresAt = 20 * 1000;
+        assertTrue(session.publish(session.epoch(), address, "secret", expiresAt));
+
+        // checked when the request arrives
+        assertTrue(session.matches(address, "secret", 0));
+        assertFalse(session.matches(address, "wrong", 0));
+        assertFalse(session.matches("0x6fac4d18c912343bf86fa7049364dd4e424ab9c0", "secret", 0));
+        // checked again at signing, after the nonce lookup and estimate took up to the rpc deadline,
+        // so the key is unlocked again instead of geth failing the signature
+        assertTrue(session.matches(address, "secret", expiresAt - UnlockSession.EXPIRY_MARGIN - 1));
+        assertFalse(session.matches(address, "secret", expiresAt - UnlockSession.EXPIRY_MARGIN));
+        assertFalse(session.matches(address, "secret", expiresAt + 15 * 1000));
+    }
+}
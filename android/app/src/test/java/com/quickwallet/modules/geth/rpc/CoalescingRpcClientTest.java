@@ -0,0 +1,95 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalescingRpcClientTest {
+    private static final String ADDRESS = "0x9858effd232b4033e47d90003d41ec34ecaeda94";
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient upstream;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_getBalance", "0xde0b6b3a7640000")
+                .result("eth_getTransactionCount", "0x7")
+                .result("eth_sendRawTransaction", "0xab");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        upstream = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentIdenticalReadsShareOneRequest() throws Exception {
+        node.delay(200);
+        final CoalescingRpcClient client = new CoalescingRpcClient(upstream, 0);
+        final CountDownLatch done = new CountDownLatch(6);
+        final List<Object> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Object result = client.call("eth_getBalance", new JSONArray().put(ADDRESS).put("latest"));
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception e) {
+                        // counted as missing below
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(6, results.size());
+        assertEquals(1, node.getCalls());
+        assertEquals(1, client.getMisses());
+        assertEquals(5, client.getHits());
+
+        // nothing is reused once the call has landed
+        client.call("eth_getBalance", new JSONArray().put(ADDRESS).put("latest"));
+        assertEquals(2, node.getCalls());
+    }
+
+    @Test
+    public void reusesResultsWithinTheWindowOnly() throws Exception {
+        CoalescingRpcClient client = new CoalescingRpcClient(upstream, 300);
+        JsonRpcClient.Request nonce = new JsonRpcClient.Request("eth_getTransactionCount", new JSONArray().put(ADDRESS).put("pending"));
+        JsonRpcClient.Request send = new JsonRpcClient.Request("eth_sendRawTransaction", new JSONArray().put("0x01"));
+
+        client.batch(Arrays.asList(nonce, send));
+        List<JsonRpcClient.Response> responses = client.batch(Arrays.asList(nonce, send));
+        assertEquals("0x7", responses.get(0).getResult());
+        assertEquals("0xab", responses.get(1).getResult());
+        // the nonce came from the window, the send went out both times
+        assertEquals(3, node.getCalls());
+        assertEquals(1, client.getHits());
+
+        Thread.sleep(350);
+        client.batch(Arrays.asList(nonce));
+        assertEquals(4, node.getCalls());
+        assertEquals(2, client.getMisses());
+    }
+}
@@ -0,0 +1,139 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonRpcClientTest {
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_blockNumber", "0x10")
+                .result("eth_getTransactionReceipt", JSONObject.NULL);
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void batchSendsOneRequestAndKeepsOrder() throws Exception {
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String address = String.format("0x%040x", i);
+            node.result("eth_getBalance:" + address, "0x" + Integer.toHexString(i));
+            requests.add(new JsonRpcClient.Request("eth_getBalance", new JSONArray().put(address).put("latest")));
+        }
+
+        List<JsonRpcClient.Response> responses = client.batch(requests);
+
+        assertEquals(1, node.getHttpRequests());
+        assertEquals(30, responses.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals("0x" + Integer.toHexString(i), responses.get(i).getResult());
+        }
+    }
+
+    @Test
+    public void batchIsSplitIntoChunks() throws Exception {
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        for (int i = 0; i < JsonRpcClient.MAX_BATCH_SIZE + 1; i++) {
+            requests.add(new JsonRpcClient.Request("eth_blockNumber", null));
+        }
+
+        List<JsonRpcClient.Response> responses = client.batch(requests);
+
+        assertEquals(2, node.getHttpRequests());
+        assertEquals(JsonRpcClient.MAX_BATCH_SIZE + 1, responses.size());
+    }
+
+    @Test
+    public void errorsStayWithTheirCall() throws Exception {
+        List<JsonRpcClient.Request> requests = new ArrayList<>();
+        requests.add(new JsonRpcClient.Request("eth_blockNumber", null));
+        requests.add(new JsonRpcClient.Request("eth_unknown", null));
+        requests.add(new JsonRpcClient.Request("eth_getTransactionReceipt", new JSONArray().put("0x01")));
+
+        List<JsonRpcClient.Response> responses = client.batch(requests);
+
+        assertEquals("0x10", responses.get(0).getResult());
+        assertTrue(responses.get(1).isError());
+        assertEquals(-32601, responses.get(1).getError().getCode());
+        assertNull(responses.get(2).getResult());
+    }
+
+    @Test
+    public void webSocketEndpointsShareOneConnection() throws Exception {
+        JsonRpcClient ws = new JsonRpcClient(new OkHttpClient(), server.url("/").toString().replace("http:", "ws:"));
+        try {
+            assertFalse(ws.isHttp());
+            assertEquals("0x10", ws.call("eth_blockNumber", new JSONArray()));
+
+            List<JsonRpcClient.Request> requests = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                String address = String.format("0x%040x", i);
+                node.result("eth_getBalance:" + address, "0x" + Integer.toHexString(i));
+                requests.add(new JsonRpcClient.Request("eth_getBalance", new JSONArray().put(address).put("latest")));
+            }
+            List<JsonRpcClient.Response> responses = ws.batch(requests);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("0x" + Integer.toHexString(i), responses.get(i).getResult());
+            }
+            // one upgrade, then frames on the same connection
+            assertEquals(1, node.getHttpRequests());
+            assertEquals(6, node.getCalls());
+        } finally {
+            ws.close();
+        }
+    }
+
+    @Test
+    public void singleCallThrowsNodeError() throws Exception {
+        assertEquals("0x10", client.call("eth_blockNumber", null));
+        try {
+            client.call("eth_unknown", null);
+            fail();
+        } catch (JsonRpcException e) {
+            assertEquals(-32601, e.getCode());
+        }
+    }
+
+    @Test
+    public void quantitiesAreParsedOrRejected() throws Exception {
+        assertEquals(BigInteger.ZERO, JsonRpcClient.quantity("0x"));
+        assertEquals(new BigInteger("de0b6b3a7640000", 16), JsonRpcClient.quantity("0xde0b6b3a7640000"));
+        assertEquals(16, JsonRpcClient.longQuantity("0x10"));
+        for (Object bad : new Object[] {null, 16, "10", "0xzz", "0x10000000000000000"}) {
+            try {
+                JsonRpcClient.longQuantity(bad);
+                fail("accepted " + bad);
+            } catch (JsonRpcException e) {
+                assertEquals(-32603, e.getCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RpcCacheTest {
+    private static final String HASH = "0x88df016429689c079f3b2f6ad39fa052532c56795b733da78a91ebe6a713944b";
+    private static final String TOKEN = "0x6fac4d18c912343bf86fa7049364dd4e424ab9c0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private StandInRpcDispatcher node;
+    private JsonRpcClient client;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        node = new StandInRpcDispatcher()
+                .result("eth_getTransactionReceipt", new JSONObject().put("status", "0x1").put("blockNumber", "0x64"))
+                .result("eth_call", "0x0000000000000000000000000000000000000000000000000000000000000012")
+                .result("eth_blockNumber", "0x80");
+        server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        client = new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+        dir = new File(folder.getRoot(), "rpcCache");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void finalResultsSkipTheNetworkAcrossRestarts() throws Exception {
+        List<JsonRpcClient.Request> requests = Arrays.asList(
+                receipt(HASH),
+                call(TOKEN, "0x313ce567"),
+                new JsonRpcClient.Request("eth_blockNumber", new JSONArray()));
+
+        new RpcCache(dir).batch(client, 4, 0x64 + RpcCache.FINALITY_DEPTH, requests);
+        assertEquals(3, node.getCalls());
+
+        RpcCache restarted = new RpcCache(dir);
+        List<JsonRpcClient.Response> responses = restarted.batch(client, 4, 0x64 + RpcCache.FINALITY_DEPTH, requests);
+        // only eth_blockNumber went out
+        assertEquals(4, node.getCalls());
+        assertEquals(2, restarted.getHits());
+        assertEquals("0x64", ((JSONObject) responses.get(0).getResult()).getString("blockNumber"));
+        assertEquals("0x0000000000000000000000000000000000000000000000000000000000000012", responses.get(1).getResult());
+        assertEquals("0x80", responses.get(2).getResult());
+
+        // another chain is another key
+        restarted.batch(client, 1, 0x64 + RpcCache.FINALITY_DEPTH, requests.subList(0, 1));
+        assertEquals(5, node.getCalls());
+    }
+
+    @Test
+    public void admitsOnlyFinalResults() throws Exception {
+        RpcCache cache = new RpcCache(dir);
+        List<JsonRpcClient.Request> requests = Arrays.asList(receipt(HASH), call(TOKEN, "0x70a08231"));
+
+        // mined too recently, and balanceOf is never cached
+        cache.batch(client, 4, 0x64 + 1, requests);
+        cache.batch(client, 4, 0x64 + 1, requests);
+        assertEquals(4, node.getCalls());
+
+        node.result("eth_getTransactionReceipt:" + HASH, JSONObject.NULL);
+        cache.batch(client, 4, 0x1000, requests.subList(0, 1));
+        assertNull(cache.batch(client, 4, 0x1000, requests.subList(0, 1)).get(0).getResult());
+        assertEquals(6, node.getCalls());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondBudget() throws Exception {
+        // each entry is a 66-character result plus the JSON array around it
+        RpcCache cache = new RpcCache(dir, 3 * 70 + 10);
+        List<JsonRpcClient.Request> tokens = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tokens.add(call(String.format("0x%040x", i), "0x313ce567"));
+        }
+        cache.batch(client, 4, -1, tokens.subList(0, 3));
+        // touch the first one so the second is the least recently used
+        cache.batch(client, 4, -1, tokens.subList(0, 1));
+        cache.batch(client, 4, -1, tokens.subList(3, 4));
+        assertEquals(3, dir.list().length);
+        assertEquals(4, node.getCalls());
+
+        cache.batch(client, 4, -1, Arrays.asList(tokens.get(0), tokens.get(2), tokens.get(3)));
+        assertEquals(4, node.getCalls());
+        cache.batch(client, 4, -1, tokens.subList(1, 2));
+        assertEquals(5, node.getCalls());
+    }
+
+    private static JsonRpcClient.Request receipt(String hash) {
+        return new JsonRpcClient.Request("eth_getTransactionReceipt", new JSONArray().put(hash));
+    }
+
+    private static JsonRpcClient.Request call(String to, String data) throws Exception {
+        return new JsonRpcClient.Request("eth_call", new JSONArray().put(new JSONObject().put("to", to).put("data", data)).put("latest"));
+    }
+}
@@ -0,0 +1,105 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcRouterTest {
+    private final List<MockWebServer> servers = new ArrayList<>();
+    private StandInRpcDispatcher slow;
+    private StandInRpcDispatcher fast;
+    private JsonRpcClient slowClient;
+    private JsonRpcClient fastClient;
+
+    @Before
+    public void setUp() throws Exception {
+        slow = new StandInRpcDispatcher().result("eth_blockNumber", "0x1");
+        fast = new StandInRpcDispatcher().result("eth_blockNumber", "0x2");
+        slowClient = client(slow);
+        fastClient = client(fast);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (MockWebServer server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void hedgesReadsAndLearnsTheFasterEndpoint() throws Exception {
+        slow.delay(800);
+        RpcRouter router = new RpcRouter(Arrays.asList(slowClient, fastClient), RpcRouter.DEFAULT_DEADLINE);
+        assertEquals(slowClient.getUrl(), router.getBestUrl());
+
+        long start = System.nanoTime();
+        assertEquals("0x2", router.call("eth_blockNumber", new JSONArray()));
+        // answered by the hedge long before the slow node
+        assertTrue((System.nanoTime() - start) / 1000000L < 800);
+        assertEquals(1, fast.getCalls());
+
+        // once the slow node finally answers, the fast one ranks first and gets the calls
+        Thread.sleep(1000);
+        assertEquals(fastClient.getUrl(), router.getBestUrl());
+        assertTrue(router.getLatency(slowClient.getUrl()) > router.getLatency(fastClient.getUrl()));
+        router.call("eth_blockNumber", new JSONArray());
+        assertEquals(1, slow.getCalls());
+        assertEquals(2, fast.getCalls());
+    }
+
+    @Test
+    public void neverHedgesWrites() throws Exception {
+        slow.delay(800).result("eth_sendRawTransaction", "0xab");
+        RpcRouter router = new RpcRouter(Arrays.asList(slowClient, fastClient), RpcRouter.DEFAULT_DEADLINE);
+
+        assertEquals("0xab", router.call("eth_sendRawTransaction", new JSONArray().put("0x01")));
+        assertEquals(0, fast.getCalls());
+    }
+
+    @Test
+    public void failsOverAndPenalizesBrokenEndpoints() throws Exception {
+        servers.get(0).shutdown();
+        RpcRouter router = new RpcRouter(Arrays.asList(slowClient, fastClient), RpcRouter.DEFAULT_DEADLINE);
+
+        assertEquals("0x2", router.call("eth_blockNumber", new JSONArray()));
+        assertTrue(router.getErrorRate(slowClient.getUrl()) > 0);
+        assertEquals(fastClient.getUrl(), router.getBestUrl());
+    }
+
+    @Test
+    public void givesUpAtTheDeadline() throws Exception {
+        slow.delay(1000);
+        fast.delay(1000);
+        RpcRouter router = new RpcRouter(Arrays.asList(slowClient, fastClient), 200);
+
+        long start = System.nanoTime();
+        try {
+            router.call("eth_blockNumber", new JSONArray());
+            fail("expected a timeout");
+        } catch (IOException e) {
+            assertTrue((System.nanoTime() - start) / 1000000L < 700);
+        }
+        assertTrue(router.getErrorRate(slowClient.getUrl()) > 0);
+    }
+
+    private JsonRpcClient client(StandInRpcDispatcher node) throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(node);
+        server.start();
+        servers.add(server);
+        return new JsonRpcClient(new OkHttpClient(), server.url("/").toString());
+    }
+}
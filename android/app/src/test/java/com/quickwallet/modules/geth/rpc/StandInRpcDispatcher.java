@@ -0,0 +1,136 @@
+package com.quickwallet.modules.geth.rpc;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for an Ethereum JSON-RPC node. Answers calls from a fixed table of
+ * {@code method} or {@code method:firstParam} keys, or with a canned error, replies to batches in reverse order the way
+ * real nodes are allowed to, and can delay every response to simulate a slow node. A WebSocket
+ * upgrade gets the same answers, one frame per request or batch.
+ */
+public class StandInRpcDispatcher extends Dispatcher {
+    private final Map<String, Object> results = new ConcurrentHashMap<>();
+    private final Map<String, String> errors = new ConcurrentHashMap<>();
+    private final AtomicInteger httpRequests = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile long delayMillis;
+
+    public StandInRpcDispatcher result(String key, Object result) {
+        results.put(key, result);
+        return this;
+    }
+
+    public StandInRpcDispatcher error(String key, String message) {
+        errors.put(key, message);
+        return this;
+    }
+
+    public StandInRpcDispatcher delay(long delayMillis) {
+        this.delayMillis = delayMillis;
+        return this;
+    }
+
+    public int getHttpRequests() {
+        return httpRequests.get();
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        httpRequests.incrementAndGet();
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        if ("websocket".equalsIgnoreCase(request.getHeader("Upgrade"))) {
+            return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                @Override
+                public void onMessage(WebSocket webSocket, String text) {
+                    try {
+                        webSocket.send(respond(text));
+                    } catch (JSONException e) {
+                        webSocket.close(1003, "not JSON");
+                    }
+                }
+
+                @Override
+                public void onClosing(WebSocket webSocket, int code, String reason) {
+                    webSocket.close(1000, null);
+                }
+
+                @Override
+                public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                    // the client went away
+                }
+            });
+        }
+        try {
+            return new MockResponse().setBody(respond(request.getBody().readUtf8()));
+        } catch (JSONException e) {
+            return new MockResponse().setResponseCode(400);
+        }
+    }
+
+    private String respond(String text) throws JSONException {
+        String body = text.trim();
+        if (body.startsWith("[")) {
+            JSONArray batch = new JSONArray(body);
+            JSONArray out = new JSONArray();
+            for (int i = batch.length() - 1; i >= 0; i--) {
+                out.put(answer(batch.getJSONObject(i)));
+            }
+            return out.toString();
+        }
+        return answer(new JSONObject(body)).toString();
+    }
+
+    private JSONObject answer(JSONObject call) throws JSONException {
+        calls.incrementAndGet();
+        String method = call.getString("method");
+        JSONArray params = call.optJSONArray("params");
+
+        Object result = null;
+        String message = null;
+        if (params != null && params.length() > 0) {
+            result = results.get(method + ":" + params.get(0));
+            message = errors.get(method + ":" + params.get(0));
+        }
+        if (result == null && message == null) {
+            result = results.get(method);
+            message = errors.get(method);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("jsonrpc", "2.0");
+        response.put("id", call.get("id"));
+        if (message != null) {
+            JSONObject error = new JSONObject();
+            error.put("code", -32000);
+            error.put("message", message);
+            response.put("error", error);
+        } else if (result == null) {
+            JSONObject error = new JSONObject();
+            error.put("code", -32601);
+            error.put("message", "the method " + method + " does not exist/is not available");
+            response.put("error", error);
+        } else {
+            response.put("result", result);
+        }
+        return response;
+    }
+}
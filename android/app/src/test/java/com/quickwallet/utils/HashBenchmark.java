@@ -0,0 +1,70 @@
+package com.quickwallet.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures personal-message hashing for the message sizes dapps send: a 32 byte hash, a short
+ * login text and a multi-kilobyte typed payload. {@code personalMessageHash} is compared with the
+ * previous shape of GethModule's code path, which built the prefix string and copied it together
+ * with the message before hashing. The gomobile {@code Geth.keccak256} call itself needs the
+ * native library and can only be measured on a device.
+ *
+ * <p>Not picked up by the unit test run; start it with {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"32", "200", "4096"})
+    public int size;
+
+    private byte[] message;
+
+    @Setup
+    public void setUp() {
+        message = new byte[size];
+        new Random(size).nextBytes(message);
+    }
+
+    @Benchmark
+    public byte[] concatenateThenHash() {
+        byte[] prefix = ("\u0019Ethereum Signed Message:\n" + message.length).getBytes();
+        byte[] joined = new byte[prefix.length + message.length];
+        System.arraycopy(prefix, 0, joined, 0, prefix.length);
+        System.arraycopy(message, 0, joined, prefix.length, message.length);
+        return Hash.keccak256(joined);
+    }
+
+    @Benchmark
+    public byte[] personalMessageHash() {
+        return Hash.personalMessageHash(message);
+    }
+
+    @Benchmark
+    public byte[] freshKeccakPerCall() {
+        return new Keccak256().update(message).digest();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(HashBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.quickwallet.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HashTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void keccak256MatchesKnownVectors() {
+        assertEquals("0xc5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470",
+                HexUtil.encode(Hash.keccak256(new byte[0])));
+        assertEquals("0x4e03657aea45a94fc7d47ba826c8d667c0d1e6e33a64a036ec44f58fa12d6c45",
+                HexUtil.encode(Hash.keccak256("abc".getBytes(UTF_8))));
+        // exactly one rate-sized block, and a multi-block input
+        assertEquals("0x7ce759f1ab7f9ce437719970c26b0a66ff11fe3e38e17df89cf5d29c7d7f807e",
+                HexUtil.encode(Hash.keccak256(sequence(136))));
+        assertEquals("0xaca79e4146e30eb1c733f6d6060d72471c36ea4e01ebf45d7f4916249c2bbd82",
+                HexUtil.encode(Hash.keccak256(sequence(1000))));
+    }
+
+    @Test
+    public void streamingMatchesOneShot() {
+        Random random = new Random(7);
+        Keccak256 keccak = new Keccak256();
+        for (int length = 0; length < 600; length += 13) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            int offset = 0;
+            while (offset < length) {
+                int chunk = Math.min(length - offset, random.nextInt(150));
+                keccak.update(data, offset, chunk);
+                offset += chunk;
+            }
+            assertArrayEquals(Hash.keccak256(data), keccak.digest());
+        }
+    }
+
+    @Test
+    public void personalMessageHashMatchesPrefixedKeccak() {
+        assertEquals("0xd9eba16ed0ecae432b71fe008c98cc872bb4cc214d3220a36f365326cf807d68",
+                HexUtil.encode(Hash.personalMessageHash("hello world".getBytes(UTF_8))));
+
+        int[] lengths = {0, 1, 9, 10, 99, 100, 1000, 12345};
+        for (int length : lengths) {
+            byte[] message = sequence(length);
+            byte[] prefix = ("\u0019Ethereum Signed Message:\n" + length).getBytes(UTF_8);
+            byte[] joined = new byte[prefix.length + length];
+            System.arraycopy(prefix, 0, joined, 0, prefix.length);
+            System.arraycopy(message, 0, joined, prefix.length, length);
+            assertArrayEquals(Hash.keccak256(joined), Hash.personalMessageHash(message));
+        }
+    }
+
+    @Test
+    public void perThreadStateIsIsolated() throws Exception {
+        final byte[] data = sequence(4096);
+        final byte[] expected = Hash.keccak256(data);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int n = 0; n < 200; n++) {
+                            assertArrayEquals(expected, Hash.keccak256(data));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.quickwallet.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link HexUtil} with the {@code Character.digit} loop GethModule used before, on
+ * payloads the size of a key (32), a signature (65) and typical calldata (1024). The gomobile
+ * {@code Geth.hexToBytes}/{@code bytesToHex} path needs the native library and can only be
+ * measured on a device.
+ *
+ * <p>Not picked up by the unit test run; start it with {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexUtilBenchmark {
+
+    @Param({"32", "65", "1024"})
+    public int size;
+
+    private byte[] data;
+    private String hex;
+    private byte[] byteBuffer;
+    private char[] charBuffer;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        hex = HexUtil.encode(data);
+        byteBuffer = new byte[size];
+        charBuffer = new char[2 * size];
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        String s = hex.replace("0x", "");
+        int len = s.length();
+        byte[] out = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            out[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) + Character.digit(s.charAt(i + 1), 16));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return HexUtil.decode(hex);
+    }
+
+    @Benchmark
+    public byte[] decodeIntoBuffer() {
+        HexUtil.decode(hex, byteBuffer, 0);
+        return byteBuffer;
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        StringBuilder builder = new StringBuilder(2 + data.length * 2).append("0x");
+        for (byte b : data) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    @Benchmark
+    public String encode() {
+        return HexUtil.encode(data);
+    }
+
+    @Benchmark
+    public char[] encodeIntoBuffer() {
+        HexUtil.encode(data, 0, data.length, charBuffer, 0);
+        return charBuffer;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(HexUtilBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,65 @@
+package com.quickwallet.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HexUtilTest {
+
+    @Test
+    public void roundTripsRandomData() {
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String hex = HexUtil.encode(data);
+            assertEquals(2 + 2 * length, hex.length());
+            assertArrayEquals(data, HexUtil.decode(hex));
+            assertArrayEquals(data, HexUtil.decode(hex.substring(2)));
+        }
+    }
+
+    @Test
+    public void decodesMixedCaseWithOrWithoutPrefix() {
+        byte[] expected = {(byte) 0xde, (byte) 0xad, (byte) 0xBE, (byte) 0xef, 0x00, 0x7f};
+        assertArrayEquals(expected, HexUtil.decode("0xDeAdbEEF007F"));
+        assertArrayEquals(expected, HexUtil.decode("0XdeadBEEF007f"));
+        assertArrayEquals(expected, HexUtil.decode("deadbeef007f"));
+        assertArrayEquals(new byte[0], HexUtil.decode("0x"));
+        assertEquals("0xdeadbeef007f", HexUtil.encode(expected));
+    }
+
+    @Test
+    public void writesIntoCallerBuffers() {
+        byte[] out = new byte[6];
+        assertEquals(2, HexUtil.decode("0xabcd", out, 3));
+        assertArrayEquals(new byte[]{0, 0, 0, (byte) 0xab, (byte) 0xcd, 0}, out);
+
+        char[] chars = "--------".toCharArray();
+        assertEquals(4, HexUtil.encode(new byte[]{1, 2, (byte) 0xff}, 1, 2, chars, 2));
+        assertEquals("--02ff--", new String(chars));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] invalid = {"0xabc", "abc", "0xzz", "0x0g", "12 4", "0xéé", "x0ab"};
+        for (String hex : invalid) {
+            try {
+                HexUtil.decode(hex);
+                fail("Accepted " + hex);
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+        try {
+            HexUtil.decode("0xabcd", new byte[3], 2);
+            fail("Overflowed the output buffer");
+        } catch (IndexOutOfBoundsException expected) {
+            // ok
+        }
+    }
+}